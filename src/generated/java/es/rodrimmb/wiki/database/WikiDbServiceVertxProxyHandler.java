@@ -120,11 +120,44 @@ public class WikiDbServiceVertxProxyHandler extends ProxyHandler {
           service.fetchAllPages(HelperUtils.createListHandler(msg));
           break;
         }
+        case "fetchPages": {
+          service.fetchPages((java.lang.String)json.getValue("after"),
+                        json.getValue("limit") == null ? null : (json.getLong("limit").intValue()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "streamPages": {
+          service.streamPages((java.lang.String)json.getValue("address"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "exportPages": {
+          service.exportPages((java.lang.String)json.getValue("address"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
         case "fetchPageById": {
           service.fetchPageById((java.lang.String)json.getValue("id"),
                         HelperUtils.createHandler(msg));
           break;
         }
+        case "fetchPageVersion": {
+          service.fetchPageVersion((java.lang.String)json.getValue("id"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "searchPages": {
+          service.searchPages((java.lang.String)json.getValue("query"),
+                        json.getValue("limit") == null ? null : (json.getLong("limit").intValue()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "suggestPages": {
+          service.suggestPages((java.lang.String)json.getValue("prefix"),
+                        json.getValue("limit") == null ? null : (json.getLong("limit").intValue()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
         case "fetchPageByName": {
           service.fetchPageByName((java.lang.String)json.getValue("name"),
                         HelperUtils.createHandler(msg));
@@ -136,6 +169,11 @@ public class WikiDbServiceVertxProxyHandler extends ProxyHandler {
                         HelperUtils.createHandler(msg));
           break;
         }
+        case "findOrCreatePage": {
+          service.findOrCreatePage((java.lang.String)json.getValue("name"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
         case "savePage": {
           service.savePage((java.lang.String)json.getValue("id"),
                         (java.lang.String)json.getValue("content"),
@@ -147,6 +185,51 @@ public class WikiDbServiceVertxProxyHandler extends ProxyHandler {
                         HelperUtils.createHandler(msg));
           break;
         }
+        case "fetchPagesByIds": {
+          service.fetchPagesByIds(HelperUtils.convertList(json.getJsonArray("ids").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "createPages": {
+          service.createPages(HelperUtils.convertList(json.getJsonArray("pages").getList()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "savePages": {
+          service.savePages(HelperUtils.convertList(json.getJsonArray("pages").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "importPages": {
+          service.importPages(HelperUtils.convertList(json.getJsonArray("pages").getList()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "deletePages": {
+          service.deletePages(HelperUtils.convertList(json.getJsonArray("ids").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "fetchRevisions": {
+          service.fetchRevisions((java.lang.String)json.getValue("id"),
+                        json.getValue("before") == null ? null : (json.getLong("before").longValue()),
+                        json.getValue("limit") == null ? null : (json.getLong("limit").intValue()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "fetchRevision": {
+          service.fetchRevision((java.lang.String)json.getValue("id"),
+                        json.getValue("revision") == null ? null : (json.getLong("revision").longValue()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "diffRevisions": {
+          service.diffRevisions((java.lang.String)json.getValue("id"),
+                        json.getValue("from") == null ? null : (json.getLong("from").longValue()),
+                        json.getValue("to") == null ? null : (json.getLong("to").longValue()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
         default: throw new IllegalStateException("Invalid action: " + action);
       }
     } catch (Throwable t) {
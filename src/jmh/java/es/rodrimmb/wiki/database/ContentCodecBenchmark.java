@@ -0,0 +1,66 @@
+package es.rodrimmb.wiki.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Coste de comprimir el contenido al guardar y de descomprimirlo al leer con wikidb.content.compression.enabled, sobre
+ * una pagina de unos 100 KB de Markdown repetitivo como la de MarkdownBenchmark, con cada nivel de deflate
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ContentCodecBenchmark {
+
+    private static final String SECTION =
+            "## Section\n" +
+                    "\n" +
+                    "Some *emphasis*, some **strong text** and a [link](http://vertx.io) in a paragraph that is long " +
+                    "enough to wrap a couple of times in the editor.\n" +
+                    "\n" +
+                    "* First item\n" +
+                    "* Second item with `code`\n" +
+                    "* Third item\n" +
+                    "\n";
+
+    @Param({"1", "6", "9"})
+    private int level;
+
+    private byte[] content;
+    private byte[] deflated;
+
+    @Setup
+    public void setUp() {
+        StringBuilder markdown = new StringBuilder("# Large page\n\n");
+        for(int i = 0; markdown.length() < 100 * 1024; i++) {
+            markdown.append(SECTION.replace("Section", "Section " + i));
+        }
+        content = markdown.toString().getBytes(StandardCharsets.UTF_8);
+        deflated = ContentCodec.deflate(content, level);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ContentCodec.deflate(content, level);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return ContentCodec.inflate(deflated);
+    }
+}
@@ -0,0 +1,52 @@
+package es.rodrimmb.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Paso de la fila que devuelve la DB al JsonObject de la pagina en fetchPageById/fetchPageByName, con una fila como
+ * las de vertx-jdbc-client (todo String, fechas en ISO)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PageMappingBenchmark {
+
+    private JsonArray row;
+
+    @Setup
+    public void setUp() {
+        String content = "# Benchmark\n\nSome *content* with a [link](http://vertx.io).\n";
+        row = new JsonArray()
+                .add(UUID.randomUUID().toString())
+                .add("benchmark")
+                .add(content)
+                .add("2020-05-01T10:00:00.000000Z")
+                .add("2020-05-02T10:00:00.000000Z")
+                .addNull()
+                .add(Processor.process(content))
+                .addNull();
+    }
+
+    @Benchmark
+    public JsonObject page() {
+        return AbstractWikiDbService.page(row);
+    }
+}
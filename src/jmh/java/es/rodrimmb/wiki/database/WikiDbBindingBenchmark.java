@@ -0,0 +1,151 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Coste de cada llamada a WikiDbService a traves del proxy del event bus frente a la llamada directa de
+ * WikiDbServiceLocal. Las lecturas salen de la cache de WikiDbServiceCached, asi casi todo el tiempo es el de la propia
+ * llamada: codificar y copiar el mensaje y la respuesta con el proxy, o solo los saltos entre event loops en local.
+ * Las llamadas se hacen desde otro contexto, como las de HttpServerVerticle. Necesita el mismo Postgres que
+ * WikiDbClientBenchmark para crear las paginas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WikiDbBindingBenchmark {
+
+    private static final int PAGES = 50;
+
+    @Param({"eventbus", "local"})
+    public String binding;
+
+    @Param({"1", "64"})
+    public int concurrency;
+
+    private Vertx vertx;
+    private Context caller;
+    private WikiDbService service;
+    private final List<String> pageIds = new ArrayList<>(PAGES);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = new JsonObject()
+                .put(CONFIG_WIKIDB_JDBC_URL, System.getProperty(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL))
+                .put(CONFIG_WIKIDB_JDBC_USER, System.getProperty(CONFIG_WIKIDB_JDBC_USER, DEFAULT_CONFIG_WIKIDB_JDBC_USER))
+                .put(CONFIG_WIKIDB_JDBC_PASSWORD,
+                        System.getProperty(CONFIG_WIKIDB_JDBC_PASSWORD, DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD))
+                .put(CONFIG_WIKIDB_CACHE_TTL, TimeUnit.HOURS.toMillis(1));
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config), deploy -> {
+            if(deploy.succeeded()) {
+                deployed.complete(deploy.result());
+            } else {
+                deployed.completeExceptionally(deploy.cause());
+            }
+        });
+        deployed.get(30, TimeUnit.SECONDS);
+        service = "local".equals(binding)
+                ? WikiDbService.createLocal(vertx, WikiDbVerticle.CONFIG_WIKIDB_QUEUE)
+                : WikiDbService.createProxy(vertx, WikiDbVerticle.CONFIG_WIKIDB_QUEUE);
+        caller = vertx.getOrCreateContext();
+
+        List<JsonObject> pages = new ArrayList<>(PAGES);
+        for(int i = 0; i < PAGES; i++) {
+            String id = UUID.randomUUID().toString();
+            pageIds.add(id);
+            pages.add(new JsonObject().put("id", id).put("name", "binding " + id));
+        }
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        service.createPages(pages, create -> {
+            if(create.succeeded()) {
+                created.complete(null);
+            } else {
+                created.completeExceptionally(create.cause());
+            }
+        });
+        created.get(30, TimeUnit.SECONDS);
+        //Primera lectura para llenar la cache
+        fetchPageById();
+        fetchAllPages();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> deleted = new CompletableFuture<>();
+        service.deletePages(pageIds, delete -> deleted.complete(null));
+        deleted.get(30, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(close -> closed.complete(null));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public List<JsonObject> fetchPageById() throws Exception {
+        return calls((i, page) -> service.fetchPageById(pageIds.get(i % PAGES), fetch -> {
+            if(fetch.succeeded()) {
+                page.complete(fetch.result());
+            } else {
+                page.completeExceptionally(fetch.cause());
+            }
+        }));
+    }
+
+    @Benchmark
+    public List<List<JsonObject>> fetchAllPages() throws Exception {
+        return calls((i, pages) -> service.fetchAllPages(fetch -> {
+            if(fetch.succeeded()) {
+                pages.complete(fetch.result());
+            } else {
+                pages.completeExceptionally(fetch.cause());
+            }
+        }));
+    }
+
+    private <T> List<T> calls(final BiConsumer<Integer, CompletableFuture<T>> call) throws Exception {
+        List<CompletableFuture<T>> replies = new ArrayList<>(concurrency);
+        for(int i = 0; i < concurrency; i++) {
+            replies.add(new CompletableFuture<>());
+        }
+        caller.runOnContext(v -> {
+            for(int i = 0; i < concurrency; i++) {
+                call.accept(i, replies.get(i));
+            }
+        });
+        List<T> result = new ArrayList<>(concurrency);
+        for(CompletableFuture<T> reply : replies) {
+            result.add(reply.get(30, TimeUnit.SECONDS));
+        }
+        return result;
+    }
+}
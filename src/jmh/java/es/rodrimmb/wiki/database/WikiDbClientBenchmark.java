@@ -0,0 +1,146 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Compara vertx-jdbc-client con el cliente reactivo contra un Postgres arrancado en local (la configuracion por defecto
+ * de DatabaseConstants, se puede cambiar con -Dwikidb.jdbc.url, -Dwikidb.jdbc.user y -Dwikidb.jdbc.password). Cada
+ * operacion lanza "concurrency" lecturas a la vez a traves del proxy del event bus y espera a todas, la cache de
+ * WikiDbServiceCached esta desactivada para que todas lleguen a la DB
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WikiDbClientBenchmark {
+
+    @Param({WIKIDB_CLIENT_JDBC, WIKIDB_CLIENT_REACTIVE})
+    public String client;
+
+    @Param({"1", "64"})
+    public int concurrency;
+
+    private Vertx vertx;
+    private WikiDbService service;
+    private String pageId;
+    private String pageName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = new JsonObject()
+                .put(CONFIG_WIKIDB_CLIENT, client)
+                .put(CONFIG_WIKIDB_JDBC_URL, System.getProperty(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL))
+                .put(CONFIG_WIKIDB_JDBC_USER, System.getProperty(CONFIG_WIKIDB_JDBC_USER, DEFAULT_CONFIG_WIKIDB_JDBC_USER))
+                .put(CONFIG_WIKIDB_JDBC_PASSWORD,
+                        System.getProperty(CONFIG_WIKIDB_JDBC_PASSWORD, DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD))
+                .put(CONFIG_WIKIDB_CACHE_ENABLED, false);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config), deploy -> {
+            if(deploy.succeeded()) {
+                deployed.complete(deploy.result());
+            } else {
+                deployed.completeExceptionally(deploy.cause());
+            }
+        });
+        deployed.get(30, TimeUnit.SECONDS);
+        service = WikiDbService.createProxy(vertx, WikiDbVerticle.CONFIG_WIKIDB_QUEUE);
+
+        pageId = UUID.randomUUID().toString();
+        pageName = "benchmark " + pageId;
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        service.createPage(pageId, pageName, create -> {
+            if(create.failed()) {
+                created.completeExceptionally(create.cause());
+                return;
+            }
+            service.savePage(pageId, "# Benchmark\n\nPagina para medir los clientes de DB", save -> {
+                if(save.succeeded()) {
+                    created.complete(null);
+                } else {
+                    created.completeExceptionally(save.cause());
+                }
+            });
+        });
+        created.get(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> deleted = new CompletableFuture<>();
+        service.deletePage(pageId, delete -> deleted.complete(null));
+        deleted.get(30, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(close -> closed.complete(null));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public List<JsonObject> fetchPageById() throws Exception {
+        List<CompletableFuture<JsonObject>> pages = new ArrayList<>(concurrency);
+        for(int i = 0; i < concurrency; i++) {
+            CompletableFuture<JsonObject> page = new CompletableFuture<>();
+            service.fetchPageById(pageId, fetch -> {
+                if(fetch.succeeded()) {
+                    page.complete(fetch.result());
+                } else {
+                    page.completeExceptionally(fetch.cause());
+                }
+            });
+            pages.add(page);
+        }
+        return join(pages);
+    }
+
+    @Benchmark
+    public List<JsonObject> fetchPageByName() throws Exception {
+        List<CompletableFuture<JsonObject>> pages = new ArrayList<>(concurrency);
+        for(int i = 0; i < concurrency; i++) {
+            CompletableFuture<JsonObject> page = new CompletableFuture<>();
+            service.fetchPageByName(pageName, fetch -> {
+                if(fetch.succeeded()) {
+                    page.complete(fetch.result());
+                } else {
+                    page.completeExceptionally(fetch.cause());
+                }
+            });
+            pages.add(page);
+        }
+        return join(pages);
+    }
+
+    private static List<JsonObject> join(final List<CompletableFuture<JsonObject>> pages) throws Exception {
+        List<JsonObject> result = new ArrayList<>(pages.size());
+        for(CompletableFuture<JsonObject> page : pages) {
+            result.add(page.get(30, TimeUnit.SECONDS));
+        }
+        return result;
+    }
+}
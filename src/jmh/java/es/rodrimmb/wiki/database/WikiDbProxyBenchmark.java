@@ -0,0 +1,100 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Ida y vuelta completa por WikiDbServiceVertxEBProxy contra un HSQLDB en memoria con las queries de los tests, no
+ * hace falta ningun Postgres. La cache de WikiDbServiceCached esta desactivada para que cada llamada llegue a la DB.
+ * Se lanza desde la raiz del proyecto, que es donde esta src/test/resources/db-queries-test.properties
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WikiDbProxyBenchmark {
+
+    private Vertx vertx;
+    private WikiDbService service;
+    private String pageId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = new JsonObject()
+                .put(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:benchmark;shutdown=true")
+                .put(CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE, "src/test/resources/db-queries-test.properties")
+                .put(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(CONFIG_WIKIDB_CACHE_ENABLED, false);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config), deploy -> {
+            if(deploy.succeeded()) {
+                deployed.complete(deploy.result());
+            } else {
+                deployed.completeExceptionally(deploy.cause());
+            }
+        });
+        deployed.get(30, TimeUnit.SECONDS);
+        service = WikiDbService.createProxy(vertx, WikiDbVerticle.CONFIG_WIKIDB_QUEUE);
+
+        pageId = UUID.randomUUID().toString();
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        service.createPage(pageId, "benchmark", create -> {
+            if(create.failed()) {
+                created.completeExceptionally(create.cause());
+                return;
+            }
+            service.savePage(pageId, "# Benchmark\n\nPagina para medir el proxy del event bus", save -> {
+                if(save.succeeded()) {
+                    created.complete(null);
+                } else {
+                    created.completeExceptionally(save.cause());
+                }
+            });
+        });
+        created.get(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(close -> closed.complete(null));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public JsonObject fetchPageById() throws Exception {
+        CompletableFuture<JsonObject> page = new CompletableFuture<>();
+        service.fetchPageById(pageId, fetch -> {
+            if(fetch.succeeded()) {
+                page.complete(fetch.result());
+            } else {
+                page.completeExceptionally(fetch.cause());
+            }
+        });
+        return page.get(30, TimeUnit.SECONDS);
+    }
+}
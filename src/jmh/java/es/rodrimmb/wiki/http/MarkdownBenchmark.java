@@ -0,0 +1,71 @@
+package es.rodrimmb.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Renderizado de Markdown con txtmark, el que se hace al guardar una pagina o al servirla si no tiene el HTML guardado.
+ * La pequena es la pagina por defecto y la grande unos 100 KB con titulos, listas, enlaces y codigo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MarkdownBenchmark {
+
+    private static final String SMALL =
+            "# A new page\n" +
+                    "\n" +
+                    "Feel-free to write in Markdown!\n";
+
+    private static final String SECTION =
+            "## Section\n" +
+                    "\n" +
+                    "Some *emphasis*, some **strong text** and a [link](http://vertx.io) in a paragraph that is long " +
+                    "enough to wrap a couple of times in the editor.\n" +
+                    "\n" +
+                    "* First item\n" +
+                    "* Second item with `code`\n" +
+                    "* Third item\n" +
+                    "\n" +
+                    "    for(int i = 0; i < 10; i++) {\n" +
+                    "        System.out.println(i);\n" +
+                    "    }\n" +
+                    "\n" +
+                    "> A quote to finish the section\n" +
+                    "\n";
+
+    private String large;
+
+    @Setup
+    public void setUp() {
+        StringBuilder markdown = new StringBuilder("# Large page\n\n");
+        while(markdown.length() < 100 * 1024) {
+            markdown.append(SECTION);
+        }
+        large = markdown.toString();
+    }
+
+    @Benchmark
+    public String processSmall() {
+        return Processor.process(SMALL);
+    }
+
+    @Benchmark
+    public String processLarge() {
+        return Processor.process(large);
+    }
+}
@@ -0,0 +1,101 @@
+package es.rodrimmb.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.templ.freemarker.FreeMarkerTemplateEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Renderizado con FreeMarker de page.ftl y index.ftl con los mismos datos que les pasa HttpServerVerticle. Las
+ * plantillas quedan en la cache del motor tras la primera llamada, se mide solo el renderizado
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TemplateBenchmark {
+
+    // Paginas por pantalla del listado, como DEFAULT_PAGES_LIMIT en HttpServerVerticle
+    private static final int PAGES = 50;
+
+    private Vertx vertx;
+    private FreeMarkerTemplateEngine templateEngine;
+    private Map<String, Object> page;
+    private Map<String, Object> index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vertx = Vertx.vertx();
+        templateEngine = FreeMarkerTemplateEngine.create(vertx);
+
+        String markdown = "# Benchmark\n\nSome *content* with a [link](http://vertx.io).\n";
+        page = new HashMap<>();
+        page.put("title", "Edit page");
+        page.put("id", UUID.randomUUID().toString());
+        page.put("name", "benchmark");
+        page.put("content", Processor.process(markdown));
+        page.put("rawContent", markdown);
+
+        List<Object> pages = new ArrayList<>(PAGES);
+        for(int i = 0; i < PAGES; i++) {
+            pages.add(new JsonObject().put("id", UUID.randomUUID().toString()).put("name", "page " + i));
+        }
+        index = new HashMap<>();
+        index.put("title", "Wiki Home");
+        index.put("pages", pages);
+        index.put("first", true);
+        index.put("next", "page " + (PAGES - 1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(close -> closed.complete(null));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Buffer renderPage() throws Exception {
+        return render(page, "templates/page.ftl");
+    }
+
+    @Benchmark
+    public Buffer renderIndex() throws Exception {
+        return render(index, "templates/index.ftl");
+    }
+
+    private Buffer render(final Map<String, Object> data, final String template) throws Exception {
+        CompletableFuture<Buffer> html = new CompletableFuture<>();
+        templateEngine.render(data, template, render -> {
+            if(render.succeeded()) {
+                html.complete(render.result());
+            } else {
+                html.completeExceptionally(render.cause());
+            }
+        });
+        return html.get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,386 @@
+package es.rodrimmb.wiki.load;
+
+import es.rodrimmb.wiki.MainVerticle;
+import es.rodrimmb.wiki.database.DatabaseConstants;
+import es.rodrimmb.wiki.http.HttpServerVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Prueba de carga de la wiki: arranca MainVerticle con un HSQLDB en memoria (como MainVerticleTest), crea unas paginas
+ * y lanza peticiones a ritmo fijo mezclando los escenarios de Scenario. La carga es de bucle abierto: cada peticion
+ * tiene su hora prevista de salida segun el ritmo y la latencia se mide desde esa hora, no desde que el cliente
+ * consigue enviarla, asi un servidor que se atasca no reduce la carga ni esconde la espera (coordinated omission). Las
+ * latencias van a un Histogram de HdrHistogram por escenario y el informe se escribe en JSON para comparar ejecuciones.
+ *
+ * Se lanza desde la raiz del proyecto con ./gradlew loadTest -Pload.args="rate=500 duration=60", los parametros y sus
+ * valores por defecto estan en DEFAULTS
+ */
+public final class LoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final JsonObject DEFAULTS = new JsonObject()
+            // Peticiones por segundo
+            .put("rate", 200)
+            // Segundos medidos, despues del calentamiento
+            .put("duration", 60)
+            // Segundos de calentamiento a la misma carga, no entran en el informe
+            .put("warmup", 10)
+            // Paginas que se crean antes de empezar
+            .put("pages", 200)
+            // Conexiones HTTP como maximo
+            .put("connections", 64)
+            .put("port", 8090)
+            // Semilla de la mezcla de escenarios, con la misma semilla se repite la misma secuencia de peticiones
+            .put("seed", 42)
+            // Peso de cada escenario
+            .put("mix", "home:15,wiki:35,api:35,create:5,save:7,delete:3")
+            // Fichero del informe, por defecto build/load/load-<fecha>.json
+            .put("output", "");
+
+    // Las latencias se guardan en microsegundos, hasta un minuto con 3 cifras significativas
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+    private static final long REQUEST_TIMEOUT = 30000;
+    // Operaciones por peticion a /api/batch al crear las paginas iniciales, el limite del servidor es 500
+    private static final int SEED_BATCH = 250;
+
+    private final Vertx vertx;
+    private final JsonObject options;
+    private final Random random;
+    private final Scenario[] scenarios;
+    private final int[] weights;
+    private final int totalWeight;
+
+    private final Map<Scenario, Histogram> latencies = new EnumMap<>(Scenario.class);
+    private final Map<Scenario, Long> errors = new EnumMap<>(Scenario.class);
+    private final List<String> seededIds = new ArrayList<>();
+    private final List<String> createdIds = new ArrayList<>();
+
+    private WebClient client;
+    private long total;
+    private long sent;
+    private long completed;
+    private long start;
+    private long warmupEnd;
+    private long lastResponse;
+
+    private LoadTest(final Vertx vertx, final JsonObject options) {
+        this.vertx = vertx;
+        this.options = options;
+        this.random = new Random(options.getInteger("seed"));
+
+        String[] entries = options.getString("mix").split(",");
+        this.scenarios = new Scenario[entries.length];
+        this.weights = new int[entries.length];
+        int sum = 0;
+        for(int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split(":");
+            scenarios[i] = Scenario.of(entry[0]);
+            weights[i] = Integer.parseInt(entry[1]);
+            sum += weights[i];
+        }
+        this.totalWeight = sum;
+        for(Scenario scenario : Scenario.values()) {
+            latencies.put(scenario, new Histogram(HIGHEST_LATENCY, 3));
+            errors.put(scenario, 0L);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        JsonObject options = DEFAULTS.copy();
+        for(String arg : args) {
+            String[] option = arg.split("=", 2);
+            if(option.length != 2 || !DEFAULTS.containsKey(option[0])) {
+                throw new IllegalArgumentException("Parametro desconocido: " + arg
+                        + ", se admiten " + DEFAULTS.fieldNames());
+            }
+            options.put(option[0], DEFAULTS.getValue(option[0]) instanceof Integer
+                    ? Integer.valueOf(option[1])
+                    : option[1]);
+        }
+
+        //El cliente va en otro Vert.x para que no comparta event loops con el servidor que esta midiendo
+        Vertx vertx = Vertx.vertx();
+        Vertx clientVertx = Vertx.vertx();
+        try {
+            await(deploy(vertx, options), 60);
+            LOG.info("Prueba de carga con {}", options.encode());
+            JsonObject report = await(new LoadTest(clientVertx, options).run(),
+                    2L * (options.getInteger("warmup") + options.getInteger("duration")) + 120);
+
+            Path output = options.getString("output").isEmpty()
+                    ? Paths.get("build", "load", "load-"
+                            + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json")
+                    : Paths.get(options.getString("output"));
+            if(output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            Files.writeString(output, report.encodePrettily());
+            LOG.info("Informe guardado en {}", output.toAbsolutePath());
+        } finally {
+            CompletableFuture<Void> clientClosed = new CompletableFuture<>();
+            clientVertx.close(close -> clientClosed.complete(null));
+            CompletableFuture<Void> closed = new CompletableFuture<>();
+            vertx.close(close -> closed.complete(null));
+            CompletableFuture.allOf(clientClosed, closed).get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Future<String> deploy(final Vertx vertx, final JsonObject options) {
+        JsonObject config = new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:load;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(DatabaseConstants.CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE,
+                        "src/test/resources/db-queries-test.properties")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 8)
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, options.getInteger("port"));
+        Promise<String> promise = Promise.promise();
+        vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config), promise);
+        return promise.future();
+    }
+
+    private static <T> T await(final Future<T> future, final long seconds) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.onComplete(done -> {
+            if(done.succeeded()) {
+                result.complete(done.result());
+            } else {
+                result.completeExceptionally(done.cause());
+            }
+        });
+        return result.get(seconds, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Todo corre en el mismo contexto, los contadores, los histogramas y las listas de ids no necesitan sincronizacion
+     */
+    private Future<JsonObject> run() {
+        Promise<JsonObject> promise = Promise.promise();
+        vertx.getOrCreateContext().runOnContext(v -> {
+            client = WebClient.create(vertx, new WebClientOptions()
+                    .setDefaultHost("localhost")
+                    .setDefaultPort(options.getInteger("port"))
+                    .setMaxPoolSize(options.getInteger("connections")));
+            seed().onComplete(seed -> {
+                if(seed.succeeded()) {
+                    LOG.info("Creadas {} paginas, empieza la carga", seededIds.size());
+                    startArrivals(promise);
+                } else {
+                    promise.fail(seed.cause());
+                }
+            });
+        });
+        return promise.future();
+    }
+
+    private Future<Void> seed() {
+        Future<Void> seed = Future.succeededFuture();
+        for(int from = 0; from < options.getInteger("pages"); from += SEED_BATCH) {
+            int size = Math.min(SEED_BATCH, options.getInteger("pages") - from);
+            seed = seed.compose(v -> seedBatch(size));
+        }
+        return seed;
+    }
+
+    private Future<Void> seedBatch(final int size) {
+        JsonArray operations = new JsonArray();
+        List<String> ids = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            operations.add(new JsonObject().put("op", "create").put("id", id).put("name", "load " + id));
+        }
+        for(String id : ids) {
+            operations.add(new JsonObject().put("op", "save").put("id", id).put("content", markdown(id)));
+        }
+        Promise<HttpResponse<Buffer>> promise = Promise.promise();
+        client.post("/api/batch").sendJsonObject(new JsonObject().put("operations", operations), promise);
+        return promise.future().compose(response -> {
+            if(response.statusCode() != 200) {
+                return Future.failedFuture("No se han podido crear las paginas: " + response.bodyAsString());
+            }
+            seededIds.addAll(ids);
+            return Future.succeededFuture();
+        });
+    }
+
+    /*
+     * La peticion n sale en start + n * intervalo. El timer solo despierta cada milisegundo, si le toca mandar varias
+     * las manda seguidas pero cada una conserva su hora prevista
+     */
+    private void startArrivals(final Promise<JsonObject> promise) {
+        int rate = options.getInteger("rate");
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        total = (long) rate * (options.getInteger("warmup") + options.getInteger("duration"));
+        start = System.nanoTime();
+        warmupEnd = start + TimeUnit.SECONDS.toNanos(options.getInteger("warmup"));
+        vertx.setPeriodic(1, timer -> {
+            long due = Math.min(total, (System.nanoTime() - start) / interval + 1);
+            while(sent < due) {
+                send(start + sent * interval, promise);
+                sent++;
+            }
+            if(sent == total) {
+                vertx.cancelTimer(timer);
+            }
+        });
+    }
+
+    private void send(final long intended, final Promise<JsonObject> promise) {
+        Scenario scenario = pick();
+        if(scenario == Scenario.DELETE && createdIds.isEmpty()) {
+            //Solo se borran paginas creadas durante la prueba, si todavia no hay se crea una
+            scenario = Scenario.CREATE;
+        }
+        Scenario executed = scenario;
+        Future<HttpResponse<Buffer>> response;
+        switch(executed) {
+            case HOME:
+                response = send(client.get("/"), null);
+                break;
+            case WIKI:
+                response = send(client.get("/wiki/" + anyId()), null);
+                break;
+            case API:
+                response = send(client.get("/api/pages/" + anyId()), null);
+                break;
+            case CREATE:
+                String id = UUID.randomUUID().toString();
+                response = send(client.post("/api/pages"), new JsonObject().put("id", id).put("name", "load " + id))
+                        .map(created -> {
+                            if(created.statusCode() == 200) {
+                                createdIds.add(id);
+                            }
+                            return created;
+                        });
+                break;
+            case SAVE:
+                String saveId = anyId();
+                response = send(client.put("/api/pages/" + saveId), new JsonObject().put("content", markdown(saveId)));
+                break;
+            default:
+                String deleteId = createdIds.remove(random.nextInt(createdIds.size()));
+                response = send(client.delete("/api/pages/" + deleteId), null);
+        }
+        response.onComplete(done -> {
+            long end = System.nanoTime();
+            if(intended >= warmupEnd) {
+                record(executed, end - intended, done);
+                lastResponse = end;
+            }
+            completed++;
+            if(completed == total) {
+                promise.complete(report());
+            }
+        });
+    }
+
+    private Future<HttpResponse<Buffer>> send(final HttpRequest<Buffer> request, final JsonObject body) {
+        Promise<HttpResponse<Buffer>> promise = Promise.promise();
+        request.timeout(REQUEST_TIMEOUT);
+        if(body == null) {
+            request.send(promise);
+        } else {
+            request.sendJsonObject(body, promise);
+        }
+        return promise.future();
+    }
+
+    private Scenario pick() {
+        int value = random.nextInt(totalWeight);
+        for(int i = 0; i < scenarios.length; i++) {
+            value -= weights[i];
+            if(value < 0) {
+                return scenarios[i];
+            }
+        }
+        return scenarios[scenarios.length - 1];
+    }
+
+    private String anyId() {
+        int index = random.nextInt(seededIds.size() + createdIds.size());
+        return index < seededIds.size() ? seededIds.get(index) : createdIds.get(index - seededIds.size());
+    }
+
+    private static String markdown(final String id) {
+        return "# Load test\n\nPage *" + id + "* saved at " + LocalDateTime.now() + "\n\n* one\n* two\n* three\n";
+    }
+
+    private void record(final Scenario scenario, final long nanos, final AsyncResult<HttpResponse<Buffer>> response) {
+        //Los errores tambien cuentan en la latencia, un timeout es justo lo que queremos ver en el p999
+        latencies.get(scenario).recordValue(Math.min(HIGHEST_LATENCY, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        if(response.failed() || response.result().statusCode() >= 400) {
+            errors.merge(scenario, 1L, Long::sum);
+        }
+    }
+
+    private JsonObject report() {
+        double seconds = Math.max(1, lastResponse - warmupEnd) / 1e9;
+        Histogram all = new Histogram(HIGHEST_LATENCY, 3);
+        long allErrors = 0;
+        JsonObject byScenario = new JsonObject();
+        for(Scenario scenario : Scenario.values()) {
+            Histogram histogram = latencies.get(scenario);
+            if(histogram.getTotalCount() == 0) {
+                continue;
+            }
+            all.add(histogram);
+            allErrors += errors.get(scenario);
+            byScenario.put(scenario.key(), summary(scenario.key(), histogram, errors.get(scenario), seconds));
+        }
+        return new JsonObject()
+                .put("date", LocalDateTime.now().toString())
+                .put("options", options)
+                .put("seconds", seconds)
+                .put("total", summary("total", all, allErrors, seconds))
+                .put("scenarios", byScenario);
+    }
+
+    private static JsonObject summary(final String name, final Histogram histogram, final long errors,
+                                      final double seconds) {
+        JsonObject latency = new JsonObject()
+                .put("mean", histogram.getMean() / 1000)
+                .put("p50", histogram.getValueAtPercentile(50) / 1000.0)
+                .put("p90", histogram.getValueAtPercentile(90) / 1000.0)
+                .put("p99", histogram.getValueAtPercentile(99) / 1000.0)
+                .put("p999", histogram.getValueAtPercentile(99.9) / 1000.0)
+                .put("max", histogram.getMaxValue() / 1000.0);
+        LOG.info(String.format("%-7s %8d req %6d err %9.1f req/s  p50 %8.2f  p99 %8.2f  p999 %8.2f  max %8.2f ms",
+                name, histogram.getTotalCount(), errors, histogram.getTotalCount() / seconds,
+                latency.getDouble("p50"), latency.getDouble("p99"), latency.getDouble("p999"),
+                latency.getDouble("max")));
+        return new JsonObject()
+                .put("requests", histogram.getTotalCount())
+                .put("errors", errors)
+                .put("throughput", histogram.getTotalCount() / seconds)
+                .put("latency_ms", latency);
+    }
+}
@@ -0,0 +1,32 @@
+package es.rodrimmb.wiki.load;
+
+/*
+ * Peticiones que lanza LoadTest, el nombre es el que se usa en el parametro mix y en el informe
+ */
+enum Scenario {
+    HOME("home"),
+    WIKI("wiki"),
+    API("api"),
+    CREATE("create"),
+    SAVE("save"),
+    DELETE("delete");
+
+    private final String key;
+
+    Scenario(final String key) {
+        this.key = key;
+    }
+
+    String key() {
+        return key;
+    }
+
+    static Scenario of(final String key) {
+        for(Scenario scenario : values()) {
+            if(scenario.key.equals(key)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("Escenario desconocido: " + key);
+    }
+}
@@ -4,34 +4,64 @@ import es.rodrimmb.wiki.database.WikiDbVerticle;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Promise;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
 public final class MainVerticle extends AbstractVerticle {
 
     private static final Logger LOG = LoggerFactory.getLogger(MainVerticle.class);
 
+    // Parametros de configuracion del Verticle
+    public static final String CONFIG_HTTP_INSTANCES = "http.instances";
+    public static final String CONFIG_WIKIDB_INSTANCES = "wikidb.instances";
+
+    // Por defecto una instancia de HttpServerVerticle por event loop (los mismos que crea Vert.x por defecto, dos por
+    // core) y una de WikiDbVerticle cada cuatro cores
+    private static final int DEFAULT_HTTP_INSTANCES = VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE;
+    private static final int DEFAULT_WIKIDB_INSTANCES = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
     @Override
     public void start(Promise<Void> promise) {
+        int httpInstances = config().getInteger(CONFIG_HTTP_INSTANCES, DEFAULT_HTTP_INSTANCES);
+        int dbInstances = config().getInteger(CONFIG_WIKIDB_INSTANCES, DEFAULT_WIKIDB_INSTANCES);
+        //Todas las instancias de WikiDbVerticle se registran en la misma direccion y el event bus (o
+        //WikiDbServiceLocal) reparte las llamadas entre ellas. Cada una tiene su propio pool, asi que repartimos entre
+        //ellas las conexiones configuradas para no abrir mas de las que se han pedido
+        int maxPoolSize = config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE,
+                DEFAULT_CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE);
+        int minPoolSize = config().getInteger(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE,
+                DEFAULT_CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE);
+        JsonObject dbConfig = config().copy()
+                .put(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, perInstance(maxPoolSize, dbInstances))
+                .put(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE, perInstance(minPoolSize, dbInstances));
+
         //Como el verticle que conecta con la DB debe estar arrancado antes que el servidor HTTP y los arranques son
         //asincronos debemos asegurarnos de que WikiDbVerticle se despliega antes que HttpServerVerticle. Para ello
         //usamos Promise y su metodo compose() que hace que hasta que una promesa no se a acabado no se ejecuta lo que
         //tenemos en el metodo compose() (future() asegura que la Promise a acabado de ejecutarse y ejecuta compose())
         Promise<String> dbVerticleDeployment = Promise.promise();
-        vertx.deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config()), dbVerticleDeployment);
+        vertx.deployVerticle(WikiDbVerticle.class.getName(),
+                new DeploymentOptions().setConfig(dbConfig).setInstances(dbInstances), dbVerticleDeployment);
 
         dbVerticleDeployment.future().compose(id -> {
             Promise<String> httpVerticleDeployment = Promise.promise();
             vertx.deployVerticle(
                     "es.rodrimmb.wiki.http.HttpServerVerticle",
-                    new DeploymentOptions().setConfig(config()).setInstances(2),
+                    new DeploymentOptions().setConfig(config()).setInstances(httpInstances),
                     httpVerticleDeployment
             );
 
             return httpVerticleDeployment.future();
         }).onComplete(asyncResult -> {
             if (asyncResult.succeeded()) {
-                LOG.info("Despliegue correcto");
+                LOG.info("Despliegue correcto en {} cores: {} instancias de HttpServerVerticle y {} de WikiDbVerticle "
+                                + "con entre {} y {} conexiones cada una", Runtime.getRuntime().availableProcessors(),
+                        httpInstances, dbInstances, dbConfig.getInteger(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE),
+                        dbConfig.getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE));
                 promise.complete();
             } else {
                 LOG.error("Fallo al desplegar", asyncResult.cause());
@@ -39,4 +69,8 @@ public final class MainVerticle extends AbstractVerticle {
             }
         });
     }
+
+    private static int perInstance(final int total, final int instances) {
+        return Math.max(1, (total + instances - 1) / instances);
+    }
 }
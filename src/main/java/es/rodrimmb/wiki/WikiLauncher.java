@@ -0,0 +1,21 @@
+package es.rodrimmb.wiki;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.vertx.core.Launcher;
+import io.vertx.core.VertxOptions;
+
+/*
+ * Launcher de Vert.x con las metricas de Micrometer activadas, asi el event bus, el servidor HTTP y los pools de Vert.x
+ * apuntan las suyas en el mismo registro que se publica en /metrics
+ */
+public final class WikiLauncher extends Launcher {
+
+    public static void main(final String[] args) {
+        new WikiLauncher().dispatch(args);
+    }
+
+    @Override
+    public void beforeStartingVertx(final VertxOptions options) {
+        options.setMetricsOptions(Metrics.options());
+    }
+}
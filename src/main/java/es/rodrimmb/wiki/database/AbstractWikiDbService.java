@@ -0,0 +1,1344 @@
+package es.rodrimmb.wiki.database;
+
+import com.github.rjeschke.txtmark.Processor;
+import es.rodrimmb.wiki.metrics.Metrics;
+import es.rodrimmb.wiki.search.SearchIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Logica de las paginas comun a todas las implementaciones de WikiDbService sobre Postgres. Cada implementacion solo
+ * aporta la forma de hablar con la DB (SqlSession y SqlCursor) y llama a prepareDatabase() al acabar su constructor
+ */
+abstract class AbstractWikiDbService implements WikiDbService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractWikiDbService.class);
+
+    // Espera antes de repetir una consulta fallida de las cargas en segundo plano, se dobla en cada fallo
+    private static final long LOAD_RETRY_DELAY = 500;
+    private static final long LOAD_RETRY_MAX_DELAY = 30000;
+
+    protected final Vertx vertx;
+    protected final HashMap<SqlQuery, String> sqlQueries;
+    private final boolean renderOnSave;
+    private final int backfillBatchSize;
+    private final int streamFetchSize;
+    private final boolean findOrCreateReturning;
+    private final boolean searchEnabled;
+    private final boolean directoryEnabled;
+    private final String databaseUrl;
+    private final MeterRegistry registry;
+    private final Timer searchTimer;
+    // Texto de cada sentencia a su SqlQuery, para las metricas. Las listas IN (...) se añaden segun se generan
+    private final Map<String, SqlQuery> queryNames = new ConcurrentHashMap<>();
+    private final Map<String, String> inListQueries = new ConcurrentHashMap<>();
+    private SqlSession timedSession;
+    // Indice de busqueda de la DB, es el mismo objeto para todas las instancias. null si la busqueda esta desactivada
+    private SearchIndex searchIndex;
+    // Directorio de nombres de la DB, tambien compartido. null si esta desactivado
+    private PageDirectory pageDirectory;
+    // Compresion del contenido al guardar, null si se guarda siempre en texto
+    private final ContentCodec contentCodec;
+    private final int snapshotInterval;
+    // Bytes del contenido de las revisiones guardadas y los que ocupan en page_revisions (copias y deltas)
+    private final Counter revisionFullBytes;
+    private final Counter revisionStoredBytes;
+    // Contador de escrituras de la DB, compartido. null si no se juntan las lecturas iguales
+    private final CoalescingSqlSession.WriteEpoch writeEpoch;
+
+    protected AbstractWikiDbService(final Vertx vertx, final HashMap<SqlQuery, String> sqlQueries,
+                                    final JsonObject config) {
+        this.vertx = vertx;
+        this.sqlQueries = sqlQueries;
+        this.streamFetchSize = config.getInteger(CONFIG_WIKIDB_STREAM_FETCH_SIZE, DEFAULT_CONFIG_WIKIDB_STREAM_FETCH_SIZE);
+        this.renderOnSave = config.getBoolean(CONFIG_WIKIDB_MARKDOWN_RENDER_ON_SAVE,
+                DEFAULT_CONFIG_WIKIDB_MARKDOWN_RENDER_ON_SAVE);
+        this.backfillBatchSize = config.getInteger(CONFIG_WIKIDB_MARKDOWN_BACKFILL_BATCH_SIZE,
+                DEFAULT_CONFIG_WIKIDB_MARKDOWN_BACKFILL_BATCH_SIZE);
+        //HSQLDB no tiene RETURNING, en los tests find-or-create-page es un MERGE y el id se lee despues
+        this.findOrCreateReturning = sqlQueries.get(SqlQuery.FIND_OR_CREATE_PAGE).toUpperCase().contains(" RETURNING ");
+        this.searchEnabled = config.getBoolean(CONFIG_WIKIDB_SEARCH_ENABLED, DEFAULT_CONFIG_WIKIDB_SEARCH_ENABLED);
+        this.directoryEnabled = config.getBoolean(CONFIG_WIKIDB_DIRECTORY_ENABLED,
+                DEFAULT_CONFIG_WIKIDB_DIRECTORY_ENABLED);
+        this.registry = Metrics.registry();
+        this.searchTimer = Metrics.latency("wiki.search.queries").register(registry);
+        this.databaseUrl = config.getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL);
+        if(config.getBoolean(CONFIG_WIKIDB_CONTENT_COMPRESSION_ENABLED,
+                DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_ENABLED)) {
+            this.contentCodec = new ContentCodec(
+                    config.getInteger(CONFIG_WIKIDB_CONTENT_COMPRESSION_THRESHOLD,
+                            DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_THRESHOLD),
+                    config.getInteger(CONFIG_WIKIDB_CONTENT_COMPRESSION_LEVEL,
+                            DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_LEVEL),
+                    registry);
+        } else {
+            this.contentCodec = null;
+        }
+        this.snapshotInterval = Math.max(1, config.getInteger(CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL,
+                DEFAULT_CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL));
+        this.revisionFullBytes = Counter.builder("wiki.revisions.bytes").baseUnit("bytes").tag("form", "full")
+                .register(registry);
+        this.revisionStoredBytes = Counter.builder("wiki.revisions.bytes").baseUnit("bytes").tag("form", "stored")
+                .register(registry);
+        if(config.getBoolean(CONFIG_WIKIDB_COALESCE_READS, DEFAULT_CONFIG_WIKIDB_COALESCE_READS)) {
+            CoalescingSqlSession.WriteEpoch epoch = new CoalescingSqlSession.WriteEpoch();
+            CoalescingSqlSession.WriteEpoch shared = vertx.sharedData()
+                    .<String, CoalescingSqlSession.WriteEpoch>getLocalMap(WIKIDB_WRITE_EPOCHS)
+                    .putIfAbsent(databaseUrl, epoch);
+            this.writeEpoch = shared != null ? shared : epoch;
+        } else {
+            this.writeEpoch = null;
+        }
+        sqlQueries.forEach((query, sql) -> queryNames.put(sql, query));
+    }
+
+    // Sentencias sueltas, cada una con la conexion que le de el pool
+    protected abstract SqlSession session();
+
+    // Cursor de solo lectura que trae las filas de fetchSize en fetchSize
+    protected abstract Future<SqlCursor> openCursor(String sql, int fetchSize);
+
+    // Ejecuta work con todas sus sentencias en una misma conexion y transaccion, se deshace si el future falla
+    protected abstract <T> Future<T> inTransaction(Function<SqlSession, Future<T>> work);
+
+    /*
+     * Todas las sentencias de esta clase pasan por aqui o por timedTransaction() para medir su tiempo. Las lecturas
+     * iguales en curso se juntan antes de medir, solo se mide la que va a la DB
+     */
+    private SqlSession sql() {
+        if(timedSession == null) {
+            timedSession = new TimedSqlSession(session(), queryNames, registry);
+            if(writeEpoch != null) {
+                timedSession = new CoalescingSqlSession(timedSession, queryNames, writeEpoch, registry);
+            }
+        }
+        return timedSession;
+    }
+
+    // Una transaccion cuenta entera como una escritura para las lecturas que se juntan
+    private <T> Future<T> timedTransaction(final Function<SqlSession, Future<T>> work) {
+        Supplier<Future<T>> statements = () -> inTransaction(transaction ->
+                work.apply(new TimedSqlSession(transaction, queryNames, registry)));
+        return writeEpoch != null ? writeEpoch.write(statements) : statements.get();
+    }
+
+    protected final void prepareDatabase(final Handler<AsyncResult<WikiDbService>> readyHandler) {
+        //Con varias instancias de WikiDbVerticle la DB se prepara de una en una, los CREATE ... IF NOT EXISTS de
+        //Postgres pueden fallar si se lanzan a la vez desde dos conexiones
+        vertx.sharedData().getLocalLock(WIKIDB_SCHEMA_LOCK, lock -> {
+            if(lock.failed()) {
+                LOG.error("Fallo al prapara la DB", lock.cause());
+                readyHandler.handle(Future.failedFuture(lock.cause()));
+                return;
+            }
+            //Creamos la tabla que vamos a usar si no existe, las creadas antes de guardar el HTML renderizado o el
+            //contenido comprimido no tienen las columnas html y content_deflate
+            sql().execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE))
+                    .compose(create -> sql().execute(sqlQueries.get(SqlQuery.ADD_HTML_COLUMN)))
+                    .compose(alter -> sql().execute(sqlQueries.get(SqlQuery.ADD_CONTENT_DEFLATE_COLUMN)))
+                    .compose(alter -> sql().execute(sqlQueries.get(SqlQuery.CREATE_PAGES_NAME_INDEX)))
+                    .compose(index -> sql().execute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_TABLE)))
+                    .compose(create -> sql().execute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_SNAPSHOT_INDEX)))
+                    .onComplete(ready -> {
+                        lock.result().release();
+                        if (ready.failed()) {
+                            LOG.error("Fallo al prapara la DB", ready.cause());
+                            readyHandler.handle(Future.failedFuture(ready.cause()));
+                        } else {
+                            LOG.info("Preparacion correcto de la DB");
+                            if(searchEnabled) {
+                                prepareSearchIndex();
+                            }
+                            if(directoryEnabled) {
+                                preparePageDirectory();
+                            }
+                            readyHandler.handle(Future.succeededFuture(this));
+                            //Basta con que una de las instancias rellene el HTML que falta, la que lo hace comprime
+                            //despues el contenido
+                            if (!renderOnSave) {
+                                migrateContent();
+                            } else if (vertx.sharedData().getLocalMap(WIKIDB_BACKFILLS)
+                                    .putIfAbsent(databaseUrl, Boolean.TRUE) == null) {
+                                backfillHtml(0);
+                            }
+                        }
+                    });
+        });
+    }
+
+    /*
+     * La primera instancia que llega crea el indice y lo construye en segundo plano leyendo todas las paginas, el resto
+     * usa el mismo. Hasta que acaba searchPages() falla con SEARCH_UNAVAILABLE, pero las escrituras ya se apuntan en el
+     * indice
+     */
+    private void prepareSearchIndex() {
+        SearchIndex index = new SearchIndex();
+        SearchIndex shared = vertx.sharedData().<String, SearchIndex>getLocalMap(WIKIDB_SEARCH_INDEXES)
+                .putIfAbsent(databaseUrl, index);
+        if(shared != null) {
+            searchIndex = shared;
+            return;
+        }
+        searchIndex = index;
+        removeMeters("wiki.search.index.documents", "wiki.search.index.terms", "wiki.search.index.bytes");
+        Gauge.builder("wiki.search.index.documents", index, SearchIndex::documents).register(registry);
+        Gauge.builder("wiki.search.index.terms", index, SearchIndex::terms).register(registry);
+        Gauge.builder("wiki.search.index.bytes", index, SearchIndex::estimatedBytes).baseUnit("bytes")
+                .register(registry);
+
+        loadSearchIndex(index, "", System.nanoTime(), 0);
+    }
+
+    /*
+     * Lee las paginas por orden de nombre en bloques de streamFetchSize, igual que el listado paginado. Con consultas
+     * sueltas no se queda una conexion ni una transaccion abierta mientras dura la construccion. Si un bloque falla se
+     * vuelve a pedir el mismo hasta que la DB responde, el indice no se da por listo con paginas sin cargar
+     */
+    private void loadSearchIndex(final SearchIndex index, final String after, final long start, final int failures) {
+        JsonArray params = new JsonArray().add(after).add(streamFetchSize);
+        sql().query(sqlQueries.get(SqlQuery.SEARCH_INDEX_PAGES), params).onComplete(query -> {
+            if(query.failed()) {
+                long delay = loadRetryDelay(failures);
+                LOG.error("Error al ejecutar query {}, se reintenta en {} ms",
+                        sqlQueries.get(SqlQuery.SEARCH_INDEX_PAGES), delay, query.cause());
+                vertx.setTimer(delay, timer -> loadSearchIndex(index, after, start, failures + 1));
+                return;
+            }
+            List<JsonArray> rows = query.result();
+            rows.forEach(row -> index.load(row.getString(0), row.getString(1),
+                    ContentCodec.content(row.getString(2), row.getBinary(3))));
+            if(rows.size() == streamFetchSize) {
+                loadSearchIndex(index, rows.get(rows.size() - 1).getString(1), start, 0);
+                return;
+            }
+            index.ready();
+            long elapsed = System.nanoTime() - start;
+            Metrics.latency("wiki.search.index.build").register(registry).record(elapsed, TimeUnit.NANOSECONDS);
+            LOG.info("Indice de busqueda construido en {} ms: {} paginas, {} terminos, {} bytes aprox.",
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), index.documents(), index.terms(), index.estimatedBytes());
+        });
+    }
+
+    /*
+     * Igual que el indice de busqueda: la primera instancia crea el directorio y lo carga en segundo plano, mientras
+     * tanto suggestPages falla con DIRECTORY_UNAVAILABLE. Solo ve las escrituras de este nodo, asi que no se usa para
+     * nada que tenga que estar al dia: las busquedas por nombre y los listados van siempre a la DB
+     */
+    private void preparePageDirectory() {
+        PageDirectory directory = new PageDirectory();
+        PageDirectory shared = vertx.sharedData().<String, PageDirectory>getLocalMap(WIKIDB_DIRECTORIES)
+                .putIfAbsent(databaseUrl, directory);
+        if(shared != null) {
+            pageDirectory = shared;
+            return;
+        }
+        pageDirectory = directory;
+        removeMeters("wiki.directory.pages", "wiki.directory.memory");
+        Gauge.builder("wiki.directory.pages", directory, PageDirectory::size).register(registry);
+        Gauge.builder("wiki.directory.memory", directory, PageDirectory::heapBytes).baseUnit("bytes")
+                .tag("area", "heap").register(registry);
+        Gauge.builder("wiki.directory.memory", directory, PageDirectory::offHeapBytes).baseUnit("bytes")
+                .tag("area", "offheap").register(registry);
+
+        loadPageDirectory(directory, "", System.nanoTime(), 0);
+    }
+
+    // Igual que loadSearchIndex, un bloque que falla se vuelve a pedir
+    private void loadPageDirectory(final PageDirectory directory, final String after, final long start,
+                                   final int failures) {
+        JsonArray params = new JsonArray().add(after).add(streamFetchSize);
+        sql().query(sqlQueries.get(SqlQuery.PAGES_AFTER), params).onComplete(query -> {
+            if(query.failed()) {
+                long delay = loadRetryDelay(failures);
+                LOG.error("Error al ejecutar query {}, se reintenta en {} ms", sqlQueries.get(SqlQuery.PAGES_AFTER),
+                        delay, query.cause());
+                vertx.setTimer(delay, timer -> loadPageDirectory(directory, after, start, failures + 1));
+                return;
+            }
+            List<JsonArray> rows = query.result();
+            rows.forEach(row -> directory.load(row.getString(0), row.getString(1)));
+            if(rows.size() == streamFetchSize) {
+                loadPageDirectory(directory, rows.get(rows.size() - 1).getString(1), start, 0);
+                return;
+            }
+            directory.ready();
+            LOG.info("Directorio de paginas cargado en {} ms: {} paginas, {} bytes en el heap y {} fuera",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), directory.size(),
+                    directory.heapBytes(), directory.offHeapBytes());
+        });
+    }
+
+    private static long loadRetryDelay(final int failures) {
+        return Math.min(LOAD_RETRY_MAX_DELAY, LOAD_RETRY_DELAY << Math.min(failures, 16));
+    }
+
+    // Los gauges de un Vertx anterior (en los tests) se quedarian con el indice o el directorio viejo
+    private void removeMeters(final String... names) {
+        for(String name : names) {
+            registry.find(name).meters().forEach(registry::remove);
+        }
+    }
+
+    // Directorio de nombres si ya se puede consultar, si no null y hay que ir a la DB
+    private PageDirectory readyDirectory() {
+        PageDirectory directory = pageDirectory;
+        return directory != null && directory.isReady() ? directory : null;
+    }
+
+    /*
+     * Renderiza en segundo plano el HTML de las paginas que se guardaron sin el, por lotes de backfillBatchSize filas.
+     * Cada lote se escribe con un unico batch y al terminar se pide el siguiente hasta que no quedan
+     */
+    private void backfillHtml(final long rendered) {
+        JsonArray params = new JsonArray().add(backfillBatchSize);
+        sql().query(sqlQueries.get(SqlQuery.PAGES_WITHOUT_HTML), params).onComplete(query -> {
+            if(query.failed()) {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.PAGES_WITHOUT_HTML), query.cause());
+                endBackfill();
+                return;
+            }
+            List<JsonArray> rows = query.result();
+            if(rows.isEmpty()) {
+                if(rendered > 0) {
+                    LOG.info("Renderizado el HTML de {} paginas que no lo tenian guardado", rendered);
+                }
+                endBackfill();
+                return;
+            }
+            List<String> contents = rows.stream()
+                    .map(row -> ContentCodec.content(row.getString(1), row.getBinary(2)))
+                    .collect(Collectors.toList());
+            //save-page-html solo escribe si la pagina sigue sin HTML, un guardado mientras tanto trae el suyo
+            renderHtml(contents).compose(html -> {
+                List<JsonArray> batch = new ArrayList<>();
+                for(int i = 0; i < rows.size(); i++) {
+                    batch.add(new JsonArray().add(html.get(i)).add(rows.get(i).getString(0)));
+                }
+                return sql().batch(sqlQueries.get(SqlQuery.SAVE_PAGE_HTML), batch);
+            }).onComplete(update -> {
+                if(update.succeeded()) {
+                    backfillHtml(rendered + rows.size());
+                } else {
+                    LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.SAVE_PAGE_HTML), update.cause());
+                    endBackfill();
+                }
+            });
+        });
+    }
+
+    /*
+     * HTML de cada contenido (null si no hay contenido). Se renderiza en un worker, una pagina grande bloquearia el
+     * event loop de la instancia
+     */
+    private Future<List<String>> renderHtml(final List<String> contents) {
+        return blocking(() -> html(contents));
+    }
+
+    private static List<String> html(final List<String> contents) {
+        return contents.stream()
+                .map(content -> content == null ? null : Processor.process(content))
+                .collect(Collectors.toList());
+    }
+
+    // Ejecuta work en un worker y sin orden, para el trabajo de CPU que bloquearia el event loop de la instancia
+    private <T> Future<T> blocking(final Supplier<T> work) {
+        Promise<T> promise = Promise.promise();
+        vertx.<T>executeBlocking(worker -> worker.complete(work.get()), false, promise);
+        return promise.future();
+    }
+
+    private void endBackfill() {
+        vertx.sharedData().getLocalMap(WIKIDB_BACKFILLS).remove(databaseUrl);
+        migrateContent();
+    }
+
+    /*
+     * No se lanza a la vez que backfillHtml(): con el cliente reactivo los dos batch en transacciones simultaneas
+     * estropean la cache de sentencias preparadas de la conexion ("prepared statement ... does not exist")
+     */
+    private void migrateContent() {
+        if(contentCodec != null && vertx.sharedData().getLocalMap(WIKIDB_CONTENT_MIGRATIONS)
+                .putIfAbsent(databaseUrl, Boolean.TRUE) == null) {
+            compressContent(new UUID(0, 0).toString(), 0, 0, 0, 0);
+        }
+    }
+
+    /*
+     * Comprime en segundo plano el contenido que se guardo en texto y pasa del umbral, recorriendo las paginas por id
+     * en bloques de backfillBatchSize. El UPDATE solo se aplica si el contenido no ha cambiado desde que se leyo, si
+     * alguien ha guardado la pagina mientras tanto ya se habra comprimido al guardar
+     */
+    private void compressContent(final String after, final long pages, final long rawBytes,
+                                 final long compressedBytes, final long nanos) {
+        JsonArray params = new JsonArray().add(after).add(contentCodec.threshold()).add(backfillBatchSize);
+        sql().query(sqlQueries.get(SqlQuery.PAGES_TO_COMPRESS), params).onComplete(query -> {
+            if(query.failed()) {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.PAGES_TO_COMPRESS), query.cause());
+                endContentMigration();
+                return;
+            }
+            List<JsonArray> rows = query.result();
+            if(rows.isEmpty()) {
+                if(pages > 0) {
+                    LOG.info("Comprimido el contenido de {} paginas: {} bytes en {} ({}%), {} ms de compresion", pages,
+                            rawBytes, compressedBytes, compressedBytes * 100 / Math.max(1, rawBytes),
+                            TimeUnit.NANOSECONDS.toMillis(nanos));
+                }
+                endContentMigration();
+                return;
+            }
+            //La compresion se hace en un worker, un bloque de paginas grandes bloquearia el event loop
+            blocking(() -> compressRows(rows)).onComplete(compression -> {
+                ContentMigration batch = compression.result();
+                String last = rows.get(rows.size() - 1).getString(0);
+                batch(SqlQuery.COMPRESS_PAGE_CONTENT, batch.params).onComplete(update -> {
+                    if(update.succeeded()) {
+                        compressContent(last, pages + batch.params.size(), rawBytes + batch.rawBytes,
+                                compressedBytes + batch.compressedBytes, nanos + batch.nanos);
+                    } else {
+                        LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.COMPRESS_PAGE_CONTENT),
+                                update.cause());
+                        endContentMigration();
+                    }
+                });
+            });
+        });
+    }
+
+    // Parametros de compress-page-content de las filas que pasan el umbral. Se ejecuta en un worker
+    private ContentMigration compressRows(final List<JsonArray> rows) {
+        ContentMigration batch = new ContentMigration();
+        long start = System.nanoTime();
+        for(JsonArray row : rows) {
+            byte[] content = row.getString(1).getBytes(StandardCharsets.UTF_8);
+            byte[] deflated = contentCodec.compress(content);
+            if(deflated != null) {
+                batch.rawBytes += content.length;
+                batch.compressedBytes += deflated.length;
+                batch.params.add(new JsonArray()
+                        .add(Base64.getEncoder().encodeToString(deflated))
+                        .add(row.getString(0))
+                        .add(row.getString(1)));
+            }
+        }
+        batch.nanos = System.nanoTime() - start;
+        return batch;
+    }
+
+    private void endContentMigration() {
+        vertx.sharedData().getLocalMap(WIKIDB_CONTENT_MIGRATIONS).remove(databaseUrl);
+    }
+
+    @Override
+    public WikiDbService fetchAllPages(final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        sql().query(sqlQueries.get(SqlQuery.ALL_PAGES), new JsonArray()).onComplete(result -> {
+            if(result.succeeded()) {
+                List<JsonObject> pages = result.result()
+                        .stream()
+                        .map(json -> new JsonObject()
+                                .put("id", json.getString(0))
+                                .put("name", json.getString(1))
+                        ).collect(Collectors.toList());
+                resultHandler.handle(Future.succeededFuture(pages));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.ALL_PAGES), result.cause());
+                resultHandler.handle(Future.failedFuture(result.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPages(final String after, final int limit,
+                                    final Handler<AsyncResult<JsonObject>> resultHandler) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGES_LIMIT));
+        //Pedimos una fila de mas para saber si hay siguiente pagina sin hacer un COUNT
+        JsonArray params = new JsonArray()
+                .add(after == null ? "" : after)
+                .add(pageSize + 1);
+        sql().query(sqlQueries.get(SqlQuery.PAGES_AFTER), params).onComplete(query -> {
+            if(query.succeeded()) {
+                List<JsonObject> pages = query.result().stream()
+                        .map(json -> new JsonObject()
+                                .put("id", json.getString(0))
+                                .put("name", json.getString(1))
+                        ).collect(Collectors.toList());
+                resultHandler.handle(Future.succeededFuture(pagesResponse(pages, pageSize)));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.PAGES_AFTER), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    // pages trae una pagina de mas si hay siguiente pagina
+    private static JsonObject pagesResponse(final List<JsonObject> pages, final int pageSize) {
+        JsonObject response = new JsonObject().put("pages", pages.subList(0, Math.min(pageSize, pages.size())));
+        if(pages.size() > pageSize) {
+            response.put("next", pages.get(pageSize - 1).getString("name"));
+        }
+        return response;
+    }
+
+    @Override
+    public WikiDbService streamPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        openCursor(sqlQueries.get(SqlQuery.ALL_PAGES), streamFetchSize).onComplete(query -> {
+            if(query.failed()) {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.ALL_PAGES), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+                return;
+            }
+            resultHandler.handle(Future.succeededFuture());
+            sendPages(address, SqlQuery.ALL_PAGES, query.result(), row -> new JsonObject()
+                    .put("id", row.getString(0))
+                    .put("name", row.getString(1)));
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService exportPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        openCursor(sqlQueries.get(SqlQuery.EXPORT_PAGES), streamFetchSize).onComplete(query -> {
+            if(query.failed()) {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.EXPORT_PAGES), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+                return;
+            }
+            resultHandler.handle(Future.succeededFuture());
+            sendPages(address, SqlQuery.EXPORT_PAGES, query.result(), row -> new JsonObject()
+                    .put("id", row.getString(0))
+                    .put("name", row.getString(1))
+                    .put("content", ContentCodec.content(row.getString(2), row.getBinary(3)))
+                    .put("creation_date", row.getString(4))
+                    .put("update_date", row.getString(5)));
+        });
+        return this;
+    }
+
+    /*
+     * Envia las filas del cursor al receptor por bloques de streamFetchSize paginas. El cursor se pausa mientras un
+     * bloque esta en vuelo y se reanuda con la respuesta del receptor, asi nunca hay mas de un bloque en memoria
+     */
+    private void sendPages(final String address, final SqlQuery sqlQuery, final SqlCursor cursor,
+                           final Function<JsonArray, JsonObject> toPage) {
+        DeliveryOptions options = new DeliveryOptions().setSendTimeout(STREAM_ACK_TIMEOUT);
+        List<JsonObject> pages = new ArrayList<>(streamFetchSize);
+        cursor.handler(row -> {
+            pages.add(toPage.apply(row));
+            if(pages.size() < streamFetchSize) {
+                return;
+            }
+            cursor.pause();
+            JsonObject chunk = new JsonObject().put("pages", new ArrayList<>(pages)).put("end", false);
+            pages.clear();
+            vertx.eventBus().request(address, chunk, options, ack -> {
+                if(ack.succeeded()) {
+                    cursor.resume();
+                } else {
+                    LOG.debug("Listado en streaming cancelado por el receptor {}", address, ack.cause());
+                    cursor.close();
+                }
+            });
+        });
+        cursor.endHandler(end -> {
+            JsonObject chunk = new JsonObject().put("pages", new ArrayList<>(pages)).put("end", true);
+            vertx.eventBus().request(address, chunk, options, ack -> {});
+        });
+        cursor.exceptionHandler(error -> {
+            LOG.error("Error al leer el cursor de {}", sqlQueries.get(sqlQuery), error);
+            JsonObject chunk = new JsonObject()
+                    .put("pages", new ArrayList<>())
+                    .put("end", true)
+                    .put("error", error.getMessage());
+            vertx.eventBus().request(address, chunk, options, ack -> {});
+        });
+    }
+
+    @Override
+    public WikiDbService fetchPageById(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        String sqlQuery = sqlQueries.get(SqlQuery.GET_PAGE_BY_ID);
+        JsonArray params = new JsonArray().add(id);
+        sql().query(sqlQuery, params).onComplete(query -> {
+            if(query.succeeded()) {
+                Optional<JsonArray> rowOpt = query.result().stream().findFirst();
+                JsonObject response = rowOpt.map(AbstractWikiDbService::page)
+                        .orElse(new JsonObject().put("found", false));
+                resultHandler.handle(Future.succeededFuture(response));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageVersion(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        JsonArray params = new JsonArray().add(id);
+        sql().query(sqlQueries.get(SqlQuery.GET_PAGE_VERSION), params).onComplete(query -> {
+            if(query.succeeded()) {
+                JsonObject response = query.result().stream().findFirst()
+                        .map(row -> new JsonObject()
+                                .put("found", true)
+                                .put("id", row.getString(0))
+                                .put("creation_date", row.getString(1))
+                                .put("update_date", row.getString(2))
+                                .put("delete_date", row.getString(3)))
+                        .orElse(new JsonObject().put("found", false));
+                resultHandler.handle(Future.succeededFuture(response));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGE_VERSION), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService searchPages(final String query, final int limit,
+                                     final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        SearchIndex index = searchIndex;
+        if(index == null || !index.isReady()) {
+            resultHandler.handle(ServiceException.fail(ErrorCodes.SEARCH_UNAVAILABLE.ordinal(),
+                    index == null ? "Search is disabled" : "Search index is still being built"));
+            return this;
+        }
+        long start = System.nanoTime();
+        List<JsonObject> results = index.search(query, Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT)));
+        searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        resultHandler.handle(Future.succeededFuture(results));
+        return this;
+    }
+
+    @Override
+    public WikiDbService suggestPages(final String prefix, final int limit,
+                                      final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        PageDirectory directory = readyDirectory();
+        if(directory == null) {
+            resultHandler.handle(ServiceException.fail(ErrorCodes.DIRECTORY_UNAVAILABLE.ordinal(),
+                    pageDirectory == null ? "Page directory is disabled" : "Page directory is still loading"));
+            return this;
+        }
+        int pageSize = Math.max(1, Math.min(limit, MAX_SUGGEST_LIMIT));
+        //Los nombres se guardan en minusculas
+        resultHandler.handle(Future.succeededFuture(directory.withPrefix(prefix.toLowerCase(), pageSize)));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageByName(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        //Los nombres se guardan en minusculas
+        String sqlQuery = sqlQueries.get(SqlQuery.GET_PAGE_BY_NAME);
+        JsonArray params = new JsonArray().add(name.toLowerCase());
+        sql().query(sqlQuery, params).onComplete(query -> {
+            if(query.succeeded()) {
+                Optional<JsonArray> rowOpt = query.result().stream().findFirst();
+                JsonObject response = rowOpt.map(AbstractWikiDbService::page)
+                        .orElse(new JsonObject().put("found", false));
+                resultHandler.handle(Future.succeededFuture(response));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGE_BY_NAME), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPage(final String id, final String name,
+                                    final Handler<AsyncResult<Void>> resultHandler) {
+        String sqlQuery = sqlQueries.get(SqlQuery.CREATE_PAGE);
+        String creationDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+        JsonArray params = new JsonArray()
+                .add(id)
+                .add(name.toLowerCase())
+                .add(creationDate);
+
+        sql().update(sqlQuery, params).onComplete(update -> {
+            if(update.succeeded()) {
+                if(searchIndex != null) {
+                    searchIndex.put(id, name.toLowerCase(), null);
+                }
+                if(pageDirectory != null) {
+                    pageDirectory.put(id, name.toLowerCase());
+                }
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.CREATE_PAGE), update.cause());
+                resultHandler.handle(Future.failedFuture(update.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService findOrCreatePage(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        String sqlQuery = sqlQueries.get(SqlQuery.FIND_OR_CREATE_PAGE);
+        String id = UUID.randomUUID().toString();
+        String creationDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+        JsonArray params = new JsonArray()
+                .add(id)
+                .add(name.toLowerCase())
+                .add(creationDate);
+
+        //Con RETURNING la DB nos da el id y si la ha creado (xmax = 0 solo en las filas recien insertadas) en una sola
+        //sentencia, sin carrera entre buscar y crear
+        Future<JsonArray> findOrCreate = findOrCreateReturning
+                ? sql().query(sqlQuery, params).map(rows -> rows.get(0))
+                : timedTransaction(transaction -> transaction.update(sqlQuery, params).compose(inserted -> {
+                    if(inserted > 0) {
+                        return Future.succeededFuture(new JsonArray().add(id).add(true));
+                    }
+                    JsonArray byName = new JsonArray().add(name.toLowerCase());
+                    return transaction.query(sqlQueries.get(SqlQuery.GET_PAGE_BY_NAME), byName)
+                            .map(rows -> new JsonArray().add(rows.get(0).getString(0)).add(false));
+                }));
+        findOrCreate.onComplete(query -> {
+            if(query.succeeded()) {
+                if(searchIndex != null && query.result().getBoolean(1)) {
+                    searchIndex.put(query.result().getString(0), name.toLowerCase(), null);
+                }
+                if(pageDirectory != null) {
+                    pageDirectory.put(query.result().getString(0), name.toLowerCase());
+                }
+                resultHandler.handle(Future.succeededFuture(new JsonObject()
+                        .put("id", query.result().getString(0))
+                        .put("created", query.result().getBoolean(1))));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQuery, query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePage(final String id, final String content,
+                                  final Handler<AsyncResult<Void>> resultHandler) {
+        String updateDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+        List<JsonObject> pages = Collections.singletonList(new JsonObject().put("id", id).put("content", content));
+
+        saveWithRevisions(pages, updateDate).onComplete(save -> {
+            if(save.succeeded()) {
+                if(searchIndex != null && save.result().get(0)) {
+                    searchIndex.update(id, content);
+                }
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.UPDATE_PAGE), save.cause());
+                resultHandler.handle(Future.failedFuture(save.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePage(final String id, final Handler<AsyncResult<Void>> resultHandler) {
+        //El nombre nuevo se calcula en la propia sentencia, no hace falta leer antes la pagina
+        sql().update(sqlQueries.get(SqlQuery.DELETE_PAGE), deleteParams(LocalDateTime.now(), id)).onComplete(update -> {
+            if(update.succeeded()) {
+                if(searchIndex != null && update.result() > 0) {
+                    searchIndex.remove(id);
+                }
+                if(pageDirectory != null && update.result() > 0) {
+                    pageDirectory.remove(id);
+                }
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.DELETE_PAGE), update.cause());
+                resultHandler.handle(Future.failedFuture(update.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPagesByIds(final List<String> ids,
+                                         final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        if(ids.size() > MAX_BATCH_SIZE) {
+            resultHandler.handle(Future.failedFuture("Too many pages, the limit is " + MAX_BATCH_SIZE));
+            return this;
+        }
+        fetchPagesByIds(sql(), ids).onComplete(query -> {
+            if(query.succeeded()) {
+                Map<String, JsonObject> pages = query.result();
+                List<JsonObject> response = ids.stream()
+                        .map(id -> pages.getOrDefault(id.toLowerCase(),
+                                new JsonObject().put("found", false).put("id", id)))
+                        .collect(Collectors.toList());
+                resultHandler.handle(Future.succeededFuture(response));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGES_BY_IDS), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPages(final List<JsonObject> pages, final Handler<AsyncResult<Void>> resultHandler) {
+        if(pages.size() > MAX_BATCH_SIZE) {
+            resultHandler.handle(Future.failedFuture("Too many pages, the limit is " + MAX_BATCH_SIZE));
+            return this;
+        }
+        String creationDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+        List<JsonArray> params = pages.stream()
+                .map(page -> new JsonArray()
+                        .add(page.getString("id"))
+                        .add(page.getString("name").toLowerCase())
+                        .add(creationDate)
+                ).collect(Collectors.toList());
+
+        batch(SqlQuery.CREATE_PAGE, params).onComplete(batch -> {
+            if(batch.succeeded()) {
+                if(searchIndex != null) {
+                    pages.forEach(page -> searchIndex.put(page.getString("id"), page.getString("name").toLowerCase(),
+                            null));
+                }
+                if(pageDirectory != null) {
+                    pages.forEach(page -> pageDirectory.put(page.getString("id"),
+                            page.getString("name").toLowerCase()));
+                }
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.CREATE_PAGE), batch.cause());
+                resultHandler.handle(Future.failedFuture(batch.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePages(final List<JsonObject> pages,
+                                   final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        if(pages.size() > MAX_BATCH_SIZE) {
+            resultHandler.handle(Future.failedFuture("Too many pages, the limit is " + MAX_BATCH_SIZE));
+            return this;
+        }
+        String updateDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+
+        saveWithRevisions(pages, updateDate).onComplete(batch -> {
+            if(batch.succeeded()) {
+                List<Boolean> updated = batch.result();
+                if(searchIndex != null) {
+                    for(int i = 0; i < pages.size(); i++) {
+                        if(updated.get(i)) {
+                            searchIndex.update(pages.get(i).getString("id"), pages.get(i).getString("content"));
+                        }
+                    }
+                }
+                resultHandler.handle(Future.succeededFuture(updated));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.UPDATE_PAGE), batch.cause());
+                resultHandler.handle(Future.failedFuture(batch.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService importPages(final List<JsonObject> pages, final Handler<AsyncResult<Integer>> resultHandler) {
+        if(pages.size() > MAX_IMPORT_BATCH_SIZE) {
+            resultHandler.handle(Future.failedFuture("Too many pages, the limit is " + MAX_IMPORT_BATCH_SIZE));
+            return this;
+        }
+        //El HTML no se genera aqui, con millones de paginas bloquearia el event loop. Lo rellena el backfill al
+        //arrancar y mientras tanto HttpServerVerticle lo genera al pedir la pagina. El contenido se comprime en un
+        //worker por lo mismo
+        String now = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+        Future<List<JsonArray>> params = blocking(() -> pages.stream()
+                .map(page -> importParams(page, now))
+                .collect(Collectors.toList()));
+
+        params.compose(rows -> batch(SqlQuery.IMPORT_PAGE, rows)).onComplete(batch -> {
+            if(batch.succeeded()) {
+                int imported = 0;
+                for(int i = 0; i < pages.size(); i++) {
+                    if(batch.result().get(i) == 0) {
+                        continue;
+                    }
+                    imported++;
+                    JsonObject page = pages.get(i);
+                    if(searchIndex != null) {
+                        searchIndex.put(page.getString("id"), page.getString("name").toLowerCase(),
+                                page.getString("content"));
+                    }
+                    if(pageDirectory != null) {
+                        pageDirectory.put(page.getString("id"), page.getString("name").toLowerCase());
+                    }
+                }
+                resultHandler.handle(Future.succeededFuture(imported));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.IMPORT_PAGE), batch.cause());
+                resultHandler.handle(Future.failedFuture(batch.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePages(final List<String> ids,
+                                     final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        if(ids.size() > MAX_BATCH_SIZE) {
+            resultHandler.handle(Future.failedFuture("Too many pages, the limit is " + MAX_BATCH_SIZE));
+            return this;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<JsonArray> params = ids.stream()
+                .map(id -> deleteParams(now, id))
+                .collect(Collectors.toList());
+
+        //Las paginas ya borradas no cumplen el WHERE, asi un id repetido solo cuenta la primera vez
+        batch(SqlQuery.DELETE_PAGE, params).onComplete(batch -> {
+            if(batch.succeeded()) {
+                List<Boolean> deleted = updated(batch.result());
+                for(int i = 0; i < ids.size(); i++) {
+                    if(deleted.get(i) && searchIndex != null) {
+                        searchIndex.remove(ids.get(i));
+                    }
+                    if(deleted.get(i) && pageDirectory != null) {
+                        pageDirectory.remove(ids.get(i));
+                    }
+                }
+                resultHandler.handle(Future.succeededFuture(deleted));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.DELETE_PAGE), batch.cause());
+                resultHandler.handle(Future.failedFuture(batch.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevisions(final String id, final long before, final int limit,
+                                        final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        JsonArray params = new JsonArray()
+                .add(id)
+                .add(before > 0 ? before : Long.MAX_VALUE)
+                .add(Math.max(1, Math.min(limit, MAX_REVISIONS_LIMIT)));
+        sql().query(sqlQueries.get(SqlQuery.PAGE_REVISIONS), params).onComplete(query -> {
+            if(query.succeeded()) {
+                List<JsonObject> revisions = query.result().stream()
+                        .map(row -> new JsonObject()
+                                .put("revision", row.getLong(0))
+                                .put("snapshot", row.getBoolean(1))
+                                .put("content_size", row.getLong(2))
+                                .put("stored_size", row.getLong(3))
+                                .put("creation_date", row.getString(4)))
+                        .collect(Collectors.toList());
+                resultHandler.handle(Future.succeededFuture(revisions));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.PAGE_REVISIONS), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevision(final String id, final long revision,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        revision(id, revision).onComplete(query -> {
+            if(query.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(query.result()));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.REVISION_CHAIN), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService diffRevisions(final String id, final long from, final long to,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        Future<JsonObject> fromRevision = from == 0
+                ? Future.succeededFuture(new JsonObject().put("found", true).put("content", ""))
+                : revision(id, from);
+        Future<JsonObject> toRevision = revision(id, to);
+        CompositeFuture.all(fromRevision, toRevision).compose(revisions -> {
+            JsonObject response = new JsonObject().put("id", id).put("from", from).put("to", to);
+            if(!fromRevision.result().getBoolean("found") || !toRevision.result().getBoolean("found")) {
+                return Future.succeededFuture(response.put("found", false));
+            }
+            //El diff se calcula en un worker, con paginas grandes bloquearia el event loop
+            return blocking(() -> RevisionDelta.unified(fromRevision.result().getString("content"),
+                    toRevision.result().getString("content")))
+                    .map(diff -> response.put("found", true).put("diff", diff));
+        }).onComplete(query -> {
+            if(query.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(query.result()));
+            } else {
+                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.REVISION_CHAIN), query.cause());
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+        return this;
+    }
+
+    /*
+     * Guarda las paginas y una revision nueva de cada una. El HTML, los deltas de las revisiones y el contenido
+     * comprimido se calculan en un worker antes de abrir la transaccion, contra el contenido y las revisiones que hay
+     * en ese momento. Dentro de la transaccion las filas de las paginas se bloquean y se vuelven a leer: si otro
+     * guardado las ha cambiado mientras tanto se recalcula contra lo que hay ahora, asi dos guardados a la vez de la
+     * misma pagina no calculan el delta contra el mismo contenido ni usan el mismo numero de revision. Devuelve si
+     * existia cada pagina
+     */
+    private Future<List<Boolean>> saveWithRevisions(final List<JsonObject> pages, final String updateDate) {
+        if(pages.isEmpty()) {
+            return Future.succeededFuture(Collections.emptyList());
+        }
+        //Postgres devuelve los UUID en minusculas, comparamos los ids sin tener en cuenta mayusculas
+        List<String> ids = pages.stream()
+                .map(page -> page.getString("id").toLowerCase())
+                .distinct()
+                .collect(Collectors.toList());
+        return revisionState(sql(), ids, false)
+                .compose(state -> blocking(() -> {
+                    List<String> html = renderOnSave
+                            ? html(pages.stream().map(page -> page.getString("content")).collect(Collectors.toList()))
+                            : Collections.nCopies(pages.size(), null);
+                    return savePlan(pages, html, state, updateDate);
+                }))
+                .compose(plan -> timedTransaction(transaction -> revisionState(transaction, ids, true)
+                        .compose(locked -> {
+                            if(locked.equals(plan.state)) {
+                                return Future.succeededFuture(plan);
+                            }
+                            LOG.debug("Las paginas {} han cambiado mientras se guardaban, se recalculan", ids);
+                            return blocking(() -> savePlan(pages, plan.html, locked, updateDate));
+                        })
+                        .compose(current -> batch(transaction, SqlQuery.CREATE_REVISION, current.revisions)
+                                .compose(created -> batch(transaction, SqlQuery.UPDATE_PAGE, current.updates))
+                                .map(updated -> {
+                                    current.revisions.forEach(revision -> {
+                                        revisionFullBytes.increment(revision.getLong(4));
+                                        revisionStoredBytes.increment(
+                                                revision.getString(3).getBytes(StandardCharsets.UTF_8).length);
+                                    });
+                                    return current.found;
+                                }))));
+    }
+
+    /*
+     * Contenido y revisiones de las paginas, con lock las filas de las paginas se bloquean hasta el final de la
+     * transaccion
+     */
+    private Future<RevisionState> revisionState(final SqlSession session, final List<String> ids,
+                                                final boolean lock) {
+        RevisionState state = new RevisionState();
+        Future<Void> contents;
+        if(lock) {
+            contents = session.query(inListQuery(SqlQuery.LOCK_PAGES_FOR_REVISION, ids.size()), inListParams(ids))
+                    .map(rows -> {
+                        rows.forEach(row -> state.contents.put(row.getString(0).toLowerCase(),
+                                ContentCodec.content(row.getString(1), row.getBinary(2))));
+                        return null;
+                    });
+        } else {
+            contents = fetchPagesByIds(session, ids).map(pages -> {
+                pages.forEach((key, page) -> state.contents.put(key, page.getString("content")));
+                return null;
+            });
+        }
+        return contents.compose(read ->
+                session.query(inListQuery(SqlQuery.REVISION_HEADS, ids.size()), inListParams(ids))).map(heads -> {
+            heads.forEach(row -> state.heads.put(row.getString(0).toLowerCase(), Arrays.asList(
+                    row.getLong(1), row.getValue(2) == null ? 0L : row.getLong(2))));
+            return state;
+        });
+    }
+
+    /*
+     * Parametros de create-revision y de update-page de las paginas que existen en state, html es el HTML ya
+     * renderizado de cada pagina en el mismo orden. Se ejecuta en un worker
+     */
+    private SavePlan savePlan(final List<JsonObject> pages, final List<String> html, final RevisionState state,
+                              final String updateDate) {
+        SavePlan plan = new SavePlan(state, html);
+        Map<String, String> contents = new HashMap<>(state.contents);
+        Map<String, long[]> heads = new HashMap<>();
+        state.heads.forEach((key, head) -> heads.put(key, new long[]{head.get(0), head.get(1)}));
+        for(int i = 0; i < pages.size(); i++) {
+            JsonObject page = pages.get(i);
+            String id = page.getString("id");
+            String key = id.toLowerCase();
+            plan.found.add(contents.containsKey(key));
+            if(!contents.containsKey(key)) {
+                continue;
+            }
+            String content = page.getString("content");
+            long[] head = heads.computeIfAbsent(key, k -> new long[]{0, 0});
+            String previous = contents.get(key);
+            //Las paginas guardadas antes de tener historial empiezan con su contenido como revision 1
+            if(head[0] == 0 && previous != null) {
+                plan.revisions.add(revisionParams(id, head, previous, null, updateDate));
+            }
+            plan.revisions.add(revisionParams(id, head, content, previous, updateDate));
+            contents.put(key, content);
+            plan.updates.add(saveParams(id, content, html.get(i), updateDate));
+        }
+        return plan;
+    }
+
+    /*
+     * Parametros de create-revision y avanza head ({ultima revision, ultima copia completa}). Se guarda una copia
+     * completa en la primera revision, cada snapshotInterval revisiones o si el delta no ocupa menos que el contenido,
+     * asi reconstruir una revision nunca necesita mas de una copia y snapshotInterval - 1 deltas
+     */
+    private JsonArray revisionParams(final String id, final long[] head, final String content, final String previous,
+                                     final String updateDate) {
+        String text = content == null ? "" : content;
+        long revision = head[0] + 1;
+        String data = text;
+        boolean snapshot = head[0] == 0 || revision - head[1] >= snapshotInterval;
+        if(!snapshot) {
+            String delta = RevisionDelta.delta(previous == null ? "" : previous, text);
+            snapshot = delta.length() >= text.length();
+            data = snapshot ? text : delta;
+        }
+        head[0] = revision;
+        head[1] = snapshot ? revision : head[1];
+        return new JsonArray()
+                .add(id)
+                .add(revision)
+                .add(snapshot)
+                .add(data)
+                .add((long) text.getBytes(StandardCharsets.UTF_8).length)
+                .add(updateDate);
+    }
+
+    /*
+     * Contenido de una revision: la ultima copia completa anterior o igual a ella y los deltas que la siguen, en orden
+     */
+    private Future<JsonObject> revision(final String id, final long revision) {
+        JsonArray params = new JsonArray().add(id).add(revision).add(id).add(revision);
+        return sql().query(sqlQueries.get(SqlQuery.REVISION_CHAIN), params).compose(rows -> {
+            if(rows.isEmpty() || rows.get(rows.size() - 1).getLong(0) != revision) {
+                return Future.succeededFuture(new JsonObject().put("found", false).put("id", id)
+                        .put("revision", revision));
+            }
+            //Los deltas se aplican en un worker, igual que se calculan al guardar
+            return blocking(() -> {
+                String content = rows.get(0).getString(2);
+                for(JsonArray row : rows.subList(1, rows.size())) {
+                    content = RevisionDelta.apply(content, row.getString(2));
+                }
+                return content;
+            }).map(content -> new JsonObject()
+                    .put("found", true)
+                    .put("id", id)
+                    .put("revision", revision)
+                    .put("content", content)
+                    .put("creation_date", rows.get(rows.size() - 1).getString(3)));
+        });
+    }
+
+    /*
+     * Parametros de save-page: el contenido va en texto o comprimido (en Base64, ver ContentCodec), nunca en las dos
+     * columnas. Si no se renderiza al guardar html es null para no servir uno que ya no corresponde al contenido
+     */
+    private JsonArray saveParams(final String id, final String content, final String html, final String updateDate) {
+        byte[] deflated = contentCodec != null ? contentCodec.compress(content) : null;
+        return new JsonArray()
+                .add(deflated == null ? content : null)
+                .add(deflated == null ? null : Base64.getEncoder().encodeToString(deflated))
+                .add(html)
+                .add(updateDate)
+                .add(id);
+    }
+
+    /*
+     * Parametros de import-page. Las fechas llegan como las devuelve la DB (instantes ISO-8601) y se guardan en la
+     * zona local, igual que las que ponemos nosotros con LocalDateTime.now()
+     */
+    private JsonArray importParams(final JsonObject page, final String now) {
+        String content = page.getString("content");
+        byte[] deflated = contentCodec != null ? contentCodec.compress(content) : null;
+        String creationDate = page.getString("creation_date");
+        String updateDate = page.getString("update_date");
+        return new JsonArray()
+                .add(page.getString("id"))
+                .add(page.getString("name").toLowerCase())
+                .add(deflated == null ? content : null)
+                .add(deflated == null ? null : Base64.getEncoder().encodeToString(deflated))
+                .add(creationDate == null ? now : localDate(creationDate))
+                .add(updateDate == null ? null : localDate(updateDate));
+    }
+
+    private static String localDate(final String instant) {
+        return LocalDateTime.ofInstant(Instant.parse(instant), ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
+    }
+
+    private static JsonArray deleteParams(final LocalDateTime now, final String id) {
+        return new JsonArray()
+                .add(String.valueOf(now.hashCode()))
+                .add(now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS")))
+                .add(id);
+    }
+
+    private Future<List<Integer>> batch(final SqlQuery query, final List<JsonArray> params) {
+        return batch(sql(), query, params);
+    }
+
+    private Future<List<Integer>> batch(final SqlSession session, final SqlQuery query,
+                                        final List<JsonArray> params) {
+        if(params.isEmpty()) {
+            return Future.succeededFuture(Collections.emptyList());
+        }
+        return session.batch(sqlQueries.get(query), params);
+    }
+
+    /*
+     * Paginas encontradas por id con una sola query IN (...). El numero de parametros se redondea a la siguiente
+     * potencia de 2 repitiendo el ultimo id, asi solo hay unas pocas sentencias distintas en la cache de cada conexion.
+     * Las claves son los ids en minusculas, como los devuelve Postgres
+     */
+    private Future<Map<String, JsonObject>> fetchPagesByIds(final SqlSession session, final List<String> ids) {
+        if(ids.isEmpty()) {
+            return Future.succeededFuture(Collections.emptyMap());
+        }
+        String sqlQuery = inListQuery(SqlQuery.GET_PAGES_BY_IDS, ids.size());
+        return session.query(sqlQuery, inListParams(ids)).map(rows -> rows.stream()
+                .map(AbstractWikiDbService::page)
+                .collect(Collectors.toMap(page -> page.getString("id").toLowerCase(), page -> page, (a, b) -> a)));
+    }
+
+    // Sentencia de query con la lista IN (...) para ese numero de ids, una por cada tamaño redondeado
+    private String inListQuery(final SqlQuery query, final int ids) {
+        return inListQueries.computeIfAbsent(query + ":" + inListSize(ids), key -> {
+            String generated = inList(sqlQueries.get(query), inListSize(ids));
+            queryNames.put(generated, query);
+            return generated;
+        });
+    }
+
+    private static int inListSize(final int ids) {
+        return Math.max(1, Integer.highestOneBit(ids - 1) << 1);
+    }
+
+    private static JsonArray inListParams(final List<String> ids) {
+        JsonArray params = new JsonArray();
+        for(int i = 0; i < inListSize(ids.size()); i++) {
+            params.add(ids.get(Math.min(i, ids.size() - 1)));
+        }
+        return params;
+    }
+
+    /*
+     * La query se escribe con un solo elemento en la lista, "id IN (uuid(?))", y aqui se repite ese elemento las veces
+     * que haga falta
+     */
+    private static String inList(final String template, final int size) {
+        int start = template.indexOf(" IN (") + " IN (".length();
+        int end = start;
+        for(int depth = 1; depth > 0; end++) {
+            char c = template.charAt(end);
+            if(c == '(') {
+                depth++;
+            } else if(c == ')') {
+                depth--;
+            }
+        }
+        String element = template.substring(start, end - 1);
+        return template.substring(0, start)
+                + String.join(", ", Collections.nCopies(size, element))
+                + template.substring(end - 1);
+    }
+
+    private static List<Boolean> updated(final List<Integer> counts) {
+        //Algunos drivers devuelven SUCCESS_NO_INFO (-2) en vez del numero de filas
+        return counts.stream().map(count -> count != 0).collect(Collectors.toList());
+    }
+
+    // Fila de las queries de paginas (id, name, content, fechas, html y content_deflate) a JsonObject, sin private para
+    // el benchmark
+    // Un bloque de la migracion a contenido comprimido: parametros del batch, bytes antes y despues y tiempo
+    private static final class ContentMigration {
+        private final List<JsonArray> params = new ArrayList<>();
+        private long rawBytes;
+        private long compressedBytes;
+        private long nanos;
+    }
+
+    // Contenido y revisiones (ultima y ultima copia completa) de las paginas que se guardan, por id en minusculas
+    private static final class RevisionState {
+        private final Map<String, String> contents = new HashMap<>();
+        private final Map<String, List<Long>> heads = new HashMap<>();
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof RevisionState && contents.equals(((RevisionState) other).contents)
+                    && heads.equals(((RevisionState) other).heads);
+        }
+
+        @Override
+        public int hashCode() {
+            return contents.hashCode() * 31 + heads.hashCode();
+        }
+    }
+
+    // Lo que escribe un guardado calculado contra state: si existia cada pagina y los parametros de los batch
+    private static final class SavePlan {
+        private final RevisionState state;
+        private final List<String> html;
+        private final List<Boolean> found = new ArrayList<>();
+        private final List<JsonArray> revisions = new ArrayList<>();
+        private final List<JsonArray> updates = new ArrayList<>();
+
+        private SavePlan(final RevisionState state, final List<String> html) {
+            this.state = state;
+            this.html = html;
+        }
+    }
+
+    static JsonObject page(final JsonArray row) {
+        return new JsonObject()
+                .put("found", true)
+                .put("id", row.getString(0))
+                .put("name", row.getString(1))
+                .put("content", ContentCodec.content(row.getString(2), row.getBinary(7)))
+                .put("creation_date", row.getString(3))
+                .put("update_date", row.getString(4))
+                .put("delete_date", row.getString(5))
+                .put("html", row.getString(6));
+    }
+}
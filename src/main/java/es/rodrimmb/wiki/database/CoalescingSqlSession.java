@@ -0,0 +1,112 @@
+package es.rodrimmb.wiki.database;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * SqlSession que junta las lecturas de una pagina iguales (misma SqlQuery y mismos parametros) que estan en curso a la
+ * vez: la primera va a la DB y las que llegan mientras tanto esperan a su resultado en vez de lanzar la misma query.
+ * Cada escritura de la DB, de cualquier instancia de WikiDbVerticle del mismo Vert.x, avanza un contador compartido
+ * (WriteEpoch) al empezar y al terminar, y una lectura solo se junta con otra que empezo con el mismo valor. Asi nadie
+ * recibe el resultado de una query lanzada antes de una escritura que ya termino. Las filas se comparten entre todos
+ * los que esperan, quien llama no debe modificarlas. Cada lectura que se ahorra se apunta en wiki.db.coalesced con el
+ * nombre de su SqlQuery. Solo se usa desde el event loop de su instancia
+ */
+final class CoalescingSqlSession implements SqlSession {
+
+    // Lecturas que se juntan, las de una pagina o unas pocas que es lo que se repite cuando una pagina se hace popular
+    private static final Set<SqlQuery> COALESCED = EnumSet.of(SqlQuery.GET_PAGE_BY_ID, SqlQuery.GET_PAGE_BY_NAME,
+            SqlQuery.GET_PAGES_BY_IDS, SqlQuery.GET_PAGE_VERSION);
+
+    // El resto de lecturas que pasan por query() no cambian nada, cualquier otra sentencia cuenta como escritura
+    private static final Set<SqlQuery> READS = EnumSet.of(SqlQuery.ALL_PAGES, SqlQuery.PAGES_AFTER,
+            SqlQuery.SEARCH_INDEX_PAGES, SqlQuery.EXPORT_PAGES, SqlQuery.PAGES_WITHOUT_HTML, SqlQuery.PAGES_TO_COMPRESS,
+            SqlQuery.REVISION_HEADS, SqlQuery.PAGE_REVISIONS, SqlQuery.REVISION_CHAIN);
+
+    // Contador de escrituras de una DB, uno por URL para todas las instancias en el LocalMap WIKIDB_WRITE_EPOCHS
+    static final class WriteEpoch implements Shareable {
+        private final AtomicLong epoch = new AtomicLong();
+
+        long current() {
+            return epoch.get();
+        }
+
+        // Avanza al empezar y al terminar la escritura, las lecturas lanzadas mientras dura tampoco se reutilizan
+        <T> Future<T> write(final Supplier<Future<T>> statement) {
+            epoch.incrementAndGet();
+            return statement.get().onComplete(done -> epoch.incrementAndGet());
+        }
+    }
+
+    private static final class Flight {
+        private final long epoch;
+        private final Future<List<JsonArray>> rows;
+
+        private Flight(final long epoch, final Future<List<JsonArray>> rows) {
+            this.epoch = epoch;
+            this.rows = rows;
+        }
+    }
+
+    private final SqlSession session;
+    private final Map<String, SqlQuery> queryNames;
+    private final WriteEpoch writes;
+    private final MeterRegistry registry;
+    private final Map<String, Flight> inFlight = new HashMap<>();
+
+    CoalescingSqlSession(final SqlSession session, final Map<String, SqlQuery> queryNames, final WriteEpoch writes,
+                         final MeterRegistry registry) {
+        this.session = session;
+        this.queryNames = queryNames;
+        this.writes = writes;
+        this.registry = registry;
+    }
+
+    @Override
+    public Future<Void> execute(final String sql) {
+        return writes.write(() -> session.execute(sql));
+    }
+
+    @Override
+    public Future<List<JsonArray>> query(final String sql, final JsonArray params) {
+        SqlQuery query = queryNames.get(sql);
+        if(query == null || !COALESCED.contains(query)) {
+            return query != null && READS.contains(query)
+                    ? session.query(sql, params)
+                    : writes.write(() -> session.query(sql, params));
+        }
+        String key = sql + '\u0000' + params.encode();
+        long epoch = writes.current();
+        Flight flight = inFlight.get(key);
+        if(flight != null && flight.epoch == epoch) {
+            Counter.builder("wiki.db.coalesced").tag("query", query.name().toLowerCase()).register(registry)
+                    .increment();
+            return flight.rows;
+        }
+        Flight started = new Flight(epoch, session.query(sql, params));
+        inFlight.put(key, started);
+        started.rows.onComplete(done -> inFlight.remove(key, started));
+        return started.rows;
+    }
+
+    @Override
+    public Future<Integer> update(final String sql, final JsonArray params) {
+        return writes.write(() -> session.update(sql, params));
+    }
+
+    @Override
+    public Future<List<Integer>> batch(final String sql, final List<JsonArray> params) {
+        return writes.write(() -> session.batch(sql, params));
+    }
+}
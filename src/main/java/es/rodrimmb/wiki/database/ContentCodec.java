@@ -0,0 +1,103 @@
+package es.rodrimmb.wiki.database;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Compresion con deflate del contenido de las paginas que se guarda en la columna content_deflate. Los JsonArray de
+ * Vert.x guardan los byte[] como texto en Base64, asi que el contenido comprimido entra y sale de SqlSession en Base64
+ * y la query de Postgres lo pasa a bytea con decode(?, 'base64')
+ */
+final class ContentCodec {
+
+    private final int threshold;
+    private final int level;
+    private final Timer compressTimer;
+    private final Counter rawBytes;
+    private final Counter compressedBytes;
+
+    ContentCodec(final int threshold, final int level, final MeterRegistry registry) {
+        this.threshold = threshold;
+        this.level = level;
+        this.compressTimer = Metrics.latency("wiki.content.compress").register(registry);
+        this.rawBytes = Counter.builder("wiki.content.bytes").baseUnit("bytes").tag("form", "raw")
+                .register(registry);
+        this.compressedBytes = Counter.builder("wiki.content.bytes").baseUnit("bytes").tag("form", "compressed")
+                .register(registry);
+    }
+
+    int threshold() {
+        return threshold;
+    }
+
+    // Contenido comprimido o null si no llega al umbral o no ocupa menos que el original, entonces se guarda tal cual
+    byte[] compress(final String content) {
+        return content == null ? null : compress(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    byte[] compress(final byte[] content) {
+        if(content.length < threshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] deflated = deflate(content, level);
+        compressTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if(deflated.length >= content.length) {
+            return null;
+        }
+        rawBytes.increment(content.length);
+        compressedBytes.increment(deflated.length);
+        return deflated;
+    }
+
+    static byte[] deflate(final byte[] content, final int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String inflate(final byte[] deflated) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.length * 4);
+            byte[] buffer = new byte[8192];
+            while(!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated page content");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted page content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Contenido de una fila que puede tenerlo en texto (content) o comprimido (content_deflate)
+    static String content(final String text, final byte[] deflated) {
+        return deflated == null ? text : inflate(deflated);
+    }
+}
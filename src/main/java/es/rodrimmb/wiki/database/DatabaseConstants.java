@@ -1,18 +1,121 @@
 package es.rodrimmb.wiki.database;
 
 public interface DatabaseConstants {
+    String CONFIG_WIKIDB_CLIENT = "wikidb.client";
     String CONFIG_WIKIDB_JDBC_URL = "wikidb.jdbc.url";
     String CONFIG_WIKIDB_JDBC_DB = "wikidb.jdbc.db";
     String CONFIG_WIKIDB_JDBC_USER = "wikidb.jdbc.user";
     String CONFIG_WIKIDB_JDBC_PASSWORD = "wikidb.jdbc.password";
     String CONFIG_WIKIDB_JDBC_DRIVER = "wikidb.jdbc.driver";
     String CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = "wikidb.jdbc.max_pool_size";
+    String CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE = "wikidb.jdbc.min_pool_size";
+    String CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE = "wikidb.jdbc.statement_cache_size";
+    String CONFIG_WIKIDB_JDBC_POOL_ADAPTIVE = "wikidb.jdbc.pool.adaptive";
+    String CONFIG_WIKIDB_JDBC_POOL_TARGET_WAIT = "wikidb.jdbc.pool.target_wait";
+    String CONFIG_WIKIDB_JDBC_POOL_ADJUST_INTERVAL = "wikidb.jdbc.pool.adjust_interval";
+    String CONFIG_WIKIDB_JDBC_POOL_STATS_INTERVAL = "wikidb.jdbc.pool.stats_interval";
+    String CONFIG_WIKIDB_PG_PIPELINING_LIMIT = "wikidb.pg.pipelining_limit";
+    String CONFIG_WIKIDB_PG_PIPELINED_CONNECTIONS = "wikidb.pg.pipelined_connections";
     String CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE = "wikidb.sqlqueries.resource.file";
+    String CONFIG_WIKIDB_MARKDOWN_RENDER_ON_SAVE = "wikidb.markdown.render_on_save";
+    String CONFIG_WIKIDB_MARKDOWN_BACKFILL_BATCH_SIZE = "wikidb.markdown.backfill.batch_size";
+    String CONFIG_WIKIDB_CACHE_ENABLED = "wikidb.cache.enabled";
+    String CONFIG_WIKIDB_CACHE_MAX_ENTRIES = "wikidb.cache.max_entries";
+    String CONFIG_WIKIDB_CACHE_TTL = "wikidb.cache.ttl";
+    String CONFIG_WIKIDB_INVALIDATIONS_ADDRESS = "wikidb.invalidations.address";
+    String CONFIG_WIKIDB_STREAM_FETCH_SIZE = "wikidb.stream.fetch_size";
+    String CONFIG_WIKIDB_SEARCH_ENABLED = "wikidb.search.enabled";
+    String CONFIG_WIKIDB_DIRECTORY_ENABLED = "wikidb.directory.enabled";
+    String CONFIG_WIKIDB_CONTENT_COMPRESSION_ENABLED = "wikidb.content.compression.enabled";
+    String CONFIG_WIKIDB_CONTENT_COMPRESSION_THRESHOLD = "wikidb.content.compression.threshold";
+    String CONFIG_WIKIDB_CONTENT_COMPRESSION_LEVEL = "wikidb.content.compression.level";
+    String CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL = "wikidb.revisions.snapshot_interval";
+    String CONFIG_WIKIDB_WRITE_BEHIND_ENABLED = "wikidb.write_behind.enabled";
+    String CONFIG_WIKIDB_WRITE_BEHIND_WINDOW = "wikidb.write_behind.window";
+    String CONFIG_WIKIDB_WRITE_BEHIND_MAX_PENDING = "wikidb.write_behind.max_pending";
+    String CONFIG_WIKIDB_WRITE_BEHIND_CLOSE_TIMEOUT = "wikidb.write_behind.close_timeout";
+    String CONFIG_WIKIDB_COALESCE_READS = "wikidb.coalesce_reads";
 
+    String DEFAULT_CONFIG_WIKIDB_CLIENT = "jdbc";
     String DEFAULT_CONFIG_WIKIDB_JDBC_URL = "jdbc:postgresql://localhost:5432/rainbow_database";
     String DEFAULT_CONFIG_WIKIDB_JDBC_DB = "rainbow_database";
     String DEFAULT_CONFIG_WIKIDB_JDBC_USER = "unicorn_user";
     String DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD = "magical_password";
     String DEFAULT_CONFIG_WIKIDB_JDBC_DRIVER = "org.postgresql.Driver";
     int DEFAULT_CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = 30;
+    int DEFAULT_CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE = 4;
+    int DEFAULT_CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE = 64;
+    boolean DEFAULT_CONFIG_WIKIDB_JDBC_POOL_ADAPTIVE = false;
+    long DEFAULT_CONFIG_WIKIDB_JDBC_POOL_TARGET_WAIT = 5;
+    long DEFAULT_CONFIG_WIKIDB_JDBC_POOL_ADJUST_INTERVAL = 5000;
+    long DEFAULT_CONFIG_WIKIDB_JDBC_POOL_STATS_INTERVAL = 60000;
+    int DEFAULT_CONFIG_WIKIDB_PG_PIPELINING_LIMIT = 256;
+    int DEFAULT_CONFIG_WIKIDB_PG_PIPELINED_CONNECTIONS = 4;
+    boolean DEFAULT_CONFIG_WIKIDB_MARKDOWN_RENDER_ON_SAVE = true;
+    int DEFAULT_CONFIG_WIKIDB_MARKDOWN_BACKFILL_BATCH_SIZE = 100;
+    boolean DEFAULT_CONFIG_WIKIDB_CACHE_ENABLED = true;
+    int DEFAULT_CONFIG_WIKIDB_CACHE_MAX_ENTRIES = 10000;
+    long DEFAULT_CONFIG_WIKIDB_CACHE_TTL = 30000;
+    String DEFAULT_CONFIG_WIKIDB_INVALIDATIONS_ADDRESS = "wikidb.invalidations";
+    int DEFAULT_CONFIG_WIKIDB_STREAM_FETCH_SIZE = 500;
+    boolean DEFAULT_CONFIG_WIKIDB_SEARCH_ENABLED = true;
+    boolean DEFAULT_CONFIG_WIKIDB_DIRECTORY_ENABLED = true;
+    boolean DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_ENABLED = false;
+    int DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_THRESHOLD = 4096;
+    int DEFAULT_CONFIG_WIKIDB_CONTENT_COMPRESSION_LEVEL = 6;
+    int DEFAULT_CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL = 20;
+    boolean DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_ENABLED = false;
+    long DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_WINDOW = 2000;
+    int DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_MAX_PENDING = 10000;
+    long DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_CLOSE_TIMEOUT = 30000;
+    boolean DEFAULT_CONFIG_WIKIDB_COALESCE_READS = true;
+
+    // Valores de wikidb.client: vertx-jdbc-client o el cliente reactivo de Postgres
+    String WIKIDB_CLIENT_JDBC = "jdbc";
+    String WIKIDB_CLIENT_REACTIVE = "reactive";
+
+    // LocalMap donde WikiDbVerticle deja el servicio para las llamadas directas, por direccion del event bus
+    String WIKIDB_LOCAL_SERVICES = "wikidb.local.services";
+
+    // Lock local con el que las instancias de WikiDbVerticle preparan la DB de una en una
+    String WIKIDB_SCHEMA_LOCK = "wikidb.schema";
+
+    // LocalMap con las DB (por URL) a las que alguna instancia esta rellenando el HTML que falta
+    String WIKIDB_BACKFILLS = "wikidb.backfills";
+
+    // LocalMap con las DB (por URL) en las que alguna instancia esta comprimiendo el contenido guardado sin comprimir
+    String WIKIDB_CONTENT_MIGRATIONS = "wikidb.content.migrations";
+
+    // LocalMap con el indice de busqueda de cada DB (por URL), lo comparten todas las instancias de WikiDbVerticle
+    String WIKIDB_SEARCH_INDEXES = "wikidb.search.indexes";
+
+    // LocalMap con el directorio de nombres de cada DB (por URL), igual que los indices de busqueda
+    String WIKIDB_DIRECTORIES = "wikidb.directories";
+
+    // LocalMap con los guardados pendientes de escribir de cada DB (por URL) cuando esta activo el write-behind
+    String WIKIDB_WRITE_BEHIND_BUFFERS = "wikidb.write_behind.buffers";
+
+    // LocalMap con el contador de escrituras de cada DB (por URL) que corta la agrupacion de lecturas iguales
+    String WIKIDB_WRITE_EPOCHS = "wikidb.write_epochs";
+
+    // Tiempo maximo que se espera a que el receptor de un listado en streaming confirme cada bloque
+    long STREAM_ACK_TIMEOUT = 60000;
+
+    // Limite duro de paginas por peticion en los listados paginados
+    int MAX_PAGES_LIMIT = 500;
+
+    // Limite de paginas en cada operacion en bloque (fetchPagesByIds, createPages...)
+    int MAX_BATCH_SIZE = 500;
+
+    // Limite de paginas en cada transaccion de importPages, mas grande para que una importacion masiva vaya rapida
+    int MAX_IMPORT_BATCH_SIZE = 1000;
+
+    // Limite de resultados de searchPages
+    int MAX_SEARCH_LIMIT = 100;
+
+    // Limite de resultados de suggestPages
+    int MAX_SUGGEST_LIMIT = 50;
+
+    // Limite de revisiones por peticion en fetchRevisions
+    int MAX_REVISIONS_LIMIT = 100;
 }
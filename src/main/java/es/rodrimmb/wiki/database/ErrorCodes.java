@@ -3,5 +3,7 @@ package es.rodrimmb.wiki.database;
 public enum ErrorCodes {
     NO_ACTION_SPECIFIED,
     BAD_ACTION,
-    DB_ERROR
+    DB_ERROR,
+    SEARCH_UNAVAILABLE,
+    DIRECTORY_UNAVAILABLE
 }
@@ -0,0 +1,356 @@
+package es.rodrimmb.wiki.database;
+
+import com.mchange.v2.c3p0.C3P0ProxyConnection;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.beans.PropertyVetoException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Pool de conexiones JDBC de WikiDbServicePostgres. Montamos nosotros el ComboPooledDataSource de C3P0 (en vez de
+ * dejar que lo haga JDBCClient) para tener:
+ *  - Cache de sentencias preparadas por conexion, cada SqlQuery se prepara una vez por conexion y se reutiliza
+ *  - Un limite de conexiones en uso que, en modo adaptativo, crece cuando la espera media por una conexion pasa de
+ *    target_wait y baja cuando sobran conexiones. C3P0 abre conexiones hasta max_pool_size segun se piden y cierra las
+ *    que pasan de min_pool_size cuando llevan un rato sin usarse
+ *  - Estadisticas de espera por conexion y de aciertos de la cache de sentencias, que se escriben en el log cada
+ *    stats_interval. Las conexiones activas, libres y las peticiones en espera tambien se publican en /metrics, con
+ *    la etiqueta pool para distinguir los pools de las distintas instancias de WikiDbVerticle
+ * Solo se usa desde el event loop del verticle que lo crea, salvo los contadores de sentencias que se actualizan desde
+ * los hilos de JDBC.
+ */
+public final class JdbcPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcPool.class);
+
+    // Conexiones que se suman o quitan del limite en cada ajuste (y que abre C3P0 de golpe cuando le faltan)
+    private static final int POOL_SIZE_STEP = 2;
+    // Segundos que C3P0 mantiene abierta una conexion sin usar por encima de min_pool_size
+    private static final int MAX_IDLE_EXCESS_CONNECTIONS = 60;
+
+    private static final Method RAW_CONNECTION_IDENTITY;
+
+    // Numeros de los pools abiertos, el de un pool cerrado se reutiliza para no dejar series sueltas en /metrics
+    private static final Set<Integer> POOL_IDS = new HashSet<>();
+
+    static {
+        try {
+            RAW_CONNECTION_IDENTITY = JdbcPool.class.getDeclaredMethod("identity", Object.class);
+            RAW_CONNECTION_IDENTITY.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final Vertx vertx;
+    private final ComboPooledDataSource dataSource;
+    private final JDBCClient client;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final int statementCacheSize;
+    private final long targetWaitNanos;
+    private final long adjustTimer;
+    private final long statsTimer;
+    private final int poolId;
+    private final MeterRegistry registry;
+    private final Timer waitTimer;
+    private final List<Meter> meters;
+
+    private final ArrayDeque<Handler<Void>> waiters = new ArrayDeque<>();
+    private int limit;
+    private int inUse;
+    private int peakInUse;
+
+    // Esperas desde el ultimo ajuste del limite y desde el arranque
+    private long windowWaits;
+    private long windowWaitNanos;
+    private long totalWaits;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    // Sentencias preparadas por conexion fisica, para saber si C3P0 la tenia ya en su cache
+    private final Map<Object, Map<String, Boolean>> statementsByConnection =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicLong prepares = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+
+    private JdbcPool(final Vertx vertx, final JsonObject config) throws PropertyVetoException {
+        this.vertx = vertx;
+        this.maxPoolSize = config.getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, DEFAULT_CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE);
+        this.minPoolSize = Math.min(maxPoolSize,
+                config.getInteger(CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE, DEFAULT_CONFIG_WIKIDB_JDBC_MIN_POOL_SIZE));
+        this.statementCacheSize = config.getInteger(CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE,
+                DEFAULT_CONFIG_WIKIDB_JDBC_STATEMENT_CACHE_SIZE);
+        this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(CONFIG_WIKIDB_JDBC_POOL_TARGET_WAIT,
+                DEFAULT_CONFIG_WIKIDB_JDBC_POOL_TARGET_WAIT));
+        boolean adaptive = config.getBoolean(CONFIG_WIKIDB_JDBC_POOL_ADAPTIVE, DEFAULT_CONFIG_WIKIDB_JDBC_POOL_ADAPTIVE);
+        this.limit = adaptive ? minPoolSize : maxPoolSize;
+
+        dataSource = new ComboPooledDataSource();
+        dataSource.setDriverClass(config.getString(CONFIG_WIKIDB_JDBC_DRIVER, DEFAULT_CONFIG_WIKIDB_JDBC_DRIVER));
+        dataSource.setJdbcUrl(config.getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL));
+        dataSource.setUser(config.getString(CONFIG_WIKIDB_JDBC_USER, DEFAULT_CONFIG_WIKIDB_JDBC_USER));
+        dataSource.setPassword(config.getString(CONFIG_WIKIDB_JDBC_PASSWORD, DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD));
+        dataSource.setMinPoolSize(minPoolSize);
+        dataSource.setInitialPoolSize(minPoolSize);
+        dataSource.setMaxPoolSize(maxPoolSize);
+        dataSource.setAcquireIncrement(POOL_SIZE_STEP);
+        dataSource.setMaxIdleTimeExcessConnections(MAX_IDLE_EXCESS_CONNECTIONS);
+        dataSource.setMaxStatementsPerConnection(statementCacheSize);
+
+        client = JDBCClient.create(vertx, trackStatements(dataSource));
+
+        adjustTimer = adaptive
+                ? vertx.setPeriodic(config.getLong(CONFIG_WIKIDB_JDBC_POOL_ADJUST_INTERVAL,
+                        DEFAULT_CONFIG_WIKIDB_JDBC_POOL_ADJUST_INTERVAL), this::adjust)
+                : -1;
+        statsTimer = vertx.setPeriodic(config.getLong(CONFIG_WIKIDB_JDBC_POOL_STATS_INTERVAL,
+                DEFAULT_CONFIG_WIKIDB_JDBC_POOL_STATS_INTERVAL), id -> LOG.info("Pool JDBC: {}", stats().encode()));
+        poolId = acquirePoolId();
+        String pool = String.valueOf(poolId);
+        registry = Metrics.registry();
+        waitTimer = Metrics.latency("wiki.db.pool.wait").tag("pool", pool).register(registry);
+        meters = Arrays.asList(waitTimer,
+                Gauge.builder("wiki.db.pool.connections", this, jdbcPool -> jdbcPool.inUse)
+                        .tag("pool", pool).tag("state", "active").register(registry),
+                Gauge.builder("wiki.db.pool.connections", this, JdbcPool::idleConnections)
+                        .tag("pool", pool).tag("state", "idle").register(registry),
+                Gauge.builder("wiki.db.pool.waiting", this, jdbcPool -> jdbcPool.waiters.size())
+                        .tag("pool", pool).register(registry),
+                Gauge.builder("wiki.db.pool.limit", this, jdbcPool -> jdbcPool.limit)
+                        .tag("pool", pool).register(registry));
+        LOG.info("Pool JDBC entre {} y {} conexiones, limite inicial {}, cache de {} sentencias por conexion",
+                minPoolSize, maxPoolSize, limit, statementCacheSize);
+    }
+
+    public static JdbcPool create(final Vertx vertx, final JsonObject config) {
+        try {
+            return new JdbcPool(vertx, config);
+        } catch (PropertyVetoException e) {
+            throw new IllegalArgumentException("Driver JDBC no valido", e);
+        }
+    }
+
+    /*
+     * Pide una conexion respetando el limite actual. La conexion hay que devolverla con close(connection) para que
+     * cuente como libre
+     */
+    public void getConnection(final Handler<AsyncResult<SQLConnection>> handler) {
+        long start = System.nanoTime();
+        Handler<Void> acquire = granted -> client.getConnection(connection -> {
+            recordWait(System.nanoTime() - start);
+            if(connection.failed()) {
+                release();
+            }
+            handler.handle(connection);
+        });
+        if(inUse < limit) {
+            inUse++;
+            peakInUse = Math.max(peakInUse, inUse);
+            acquire.handle(null);
+        } else {
+            waiters.add(acquire);
+        }
+    }
+
+    public void close(final SQLConnection connection) {
+        connection.close();
+        release();
+    }
+
+    private void release() {
+        inUse--;
+        drain();
+    }
+
+    private void drain() {
+        while(inUse < limit && !waiters.isEmpty()) {
+            inUse++;
+            peakInUse = Math.max(peakInUse, inUse);
+            waiters.poll().handle(null);
+        }
+    }
+
+    private void recordWait(final long waitNanos) {
+        windowWaits++;
+        windowWaitNanos += waitNanos;
+        totalWaits++;
+        totalWaitNanos += waitNanos;
+        maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+     * Si la espera media desde el ultimo ajuste pasa del objetivo subimos el limite, si no se ha esperado y ni en el
+     * pico se han usado todas las conexiones lo bajamos
+     */
+    private void adjust(final long timerId) {
+        long averageWait = windowWaits == 0 ? 0 : windowWaitNanos / windowWaits;
+        int previous = limit;
+        if(averageWait > targetWaitNanos && limit < maxPoolSize) {
+            limit = Math.min(maxPoolSize, limit + POOL_SIZE_STEP);
+        } else if(averageWait <= targetWaitNanos && peakInUse <= limit - POOL_SIZE_STEP && limit > minPoolSize) {
+            limit = Math.max(minPoolSize, limit - POOL_SIZE_STEP);
+        }
+        if(limit != previous) {
+            LOG.info("Limite del pool JDBC de {} a {} conexiones (espera media {} ms, pico {} en uso)",
+                    previous, limit, nanosToMillis(averageWait), peakInUse);
+        }
+        windowWaits = 0;
+        windowWaitNanos = 0;
+        peakInUse = inUse;
+        drain();
+    }
+
+    public JsonObject stats() {
+        long hits = statementHits.get();
+        long total = prepares.get();
+        JsonObject stats = new JsonObject()
+                .put("limit", limit)
+                .put("in_use", inUse)
+                .put("waiting", waiters.size())
+                .put("wait_avg_ms", totalWaits == 0 ? 0 : nanosToMillis(totalWaitNanos / totalWaits))
+                .put("wait_max_ms", nanosToMillis(maxWaitNanos))
+                .put("statement_prepares", total)
+                .put("statement_cache_hits", hits)
+                .put("statement_cache_hit_rate", total == 0 ? 0 : (double) hits / total);
+        try {
+            stats.put("connections", dataSource.getNumConnectionsDefaultUser())
+                    .put("busy", dataSource.getNumBusyConnectionsDefaultUser())
+                    .put("idle", dataSource.getNumIdleConnectionsDefaultUser())
+                    .put("statements_cached", dataSource.getStatementCacheNumStatementsDefaultUser());
+        } catch (SQLException e) {
+            LOG.debug("No se han podido leer las estadisticas de C3P0", e);
+        }
+        return stats;
+    }
+
+    public void close() {
+        vertx.cancelTimer(adjustTimer);
+        vertx.cancelTimer(statsTimer);
+        LOG.info("Pool JDBC: {}", stats().encode());
+        meters.forEach(registry::remove);
+        releasePoolId(poolId);
+        client.close(closed -> vertx.executeBlocking(blocking -> {
+            dataSource.close();
+            blocking.complete();
+        }, false, null));
+    }
+
+    private static int acquirePoolId() {
+        synchronized(POOL_IDS) {
+            int id = 0;
+            while(!POOL_IDS.add(id)) {
+                id++;
+            }
+            return id;
+        }
+    }
+
+    private static void releasePoolId(final int id) {
+        synchronized(POOL_IDS) {
+            POOL_IDS.remove(id);
+        }
+    }
+
+    // Conexiones abiertas por C3P0 que nadie esta usando
+    private double idleConnections() {
+        try {
+            return dataSource.getNumIdleConnectionsDefaultUser();
+        } catch (SQLException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double nanosToMillis(final long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /*
+     * Envuelve las conexiones de C3P0 para contar las sentencias que se preparan y cuantas ya estaban en la cache de su
+     * conexion fisica. Llevamos nuestra propia LRU por conexion del mismo tamaño que la de C3P0, asi que los aciertos
+     * son una estimacion muy cercana a los reales
+     */
+    private DataSource trackStatements(final ComboPooledDataSource pooled) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(pooled, method, args);
+                    if(statementCacheSize > 0 && result instanceof C3P0ProxyConnection) {
+                        return trackStatements((C3P0ProxyConnection) result);
+                    }
+                    return result;
+                });
+    }
+
+    private Connection trackStatements(final C3P0ProxyConnection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if("prepareStatement".equals(method.getName())) {
+                        countPrepare(connection, Arrays.toString(args));
+                    }
+                    return invoke(connection, method, args);
+                });
+    }
+
+    private void countPrepare(final C3P0ProxyConnection connection, final String statement) throws Exception {
+        Object physical = connection.rawConnectionOperation(RAW_CONNECTION_IDENTITY, null,
+                new Object[]{C3P0ProxyConnection.RAW_CONNECTION});
+        Map<String, Boolean> statements = statementsByConnection.computeIfAbsent(physical,
+                key -> new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                        return size() > statementCacheSize;
+                    }
+                });
+        prepares.incrementAndGet();
+        synchronized (statements) {
+            if(statements.put(statement, Boolean.TRUE) != null) {
+                statementHits.incrementAndGet();
+            }
+        }
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // C3P0 nos pasa aqui la conexion fisica que hay detras de su proxy
+    private static Object identity(final Object rawConnection) {
+        return rawConnection;
+    }
+}
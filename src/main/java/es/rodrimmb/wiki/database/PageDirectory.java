@@ -0,0 +1,393 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Directorio en memoria de las paginas vivas (id y nombre) para autocompletar nombres sin ir a la DB. Solo se entera
+ * de las escrituras de este nodo, por eso no se usa para buscar por nombre ni para listar. No hay ningun objeto por
+ * pagina: cada una ocupa un hueco (slot) de unos arrays de primitivos con su UUID en dos long, y los nombres se
+ * guardan en UTF-8 en un buffer fuera del heap. Asi millones de paginas cuestan unos 40 bytes de heap cada una.
+ *
+ * sorted tiene los slots ordenados por los bytes del nombre, que es el orden de los code points y no tiene por que
+ * ser el de la collation de la DB. table es una tabla hash de direccionamiento abierto del UUID a su slot.
+ *
+ * Se comparte entre todas las instancias de WikiDbVerticle igual que SearchIndex. Mientras se carga desde la DB sorted
+ * no se mantiene, se ordena de una vez en ready(), y las paginas borradas se apuntan para no cargar una fila ya vieja.
+ */
+final class PageDirectory implements Shareable {
+
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    private static final int FREE = -1;
+    private static final int MIN_ARENA_BYTES = 64 * 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] mostSignificant = new long[64];
+    private long[] leastSignificant = new long[64];
+    private int[] nameOffsets = new int[64];
+    // FREE en los slots sin pagina
+    private int[] nameLengths = new int[64];
+    private int slots;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int[] sorted = new int[64];
+    private int size;
+    // slot + 1 de cada UUID, EMPTY si nunca se ha usado y REMOVED si se borro (para no cortar las cadenas de busqueda)
+    private int[] table = new int[128];
+    private int tableUsed;
+    private ByteBuffer arena = ByteBuffer.allocateDirect(MIN_ARENA_BYTES);
+    private int arenaUsed;
+    private int deadBytes;
+    private Set<String> removedWhileLoading = new HashSet<>();
+    private volatile boolean ready;
+
+    // Pagina leida de la DB al cargar el directorio, se ignora si ya esta o si se ha borrado despues de empezar
+    void load(final String id, final String name) {
+        lock.writeLock().lock();
+        try {
+            UUID uuid = UUID.fromString(id);
+            if(removedWhileLoading.contains(id)
+                    || find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0) {
+                return;
+            }
+            add(uuid, name.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // La carga ha acabado, se ordenan los nombres y a partir de aqui se puede consultar
+    void ready() {
+        lock.writeLock().lock();
+        try {
+            sorted = new int[Math.max(64, size + size / 2)];
+            int live = 0;
+            for(int slot = 0; slot < slots; slot++) {
+                if(nameLengths[slot] != FREE) {
+                    sorted[live++] = slot;
+                }
+            }
+            mergeSort(sorted, Arrays.copyOf(sorted, live), 0, live);
+            //Dos ids con el mismo nombre solo pueden venir de filas leidas en momentos distintos, nos quedamos con uno
+            int unique = 0;
+            for(int i = 0; i < live; i++) {
+                if(unique > 0 && compareSlots(sorted[unique - 1], sorted[i]) == 0) {
+                    removeAt(find(mostSignificant[sorted[i]], leastSignificant[sorted[i]]));
+                } else {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            removedWhileLoading = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    // Pagina nueva. Si ya habia otra con el mismo nombre era una entrada vieja y se quita
+    void put(final String id, final String name) {
+        lock.writeLock().lock();
+        try {
+            UUID uuid = UUID.fromString(id);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            int index = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if(index >= 0) {
+                int slot = table[index] - 1;
+                if(compare(slot, bytes) == 0) {
+                    return;
+                }
+                removeAt(index);
+            }
+            if(!ready) {
+                add(uuid, bytes);
+                return;
+            }
+            int position = search(bytes);
+            if(position >= 0) {
+                int slot = sorted[position];
+                removeAt(find(mostSignificant[slot], leastSignificant[slot]));
+                position = search(bytes);
+            }
+            int slot = add(uuid, bytes);
+            if(size > sorted.length) {
+                sorted = Arrays.copyOf(sorted, sorted.length + (sorted.length >> 1));
+            }
+            int insertion = -position - 1;
+            System.arraycopy(sorted, insertion, sorted, insertion + 1, size - 1 - insertion);
+            sorted[insertion] = slot;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(final String id) {
+        lock.writeLock().lock();
+        try {
+            UUID uuid = UUID.fromString(id);
+            int index = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if(index >= 0) {
+                removeAt(index);
+            }
+            if(!ready) {
+                removedWhileLoading.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Hasta limit paginas cuyo nombre empieza por prefix, por orden de nombre
+    List<JsonObject> withPrefix(final String prefix, final int limit) {
+        lock.readLock().lock();
+        try {
+            byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+            int position = search(bytes);
+            int from = position >= 0 ? position : -position - 1;
+            List<JsonObject> pages = new ArrayList<>();
+            for(int i = from; i < size && pages.size() < limit && startsWith(sorted[i], bytes); i++) {
+                pages.add(page(sorted[i]));
+            }
+            return pages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Memoria de los arrays del directorio, sin contar los nombres
+    long heapBytes() {
+        return 16L * mostSignificant.length + 8L * nameOffsets.length + 4L * freeSlots.length
+                + 4L * sorted.length + 4L * table.length;
+    }
+
+    // Memoria reservada fuera del heap para los nombres
+    long offHeapBytes() {
+        return arena.capacity();
+    }
+
+    private int add(final UUID uuid, final byte[] name) {
+        if(2 * (tableUsed + 1) > table.length) {
+            rehash();
+        }
+        int slot;
+        if(freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if(slots == mostSignificant.length) {
+                int capacity = slots + (slots >> 1);
+                mostSignificant = Arrays.copyOf(mostSignificant, capacity);
+                leastSignificant = Arrays.copyOf(leastSignificant, capacity);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+                nameLengths = Arrays.copyOf(nameLengths, capacity);
+            }
+            slot = slots++;
+        }
+        mostSignificant[slot] = uuid.getMostSignificantBits();
+        leastSignificant[slot] = uuid.getLeastSignificantBits();
+        nameOffsets[slot] = write(name);
+        nameLengths[slot] = name.length;
+        size++;
+        int index = hash(mostSignificant[slot], leastSignificant[slot]);
+        while(table[index] > 0) {
+            index = (index + 1) & (table.length - 1);
+        }
+        if(table[index] == EMPTY) {
+            tableUsed++;
+        }
+        table[index] = slot + 1;
+        return slot;
+    }
+
+    private void removeAt(final int index) {
+        int slot = table[index] - 1;
+        if(ready) {
+            int position = search(name(slot));
+            System.arraycopy(sorted, position + 1, sorted, position, size - 1 - position);
+        }
+        table[index] = REMOVED;
+        deadBytes += nameLengths[slot];
+        nameLengths[slot] = FREE;
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    // Posicion en table del UUID, -1 si no esta
+    private int find(final long most, final long least) {
+        int index = hash(most, least);
+        while(table[index] != EMPTY) {
+            int slot = table[index] - 1;
+            if(slot >= 0 && mostSignificant[slot] == most && leastSignificant[slot] == least) {
+                return index;
+            }
+            index = (index + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    private int hash(final long most, final long least) {
+        long hash = (most ^ least) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (table.length - 1);
+    }
+
+    // Tabla nueva sin los REMOVED, con sitio para que la mitad quede libre
+    private void rehash() {
+        int capacity = Integer.highestOneBit(Math.max(128, size * 4) - 1) << 1;
+        table = new int[capacity];
+        tableUsed = 0;
+        for(int slot = 0; slot < slots; slot++) {
+            if(nameLengths[slot] != FREE) {
+                int index = hash(mostSignificant[slot], leastSignificant[slot]);
+                while(table[index] != EMPTY) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                table[index] = slot + 1;
+                tableUsed++;
+            }
+        }
+    }
+
+    /*
+     * Copia el nombre al final del buffer. Si no cabe se crea otro con el doble de lo que ocupan los nombres vivos y se
+     * copian solo esos, asi el espacio de los borrados se recupera al crecer
+     */
+    private int write(final byte[] name) {
+        if(arenaUsed + name.length > arena.capacity()) {
+            long live = (long) arenaUsed - deadBytes + name.length;
+            if(2 * live > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Page directory is full");
+            }
+            ByteBuffer compacted = ByteBuffer.allocateDirect((int) Math.max(MIN_ARENA_BYTES, 2 * live));
+            for(int slot = 0; slot < slots; slot++) {
+                if(nameLengths[slot] != FREE) {
+                    ByteBuffer source = arena.duplicate();
+                    source.limit(nameOffsets[slot] + nameLengths[slot]).position(nameOffsets[slot]);
+                    nameOffsets[slot] = compacted.position();
+                    compacted.put(source);
+                }
+            }
+            arena = compacted;
+            arenaUsed = compacted.position();
+            deadBytes = 0;
+        }
+        ByteBuffer target = arena.duplicate();
+        target.position(arenaUsed);
+        target.put(name);
+        int offset = arenaUsed;
+        arenaUsed += name.length;
+        return offset;
+    }
+
+    // Busqueda binaria del nombre en sorted, con el mismo convenio que Arrays.binarySearch
+    private int search(final byte[] name) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(sorted[middle], name);
+            if(comparison < 0) {
+                low = middle + 1;
+            } else if(comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int compare(final int slot, final byte[] name) {
+        int offset = nameOffsets[slot];
+        int length = nameLengths[slot];
+        for(int i = 0; i < Math.min(length, name.length); i++) {
+            int difference = (arena.get(offset + i) & 0xff) - (name[i] & 0xff);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return length - name.length;
+    }
+
+    private int compareSlots(final int slot, final int other) {
+        int offset = nameOffsets[slot];
+        int otherOffset = nameOffsets[other];
+        int length = Math.min(nameLengths[slot], nameLengths[other]);
+        for(int i = 0; i < length; i++) {
+            int difference = (arena.get(offset + i) & 0xff) - (arena.get(otherOffset + i) & 0xff);
+            if(difference != 0) {
+                return difference;
+            }
+        }
+        return nameLengths[slot] - nameLengths[other];
+    }
+
+    private boolean startsWith(final int slot, final byte[] prefix) {
+        if(nameLengths[slot] < prefix.length) {
+            return false;
+        }
+        int offset = nameOffsets[slot];
+        for(int i = 0; i < prefix.length; i++) {
+            if(arena.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Ordena slots entre from y to usando source, que empieza con el mismo contenido
+    private void mergeSort(final int[] target, final int[] source, final int from, final int to) {
+        if(to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(source, target, from, middle);
+        mergeSort(source, target, middle, to);
+        int left = from;
+        int right = middle;
+        for(int i = from; i < to; i++) {
+            if(right >= to || (left < middle && compareSlots(source[left], source[right]) <= 0)) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private byte[] name(final int slot) {
+        byte[] name = new byte[nameLengths[slot]];
+        ByteBuffer source = arena.duplicate();
+        source.position(nameOffsets[slot]);
+        source.get(name);
+        return name;
+    }
+
+    private String id(final int slot) {
+        return new UUID(mostSignificant[slot], leastSignificant[slot]).toString();
+    }
+
+    private JsonObject page(final int slot) {
+        return new JsonObject()
+                .put("id", id(slot))
+                .put("name", new String(name(slot), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,248 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Diferencias por lineas entre dos versiones del contenido de una pagina (algoritmo de Myers), para guardar cada
+ * revision como delta de la anterior y para mostrar el diff entre dos revisiones.
+ *
+ * El delta es un array JSON con una entrada por tramo: un numero positivo copia ese numero de lineas de la version
+ * anterior, uno negativo se salta esas lineas y un texto se inserta tal cual. Las lineas incluyen su salto de linea,
+ * asi aplicar el delta devuelve exactamente el mismo texto
+ */
+final class RevisionDelta {
+
+    // Con mas cambios que estos en la zona que difiere se da por reescrita entera, el coste de Myers crece con D^2
+    private static final int MAX_EDITS = 1000;
+    // Lineas de contexto alrededor de cada cambio en el diff unificado
+    private static final int CONTEXT = 3;
+
+    private static final int EQUAL = 0;
+    private static final int DELETE = 1;
+    private static final int INSERT = 2;
+
+    private RevisionDelta() {
+    }
+
+    static String delta(final String from, final String to) {
+        List<String> a = lines(from);
+        List<String> b = lines(to);
+        JsonArray delta = new JsonArray();
+        // Linea de b por la que vamos, el texto insertado se copia de ahi
+        int line = 0;
+        for(int[] op : script(a, b)) {
+            if(op[0] == EQUAL) {
+                delta.add(op[1]);
+            } else if(op[0] == DELETE) {
+                delta.add(-op[1]);
+            } else {
+                delta.add(String.join("", b.subList(line, line + op[1])));
+            }
+            if(op[0] != DELETE) {
+                line += op[1];
+            }
+        }
+        return delta.encode();
+    }
+
+    static String apply(final String from, final String delta) {
+        List<String> a = lines(from);
+        StringBuilder to = new StringBuilder(from.length());
+        int line = 0;
+        for(Object op : new JsonArray(delta)) {
+            if(op instanceof String) {
+                to.append((String) op);
+                continue;
+            }
+            int count = ((Number) op).intValue();
+            if(count > 0) {
+                for(int i = line; i < line + count; i++) {
+                    to.append(a.get(i));
+                }
+            }
+            line += Math.abs(count);
+        }
+        return to.toString();
+    }
+
+    /*
+     * Diff en formato unificado (como diff -u, sin las cabeceras de fichero) con CONTEXT lineas de contexto
+     */
+    static String unified(final String from, final String to) {
+        List<String> a = lines(from);
+        List<String> b = lines(to);
+        // Cada linea del diff como {tipo, linea en a, linea en b}
+        List<int[]> lines = new ArrayList<>();
+        int x = 0;
+        int y = 0;
+        for(int[] op : script(a, b)) {
+            for(int i = 0; i < op[1]; i++) {
+                lines.add(new int[]{op[0], x, y});
+                if(op[0] != INSERT) {
+                    x++;
+                }
+                if(op[0] != DELETE) {
+                    y++;
+                }
+            }
+        }
+        StringBuilder diff = new StringBuilder();
+        int i = 0;
+        while(i < lines.size()) {
+            if(lines.get(i)[0] == EQUAL) {
+                i++;
+                continue;
+            }
+            // El trozo empieza CONTEXT lineas antes del cambio y acaba cuando hay mas de 2 * CONTEXT lineas iguales
+            int start = Math.max(0, i - CONTEXT);
+            int end = i;
+            int equals = 0;
+            while(end < lines.size() && equals <= 2 * CONTEXT) {
+                equals = lines.get(end)[0] == EQUAL ? equals + 1 : 0;
+                end++;
+            }
+            end -= Math.max(0, equals - CONTEXT);
+            hunk(diff, a, b, lines.subList(start, end));
+            i = end;
+        }
+        return diff.toString();
+    }
+
+    private static void hunk(final StringBuilder diff, final List<String> a, final List<String> b,
+                             final List<int[]> lines) {
+        int fromCount = 0;
+        int toCount = 0;
+        for(int[] line : lines) {
+            fromCount += line[0] != INSERT ? 1 : 0;
+            toCount += line[0] != DELETE ? 1 : 0;
+        }
+        int[] first = lines.get(0);
+        diff.append("@@ -").append(fromCount == 0 ? first[1] : first[1] + 1).append(',').append(fromCount)
+                .append(" +").append(toCount == 0 ? first[2] : first[2] + 1).append(',').append(toCount)
+                .append(" @@\n");
+        for(int[] line : lines) {
+            String text = line[0] == INSERT ? b.get(line[2]) : a.get(line[1]);
+            diff.append(line[0] == EQUAL ? ' ' : line[0] == DELETE ? '-' : '+').append(text);
+            if(!text.endsWith("\n")) {
+                diff.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    // Lineas del texto con su salto de linea, la ultima puede no tenerlo
+    private static List<String> lines(final String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while(start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /*
+     * Tramos {tipo, lineas} que convierten a en b. Primero se quitan las lineas iguales del principio y del final, que
+     * en una edicion pequena son casi todas, y Myers solo recorre lo que queda en medio
+     */
+    private static List<int[]> script(final List<String> a, final List<String> b) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] x = new int[a.size()];
+        int[] y = new int[b.size()];
+        for(int i = 0; i < x.length; i++) {
+            x[i] = ids.computeIfAbsent(a.get(i), line -> ids.size());
+        }
+        for(int i = 0; i < y.length; i++) {
+            y[i] = ids.computeIfAbsent(b.get(i), line -> ids.size());
+        }
+        int start = 0;
+        while(start < x.length && start < y.length && x[start] == y[start]) {
+            start++;
+        }
+        int endX = x.length;
+        int endY = y.length;
+        while(endX > start && endY > start && x[endX - 1] == y[endY - 1]) {
+            endX--;
+            endY--;
+        }
+        List<int[]> ops = new ArrayList<>();
+        add(ops, EQUAL, start);
+        myers(x, start, endX, y, start, endY, ops);
+        add(ops, EQUAL, x.length - endX);
+        return ops;
+    }
+
+    private static void myers(final int[] a, final int aStart, final int aEnd, final int[] b, final int bStart,
+                              final int bEnd, final List<int[]> ops) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        // Estado de v antes de cada paso d, solo las diagonales -d..d, para reconstruir el camino al final
+        List<int[]> trace = new ArrayList<>();
+        for(int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+            for(int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while(x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if(x >= n && y >= m) {
+                    backtrack(trace, d, n, m, ops);
+                    return;
+                }
+            }
+        }
+        add(ops, DELETE, n);
+        add(ops, INSERT, m);
+    }
+
+    private static void backtrack(final List<int[]> trace, final int edits, final int n, final int m,
+                                  final List<int[]> ops) {
+        List<int[]> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for(int d = edits; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            boolean down = k == -d || (k != d && v[k - 1 + d] < v[k + 1 + d]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousX = v[previousK + d];
+            int snakeStart = down ? previousX : previousX + 1;
+            reversed.add(new int[]{EQUAL, x - snakeStart});
+            reversed.add(new int[]{down ? INSERT : DELETE, 1});
+            x = previousX;
+            y = previousX - previousK;
+        }
+        reversed.add(new int[]{EQUAL, x});
+        Collections.reverse(reversed);
+        reversed.forEach(op -> add(ops, op[0], op[1]));
+    }
+
+    // Junta los tramos seguidos del mismo tipo y descarta los vacios
+    private static void add(final List<int[]> ops, final int type, final int count) {
+        if(count == 0) {
+            return;
+        }
+        int[] last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+        if(last != null && last[0] == type) {
+            last[1] += count;
+        } else {
+            ops.add(new int[]{type, count});
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.streams.ReadStream;
+
+/*
+ * Filas de una consulta leidas poco a poco desde un cursor de la DB. La conexion que usa se libera sola al llegar al
+ * final o al fallar, si se abandona antes hay que llamar a close()
+ */
+interface SqlCursor extends ReadStream<JsonArray> {
+
+    void close();
+}
@@ -2,10 +2,31 @@ package es.rodrimmb.wiki.database;
 
 public enum SqlQuery {
     CREATE_PAGES_TABLE,
+    ADD_HTML_COLUMN,
+    ADD_CONTENT_DEFLATE_COLUMN,
+    CREATE_PAGES_NAME_INDEX,
+    CREATE_REVISIONS_TABLE,
+    CREATE_REVISIONS_SNAPSHOT_INDEX,
     ALL_PAGES,
+    PAGES_AFTER,
     GET_PAGE_BY_NAME,
     GET_PAGE_BY_ID,
+    GET_PAGES_BY_IDS,
+    GET_PAGE_VERSION,
+    SEARCH_INDEX_PAGES,
+    EXPORT_PAGES,
     CREATE_PAGE,
+    FIND_OR_CREATE_PAGE,
+    IMPORT_PAGE,
     UPDATE_PAGE,
-    DELETE_PAGE
+    DELETE_PAGE,
+    PAGES_WITHOUT_HTML,
+    SAVE_PAGE_HTML,
+    PAGES_TO_COMPRESS,
+    COMPRESS_PAGE_CONTENT,
+    LOCK_PAGES_FOR_REVISION,
+    REVISION_HEADS,
+    CREATE_REVISION,
+    PAGE_REVISIONS,
+    REVISION_CHAIN
 }
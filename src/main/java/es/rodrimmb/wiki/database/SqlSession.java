@@ -0,0 +1,24 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+
+import java.util.List;
+
+/*
+ * Operaciones SQL sobre las que se construye AbstractWikiDbService, cada cliente de DB (JDBC o reactivo) las implementa
+ * a su manera. Los parametros usan ? como en JDBC y las filas se devuelven como JsonArray con los tipos que da
+ * vertx-jdbc-client (los UUID y las fechas como String)
+ */
+interface SqlSession {
+
+    Future<Void> execute(String sql);
+
+    Future<List<JsonArray>> query(String sql, JsonArray params);
+
+    Future<Integer> update(String sql, JsonArray params);
+
+    // Ejecuta la misma sentencia con cada lista de parametros, devuelve las filas afectadas por cada una. Fuera de
+    // inTransaction() todo el batch va en una unica transaccion
+    Future<List<Integer>> batch(String sql, List<JsonArray> params);
+}
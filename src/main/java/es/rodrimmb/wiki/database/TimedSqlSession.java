@@ -0,0 +1,60 @@
+package es.rodrimmb.wiki.database;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ * SqlSession que apunta en wiki.db.queries lo que tarda cada sentencia, con el nombre de su SqlQuery como tag. Las
+ * sentencias que no estan en queryNames (no deberia haber ninguna) se apuntan como "other"
+ */
+final class TimedSqlSession implements SqlSession {
+
+    private final SqlSession session;
+    private final Map<String, SqlQuery> queryNames;
+    private final MeterRegistry registry;
+
+    TimedSqlSession(final SqlSession session, final Map<String, SqlQuery> queryNames, final MeterRegistry registry) {
+        this.session = session;
+        this.queryNames = queryNames;
+        this.registry = registry;
+    }
+
+    @Override
+    public Future<Void> execute(final String sql) {
+        return timed(sql, () -> session.execute(sql));
+    }
+
+    @Override
+    public Future<List<JsonArray>> query(final String sql, final JsonArray params) {
+        return timed(sql, () -> session.query(sql, params));
+    }
+
+    @Override
+    public Future<Integer> update(final String sql, final JsonArray params) {
+        return timed(sql, () -> session.update(sql, params));
+    }
+
+    @Override
+    public Future<List<Integer>> batch(final String sql, final List<JsonArray> params) {
+        return timed(sql, () -> session.batch(sql, params));
+    }
+
+    private <T> Future<T> timed(final String sql, final Supplier<Future<T>> statement) {
+        long start = System.nanoTime();
+        return statement.get().onComplete(done -> {
+            SqlQuery query = queryNames.get(sql);
+            Metrics.latency("wiki.db.queries")
+                    .tag("query", query == null ? "other" : query.name().toLowerCase())
+                    .tag("outcome", done.succeeded() ? "success" : "error")
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+    }
+}
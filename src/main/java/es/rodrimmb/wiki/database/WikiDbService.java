@@ -8,7 +8,7 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.pgclient.PgPool;
 
 import java.util.HashMap;
 import java.util.List;
@@ -21,28 +21,155 @@ public interface WikiDbService {
     @Fluent
     WikiDbService fetchAllPages(Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
+    /**
+     * Listado paginado por nombre. Devuelve hasta limit paginas con nombre posterior a after (cadena vacia para la
+     * primera) en "pages" y, si hay mas, el cursor para pedir la siguiente en "next".
+     */
+    @Fluent
+    WikiDbService fetchPages(String after, int limit, Handler<AsyncResult<JsonObject>> resultHandler);
+
+    /**
+     * Listado completo en streaming. Las paginas se leen de la DB con un cursor y se envian por bloques al address
+     * indicado como {"pages": [...], "end": false}; el siguiente bloque no se lee hasta que el receptor responde al
+     * anterior, si responde con un fallo el listado se cancela. El ultimo mensaje lleva "end": true y, si algo ha ido
+     * mal, "error". El resultado se completa cuando el cursor esta abierto.
+     */
+    @Fluent
+    WikiDbService streamPages(String address, Handler<AsyncResult<Void>> resultHandler);
+
+    /**
+     * Exportacion completa en streaming, igual que streamPages pero cada pagina lleva todos sus datos
+     * {"id": ..., "name": ..., "content": ..., "creation_date": ..., "update_date": ...}. Las borradas no se exportan.
+     */
+    @Fluent
+    WikiDbService exportPages(String address, Handler<AsyncResult<Void>> resultHandler);
+
     @Fluent
     WikiDbService fetchPageById(String id, Handler<AsyncResult<JsonObject>> resultHandler);
 
+    /**
+     * Solo las fechas de la pagina, {"found": ..., "id": ..., "creation_date": ..., "update_date": ...,
+     * "delete_date": ...}, para saber si ha cambiado sin leer el contenido.
+     */
+    @Fluent
+    WikiDbService fetchPageVersion(String id, Handler<AsyncResult<JsonObject>> resultHandler);
+
+    /**
+     * Busca en el nombre y el contenido de las paginas con el indice en memoria, hasta limit resultados
+     * {"id": ..., "name": ..., "score": ...} ordenados por relevancia. Falla con SEARCH_UNAVAILABLE mientras el indice
+     * se esta construyendo o si la busqueda esta desactivada.
+     */
+    @Fluent
+    WikiDbService searchPages(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Hasta limit paginas {"id": ..., "name": ...} cuyo nombre empieza por prefix, por orden de nombre y sin ir a la
+     * DB. Falla con DIRECTORY_UNAVAILABLE mientras el directorio de nombres se esta cargando o si esta desactivado.
+     */
+    @Fluent
+    WikiDbService suggestPages(String prefix, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
     @Fluent
     WikiDbService fetchPageByName(String name, Handler<AsyncResult<JsonObject>> resultHandler);
 
     @Fluent
     WikiDbService createPage(String id, String name, Handler<AsyncResult<Void>> resultHandler);
 
+    /**
+     * Busca la pagina por nombre y, si no existe, la crea en la misma sentencia. Devuelve {"id": ..., "created": ...}
+     * con el id de la pagina que ya estaba o el de la nueva.
+     */
+    @Fluent
+    WikiDbService findOrCreatePage(String name, Handler<AsyncResult<JsonObject>> resultHandler);
+
     @Fluent
     WikiDbService savePage(String id, String content, Handler<AsyncResult<Void>> resultHandler);
 
     @Fluent
     WikiDbService deletePage(String id, Handler<AsyncResult<Void>> resultHandler);
 
+    /**
+     * Paginas de varios ids con una sola query, en el mismo orden que los ids. Las que no existen vienen como
+     * {"found": false, "id": ...}.
+     */
+    @Fluent
+    WikiDbService fetchPagesByIds(List<String> ids, Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Crea todas las paginas ({"id": ..., "name": ...}) en una transaccion, si falla una no se crea ninguna.
+     */
+    @Fluent
+    WikiDbService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler);
+
+    /**
+     * Guarda el contenido de todas las paginas ({"id": ..., "content": ...}) en una transaccion. Devuelve, en el mismo
+     * orden, si cada pagina existia.
+     */
+    @Fluent
+    WikiDbService savePages(List<JsonObject> pages, Handler<AsyncResult<List<Boolean>>> resultHandler);
+
+    /**
+     * Inserta en una transaccion paginas exportadas con exportPages, con sus fechas (si no vienen se usa la actual).
+     * Las que chocan por id o por nombre con una que ya existe se saltan, asi una importacion cortada se puede repetir.
+     * Devuelve cuantas se han insertado.
+     */
+    @Fluent
+    WikiDbService importPages(List<JsonObject> pages, Handler<AsyncResult<Integer>> resultHandler);
+
+    /**
+     * Borra todas las paginas en una transaccion. Devuelve, en el mismo orden que los ids, si cada pagina existia.
+     */
+    @Fluent
+    WikiDbService deletePages(List<String> ids, Handler<AsyncResult<List<Boolean>>> resultHandler);
+
+    /**
+     * Revisiones de la pagina de la mas nueva a la mas antigua, hasta limit anteriores a before (0 para empezar por la
+     * ultima). Cada una es {"revision": ..., "creation_date": ..., "snapshot": ..., "content_size": ...,
+     * "stored_size": ...} con los bytes del contenido completo y los que ocupa guardada, copia completa o delta.
+     */
+    @Fluent
+    WikiDbService fetchRevisions(String id, long before, int limit,
+                                 Handler<AsyncResult<List<JsonObject>>> resultHandler);
+
+    /**
+     * Contenido de una revision, {"found": ..., "id": ..., "revision": ..., "content": ..., "creation_date": ...}.
+     * Se reconstruye con la ultima copia completa anterior y los deltas que la siguen, como mucho
+     * wikidb.revisions.snapshot_interval filas.
+     */
+    @Fluent
+    WikiDbService fetchRevision(String id, long revision, Handler<AsyncResult<JsonObject>> resultHandler);
+
+    /**
+     * Diferencias entre dos revisiones en formato unificado, {"found": ..., "id": ..., "from": ..., "to": ...,
+     * "diff": ...}. La revision 0 es la pagina vacia.
+     */
+    @Fluent
+    WikiDbService diffRevisions(String id, long from, long to, Handler<AsyncResult<JsonObject>> resultHandler);
+
     @GenIgnore
-    static WikiDbService create(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDbService>> readyHandler) {
-        return new WikiDbServicePostgres(dbClient, sqlQueries, readyHandler);
+    static WikiDbService create(Vertx vertx, JdbcPool pool, HashMap<SqlQuery, String> sqlQueries,
+                                JsonObject config, Handler<AsyncResult<WikiDbService>> readyHandler) {
+        return new WikiDbServicePostgres(vertx, pool, sqlQueries, config, readyHandler);
+    }
+
+    @GenIgnore
+    static WikiDbService createReactive(Vertx vertx, PgPool pool, HashMap<SqlQuery, String> sqlQueries,
+                                        JsonObject config, Handler<AsyncResult<WikiDbService>> readyHandler) {
+        return new WikiDbServiceReactivePostgres(vertx, pool, sqlQueries, config, readyHandler);
     }
 
     @GenIgnore
     static WikiDbService createProxy(Vertx vertx, String address) {
         return new WikiDbServiceVertxEBProxy(vertx, address);
     }
+
+    /**
+     * Servicio registrado en este mismo Vert.x en la direccion indicada, para llamarlo sin pasar por el event bus.
+     * Devuelve null si el servicio no se ha desplegado aqui (por ejemplo si esta en otro nodo del cluster).
+     */
+    @GenIgnore
+    static WikiDbService createLocal(Vertx vertx, String address) {
+        return vertx.sharedData().<String, WikiDbServiceLocal>getLocalMap(DatabaseConstants.WIKIDB_LOCAL_SERVICES)
+                .get(address);
+    }
 }
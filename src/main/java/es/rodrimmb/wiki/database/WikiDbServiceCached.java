@@ -0,0 +1,388 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Decorador de WikiDbService que guarda en memoria las lecturas (paginas por id, el id de cada nombre y el listado
+ * completo) con un numero maximo de entradas y un tiempo de vida. Las escrituras invalidan lo que tocan y publican la
+ * invalidacion en el event bus para que el resto de caches (las de otras instancias y las de HttpServerVerticle) se
+ * mantengan coherentes.
+ */
+public final class WikiDbServiceCached implements WikiDbService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WikiDbServiceCached.class);
+
+    private static final class Cached<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Cached(final V value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Lru<V> extends LinkedHashMap<String, Cached<V>> {
+        private final int maxEntries;
+
+        private Lru(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Cached<V>> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    private final Vertx vertx;
+    private final WikiDbService delegate;
+    private final String invalidationsAddress;
+    private final int maxEntries;
+    private final long ttl;
+
+    private final Lru<JsonObject> pagesById;
+    private final Lru<String> idsByName;
+    private Cached<List<JsonObject>> allPages;
+
+    // Cada invalidacion incrementa la generacion, una lectura que empezo antes de una escritura no se guarda
+    private long generation;
+
+    public WikiDbServiceCached(final Vertx vertx, final WikiDbService delegate, final JsonObject config) {
+        this.vertx = vertx;
+        this.delegate = delegate;
+        this.invalidationsAddress = config.getString(CONFIG_WIKIDB_INVALIDATIONS_ADDRESS,
+                DEFAULT_CONFIG_WIKIDB_INVALIDATIONS_ADDRESS);
+        this.maxEntries = config.getBoolean(CONFIG_WIKIDB_CACHE_ENABLED, DEFAULT_CONFIG_WIKIDB_CACHE_ENABLED)
+                ? config.getInteger(CONFIG_WIKIDB_CACHE_MAX_ENTRIES, DEFAULT_CONFIG_WIKIDB_CACHE_MAX_ENTRIES)
+                : 0;
+        this.ttl = config.getLong(CONFIG_WIKIDB_CACHE_TTL, DEFAULT_CONFIG_WIKIDB_CACHE_TTL);
+        this.pagesById = new Lru<>(maxEntries);
+        this.idsByName = new Lru<>(maxEntries);
+
+        //Escuchamos tambien nuestras propias invalidaciones, invalidar dos veces no tiene efecto
+        vertx.eventBus().<JsonObject>consumer(invalidationsAddress, message -> invalidate(message.body()));
+    }
+
+    @Override
+    public WikiDbService fetchAllPages(final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        if(allPages != null && allPages.expiresAt > System.currentTimeMillis()) {
+            resultHandler.handle(Future.succeededFuture(copy(allPages.value)));
+            return this;
+        }
+        long startGeneration = generation;
+        delegate.fetchAllPages(reply -> {
+            if(reply.succeeded() && maxEntries > 0 && startGeneration == generation) {
+                allPages = new Cached<>(copy(reply.result()), System.currentTimeMillis() + ttl);
+            }
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPages(final String after, final int limit,
+                                    final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPages(after, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService streamPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.streamPages(address, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService exportPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.exportPages(address, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageById(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        JsonObject page = lookup(pagesById, id.toLowerCase());
+        if(page != null) {
+            resultHandler.handle(Future.succeededFuture(page.copy()));
+            return this;
+        }
+        long startGeneration = generation;
+        delegate.fetchPageById(id, reply -> {
+            if(reply.succeeded()) {
+                cachePage(startGeneration, id, null, reply.result());
+            }
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageVersion(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        //Si la pagina entera esta en la cache sus fechas tambien valen, si no se piden solo las fechas sin cachearlas
+        JsonObject page = lookup(pagesById, id.toLowerCase());
+        if(page == null) {
+            delegate.fetchPageVersion(id, resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(new JsonObject()
+                .put("found", true)
+                .put("id", page.getString("id"))
+                .put("creation_date", page.getString("creation_date"))
+                .put("update_date", page.getString("update_date"))
+                .put("delete_date", page.getString("delete_date"))));
+        return this;
+    }
+
+    @Override
+    public WikiDbService searchPages(final String query, final int limit,
+                                     final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        //El indice ya esta en memoria y se actualiza con cada escritura, no hay nada que cachear
+        delegate.searchPages(query, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService suggestPages(final String prefix, final int limit,
+                                      final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.suggestPages(prefix, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageByName(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        String id = lookup(idsByName, name.toLowerCase());
+        JsonObject page = id == null ? null : lookup(pagesById, id);
+        if(page != null) {
+            resultHandler.handle(Future.succeededFuture(page.copy()));
+            return this;
+        }
+        long startGeneration = generation;
+        delegate.fetchPageByName(name, reply -> {
+            if(reply.succeeded()) {
+                cachePage(startGeneration, reply.result().getString("id"), name, reply.result());
+            }
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPage(final String id, final String name,
+                                    final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPage(id, name, reply -> {
+            publishInvalidation(id, name.toLowerCase(), true);
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService findOrCreatePage(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        //Si la pagina esta en cache existe y no hace falta ir a la DB. Solo con el nombre no basta, al borrar una
+        //pagina no se invalida su nombre
+        String id = lookup(idsByName, name.toLowerCase());
+        if(id != null && lookup(pagesById, id) != null) {
+            resultHandler.handle(Future.succeededFuture(new JsonObject().put("id", id).put("created", false)));
+            return this;
+        }
+        delegate.findOrCreatePage(name, reply -> {
+            if(reply.failed() || reply.result().getBoolean("created")) {
+                publishInvalidation(reply.succeeded() ? reply.result().getString("id") : null, name.toLowerCase(), true);
+            }
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePage(final String id, final String content,
+                                  final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.savePage(id, content, reply -> {
+            publishInvalidation(id, null, false);
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePage(final String id, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.deletePage(id, reply -> {
+            publishInvalidation(id, null, true);
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPagesByIds(final List<String> ids,
+                                         final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        //Solo pedimos a la DB las que no estan en cache
+        Map<String, JsonObject> cached = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for(String id : ids) {
+            JsonObject page = lookup(pagesById, id.toLowerCase());
+            if(page != null) {
+                cached.put(id.toLowerCase(), page.copy());
+            } else {
+                missing.add(id);
+            }
+        }
+        if(missing.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(ids.stream()
+                    .map(id -> cached.get(id.toLowerCase()))
+                    .collect(Collectors.toList())));
+            return this;
+        }
+        long startGeneration = generation;
+        delegate.fetchPagesByIds(missing, reply -> {
+            if(reply.failed()) {
+                resultHandler.handle(reply);
+                return;
+            }
+            for(JsonObject page : reply.result()) {
+                cachePage(startGeneration, page.getString("id"), null, page);
+                cached.put(page.getString("id").toLowerCase(), page);
+            }
+            resultHandler.handle(Future.succeededFuture(ids.stream()
+                    .map(id -> cached.get(id.toLowerCase()))
+                    .collect(Collectors.toList())));
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPages(final List<JsonObject> pages, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPages(pages, reply -> {
+            pages.forEach(page -> publishInvalidation(page.getString("id"), page.getString("name").toLowerCase(), true));
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePages(final List<JsonObject> pages,
+                                   final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        delegate.savePages(pages, reply -> {
+            pages.forEach(page -> publishInvalidation(page.getString("id"), null, false));
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService importPages(final List<JsonObject> pages, final Handler<AsyncResult<Integer>> resultHandler) {
+        //Solo se insertan paginas nuevas y las que no existen no se cachean, basta con invalidar el listado una vez
+        delegate.importPages(pages, reply -> {
+            publishInvalidation(null, null, true);
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePages(final List<String> ids, final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        delegate.deletePages(ids, reply -> {
+            ids.forEach(id -> publishInvalidation(id, null, true));
+            resultHandler.handle(reply);
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevisions(final String id, final long before, final int limit,
+                                        final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.fetchRevisions(id, before, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevision(final String id, final long revision,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchRevision(id, revision, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService diffRevisions(final String id, final long from, final long to,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.diffRevisions(id, from, to, resultHandler);
+        return this;
+    }
+
+    private <V> V lookup(final Lru<V> cache, final String key) {
+        Cached<V> entry = cache.get(key);
+        if(entry == null) {
+            return null;
+        }
+        if(entry.expiresAt <= System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /*
+     * Solo se guardan las paginas encontradas, las que no existen se pueden crear desde otra instancia y no tenemos
+     * forma de saber su id para invalidar la entrada por nombre
+     */
+    private void cachePage(final long startGeneration, final String id, final String name, final JsonObject page) {
+        if(maxEntries == 0 || startGeneration != generation || !page.getBoolean("found", false)) {
+            return;
+        }
+        long expiresAt = System.currentTimeMillis() + ttl;
+        //Los ids y los nombres se guardan en minusculas, una pagina se puede pedir con otras mayusculas
+        pagesById.put(id.toLowerCase(), new Cached<>(page.copy(), expiresAt));
+        if(name != null) {
+            idsByName.put(name.toLowerCase(), new Cached<>(id.toLowerCase(), expiresAt));
+        }
+    }
+
+    /*
+     * El mensaje lleva el id de la pagina, el nombre si es una pagina nueva y si cambia el listado de paginas. Se
+     * invalida aunque la escritura haya fallado, no sabemos si la DB llego a aplicar el cambio
+     */
+    private void publishInvalidation(final String id, final String name, final boolean listing) {
+        JsonObject invalidation = new JsonObject()
+                .put("id", id)
+                .put("listing", listing);
+        if(name != null) {
+            invalidation.put("name", name);
+        }
+        invalidate(invalidation);
+        vertx.eventBus().publish(invalidationsAddress, invalidation);
+    }
+
+    private void invalidate(final JsonObject invalidation) {
+        generation++;
+        if(invalidation.getString("id") != null) {
+            pagesById.remove(invalidation.getString("id").toLowerCase());
+        }
+        if(invalidation.getString("name") != null) {
+            idsByName.remove(invalidation.getString("name").toLowerCase());
+        }
+        if(invalidation.getBoolean("listing", true)) {
+            allPages = null;
+        }
+        LOG.debug("Invalidada la cache para {}", invalidation.encode());
+    }
+
+    private static List<JsonObject> copy(final List<JsonObject> pages) {
+        return pages.stream().map(JsonObject::copy).collect(Collectors.toList());
+    }
+}
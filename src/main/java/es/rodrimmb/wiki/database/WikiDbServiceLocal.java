@@ -0,0 +1,281 @@
+package es.rodrimmb.wiki.database;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/*
+ * Acceso directo a WikiDbService para los verticles del mismo Vert.x, sin pasar por el event bus: no se codifica ni
+ * se copia ningun mensaje. El servicio no es thread safe (la cache vive en el event loop de WikiDbVerticle), asi que
+ * cada llamada se ejecuta en el contexto del servicio y la respuesta vuelve al contexto de quien llamo. Los argumentos
+ * y los resultados no se copian, quien llama no debe modificarlos despues. Como estas llamadas no pasan por el event
+ * bus, las llamadas pendientes y atendidas se publican aparte con el address del servicio como tag
+ *
+ * Cada instancia de WikiDbVerticle se añade con register() a la misma WikiDbServiceLocal, que reparte las llamadas
+ * entre ellas por turnos como hace el event bus con los consumidores de una misma direccion
+ */
+public final class WikiDbServiceLocal implements WikiDbService, Shareable {
+
+    // Instancia de WikiDbVerticle: el servicio y el contexto en el que hay que llamarlo
+    private static final class Target {
+        private final Context context;
+        private final WikiDbService service;
+
+        private Target(final Context context, final WikiDbService service) {
+            this.context = context;
+            this.service = service;
+        }
+    }
+
+    // Solo se reemplaza entero (en register y unregister), quien llama siempre ve un array completo
+    private volatile Target[] targets = new Target[0];
+    private final AtomicInteger next = new AtomicInteger();
+    private final MeterRegistry registry;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Gauge pendingGauge;
+    private final Counter handled;
+
+    private WikiDbServiceLocal(final String address) {
+        this.registry = Metrics.registry();
+        this.pendingGauge = Gauge.builder("wiki.db.local.pending", pending, AtomicInteger::get)
+                .tag("address", address)
+                .register(registry);
+        this.handled = Counter.builder("wiki.db.local.handled")
+                .tag("address", address)
+                .register(registry);
+    }
+
+    // Añade el servicio de una instancia de WikiDbVerticle a los de su direccion en el LocalMap WIKIDB_LOCAL_SERVICES
+    public static synchronized void register(final Vertx vertx, final String address, final Context context,
+                                             final WikiDbService service) {
+        LocalMap<String, WikiDbServiceLocal> services =
+                vertx.sharedData().getLocalMap(DatabaseConstants.WIKIDB_LOCAL_SERVICES);
+        WikiDbServiceLocal local = services.get(address);
+        if(local == null) {
+            local = new WikiDbServiceLocal(address);
+            services.put(address, local);
+        }
+        Target[] targets = Arrays.copyOf(local.targets, local.targets.length + 1);
+        targets[targets.length - 1] = new Target(context, service);
+        local.targets = targets;
+    }
+
+    // Quita el servicio que registro la instancia de ese contexto, con el ultimo se quitan tambien sus metricas
+    public static synchronized void unregister(final Vertx vertx, final String address, final Context context) {
+        LocalMap<String, WikiDbServiceLocal> services =
+                vertx.sharedData().getLocalMap(DatabaseConstants.WIKIDB_LOCAL_SERVICES);
+        WikiDbServiceLocal local = services.get(address);
+        if(local == null) {
+            return;
+        }
+        local.targets = Arrays.stream(local.targets)
+                .filter(target -> target.context != context)
+                .toArray(Target[]::new);
+        if(local.targets.length == 0) {
+            services.remove(address);
+            local.registry.remove(local.pendingGauge);
+            local.registry.remove(local.handled);
+        }
+    }
+
+    @Override
+    public WikiDbService fetchAllPages(final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        call(resultHandler, WikiDbService::fetchAllPages);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPages(final String after, final int limit,
+                                    final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchPages(after, limit, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService streamPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.streamPages(address, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService exportPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.exportPages(address, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageById(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchPageById(id, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageVersion(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchPageVersion(id, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService searchPages(final String query, final int limit,
+                                     final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.searchPages(query, limit, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService suggestPages(final String prefix, final int limit,
+                                      final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.suggestPages(prefix, limit, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageByName(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchPageByName(name, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPage(final String id, final String name,
+                                    final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.createPage(id, name, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService findOrCreatePage(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.findOrCreatePage(name, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePage(final String id, final String content,
+                                  final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.savePage(id, content, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePage(final String id, final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.deletePage(id, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPagesByIds(final List<String> ids,
+                                         final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchPagesByIds(ids, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPages(final List<JsonObject> pages, final Handler<AsyncResult<Void>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.createPages(pages, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePages(final List<JsonObject> pages,
+                                   final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.savePages(pages, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService importPages(final List<JsonObject> pages, final Handler<AsyncResult<Integer>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.importPages(pages, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePages(final List<String> ids,
+                                     final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.deletePages(ids, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevisions(final String id, final long before, final int limit,
+                                        final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchRevisions(id, before, limit, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevision(final String id, final long revision,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.fetchRevision(id, revision, handler));
+        return this;
+    }
+
+    @Override
+    public WikiDbService diffRevisions(final String id, final long from, final long to,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        call(resultHandler, (service, handler) -> service.diffRevisions(id, from, to, handler));
+        return this;
+    }
+
+    /*
+     * Si ya estamos en el contexto de una de las instancias se llama directamente, sin encolar nada. Si no, se elige la
+     * siguiente por turnos. Como con el proxy, un fallo al lanzar la llamada llega como resultado fallido
+     */
+    private <T> void call(final Handler<AsyncResult<T>> resultHandler,
+                          final BiConsumer<WikiDbService, Handler<AsyncResult<T>>> method) {
+        Context caller = Vertx.currentContext();
+        Target target = target(caller);
+        if(target == null) {
+            resultHandler.handle(Future.failedFuture("No local WikiDbService instances"));
+            return;
+        }
+        Context context = target.context;
+        pending.incrementAndGet();
+        Handler<AsyncResult<T>> reply = result -> {
+            pending.decrementAndGet();
+            handled.increment();
+            if(caller == null || caller == context) {
+                resultHandler.handle(result);
+            } else {
+                caller.runOnContext(v -> resultHandler.handle(result));
+            }
+        };
+        if(caller == context) {
+            invoke(target.service, method, reply);
+        } else {
+            context.runOnContext(v -> invoke(target.service, method, reply));
+        }
+    }
+
+    private Target target(final Context caller) {
+        Target[] current = targets;
+        for(Target target : current) {
+            if(target.context == caller) {
+                return target;
+            }
+        }
+        return current.length == 0 ? null : current[Math.floorMod(next.getAndIncrement(), current.length)];
+    }
+
+    private static <T> void invoke(final WikiDbService service,
+                                   final BiConsumer<WikiDbService, Handler<AsyncResult<T>>> method,
+                                   final Handler<AsyncResult<T>> reply) {
+        try {
+            method.accept(service, reply);
+        } catch(RuntimeException e) {
+            reply.handle(Future.failedFuture(e));
+        }
+    }
+}
@@ -3,200 +3,263 @@ package es.rodrimmb.wiki.database;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLOptions;
+import io.vertx.ext.sql.SQLRowStream;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
-public final class WikiDbServicePostgres implements WikiDbService {
+/*
+ * WikiDbService sobre vertx-jdbc-client. Cada sentencia se ejecuta con JDBC bloqueante en el pool de workers, sirve
+ * para cualquier DB con driver JDBC (los tests usan HSQLDB). Las conexiones salen de JdbcPool y se devuelven siempre
+ * con pool.close(connection)
+ */
+public final class WikiDbServicePostgres extends AbstractWikiDbService {
 
     private static final Logger LOG = LoggerFactory.getLogger(WikiDbServicePostgres.class);
 
-    private final HashMap<SqlQuery, String> sqlQueries;
-    private final JDBCClient dbClient;
+    // Sin esto el driver de Postgres añade RETURNING * a cada UPDATE para devolver claves que no usamos
+    private static final SQLOptions UPDATE_OPTIONS = new SQLOptions().setAutoGeneratedKeys(false);
 
-    public WikiDbServicePostgres(final JDBCClient dbClient, final HashMap<SqlQuery, String> sqlQueries,
+    private final JdbcPool pool;
+    private final SqlSession session = new JdbcSession();
+
+    public WikiDbServicePostgres(final Vertx vertx, final JdbcPool pool,
+                                 final HashMap<SqlQuery, String> sqlQueries, final JsonObject config,
                                  final Handler<AsyncResult<WikiDbService>> readyHandler) {
-        this.dbClient = dbClient;
-        this.sqlQueries = sqlQueries;
-
-        dbClient.getConnection(asyncResult -> {
-            if(asyncResult.succeeded()) {
-                //Creamos la tabla que vamos a usar si no existe
-                SQLConnection connection = asyncResult.result();
-                connection.execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create -> {
-                    connection.close();
-                    if (create.failed()) {
-                        LOG.error("Fallo al prapara la DB", create.cause());
-                        readyHandler.handle(Future.failedFuture(asyncResult.cause()));
-                    } else {
-                        LOG.info("Preparacion correcto de la DB");
-                        readyHandler.handle(Future.succeededFuture(this));
-                    }
-                });
-            } else {
-                LOG.error("No se ha podido abrir la conexion a la DB", asyncResult.cause());
-                readyHandler.handle(Future.failedFuture(asyncResult.cause()));
-            }
-        });
+        super(vertx, sqlQueries, config);
+        this.pool = pool;
+        prepareDatabase(readyHandler);
     }
 
     @Override
-    public WikiDbService fetchAllPages(final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
-        dbClient.query(sqlQueries.get(SqlQuery.ALL_PAGES), result -> {
-            if(result.succeeded()) {
-                List<JsonObject> pages = result.result()
-                        .getResults()
-                        .stream()
-                        .map(json -> new JsonObject()
-                                .put("id", json.getString(0))
-                                .put("name", json.getString(1))
-                        ).collect(Collectors.toList());
-                resultHandler.handle(Future.succeededFuture(pages));
-            } else {
-                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.ALL_PAGES), result.cause());
-                resultHandler.handle(Future.failedFuture(result.cause()));
-            }
-        });
-        return this;
+    protected SqlSession session() {
+        return session;
     }
 
     @Override
-    public WikiDbService fetchPageById(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
-        String sqlQuery = sqlQueries.get(SqlQuery.GET_PAGE_BY_ID);
-        JsonArray params = new JsonArray().add(id);
-        dbClient.queryWithParams(sqlQuery, params, query -> {
-            if(query.succeeded()) {
-                Optional<JsonArray> rowOpt = query.result().getResults().stream().findFirst();
-                JsonObject response = new JsonObject();
-                if(rowOpt.isPresent()) {
-                    JsonArray row = rowOpt.get();
-                    response.put("found", true);
-                    response.put("id", row.getString(0));
-                    response.put("name", row.getString(1));
-                    response.put("content", row.getString(2));
-                    response.put("creation_date", row.getString(3));
-                    response.put("update_date", row.getString(4));
-                    response.put("delete_date", row.getString(5));
-                } else {
-                    response.put("found", false);
+    protected Future<SqlCursor> openCursor(final String sql, final int fetchSize) {
+        return connection().compose(connection -> {
+            Promise<SqlCursor> promise = Promise.promise();
+            //Postgres solo usa un cursor (y respeta el fetch size) dentro de una transaccion, si no trae todo el
+            //resultado a memoria en la primera lectura
+            connection.setAutoCommit(false, autoCommit -> {
+                if(autoCommit.failed()) {
+                    pool.close(connection);
+                    promise.fail(autoCommit.cause());
+                    return;
                 }
-                resultHandler.handle(Future.succeededFuture(response));
-            } else {
-                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGE_BY_ID), query.cause());
-                resultHandler.handle(Future.failedFuture(query.cause()));
-            }
+                connection.setOptions(new SQLOptions().setFetchSize(fetchSize));
+                connection.queryStream(sql, query -> {
+                    if(query.failed()) {
+                        pool.close(connection);
+                        promise.fail(query.cause());
+                    } else {
+                        promise.complete(new JdbcCursor(query.result(), connection, pool));
+                    }
+                });
+            });
+            return promise.future();
         });
-        return this;
     }
 
     @Override
-    public WikiDbService fetchPageByName(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
-        String sqlQuery = sqlQueries.get(SqlQuery.GET_PAGE_BY_NAME);
-        JsonArray params = new JsonArray().add(name);
-        dbClient.queryWithParams(sqlQuery, params, query -> {
-            if(query.succeeded()) {
-                Optional<JsonArray> rowOpt = query.result().getResults().stream().findFirst();
-                JsonObject response = new JsonObject();
-                if(rowOpt.isPresent()) {
-                    JsonArray row = rowOpt.get();
-                    response.put("found", true);
-                    response.put("id", row.getString(0));
-                    response.put("name", row.getString(1));
-                    response.put("content", row.getString(2));
-                    response.put("creation_date", row.getString(3));
-                    response.put("update_date", row.getString(4));
-                    response.put("delete_date", row.getString(5));
-                } else {
-                    response.put("found", false);
-                }
-                resultHandler.handle(Future.succeededFuture(response));
-            } else {
-                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.GET_PAGE_BY_NAME), query.cause());
-                resultHandler.handle(Future.failedFuture(query.cause()));
-            }
+    protected <T> Future<T> inTransaction(final Function<SqlSession, Future<T>> work) {
+        return withConnection(connection -> {
+            Promise<Void> begin = Promise.promise();
+            connection.setAutoCommit(false, begin);
+            return begin.future()
+                    .compose(started -> work.apply(new ConnectionSession(connection)))
+                    .compose(result -> {
+                        Promise<Void> commit = Promise.promise();
+                        connection.commit(commit);
+                        return commit.future().map(result);
+                    }, error -> {
+                        Promise<T> rollback = Promise.promise();
+                        connection.rollback(rolledBack -> rollback.fail(error));
+                        return rollback.future();
+                    });
         });
-        return this;
     }
 
-    @Override
-    public WikiDbService createPage(final String id, final String name,
-                                    final Handler<AsyncResult<Void>> resultHandler) {
-        String sqlQuery = sqlQueries.get(SqlQuery.CREATE_PAGE);
-        String creationDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
-        JsonArray params = new JsonArray()
-                .add(id)
-                .add(name.toLowerCase())
-                .add(creationDate);
-
-        dbClient.updateWithParams(sqlQuery, params, update -> {
-            if(update.succeeded()) {
-                resultHandler.handle(Future.succeededFuture());
-            } else {
-                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.CREATE_PAGE), update.cause());
-                resultHandler.handle(Future.failedFuture(update.cause()));
+    private Future<SQLConnection> connection() {
+        Promise<SQLConnection> promise = Promise.promise();
+        pool.getConnection(asyncResult -> {
+            if(asyncResult.failed()) {
+                LOG.error("No se ha podido abrir la conexion a la DB", asyncResult.cause());
             }
+            promise.handle(asyncResult);
         });
-        return this;
+        return promise.future();
     }
 
-    @Override
-    public WikiDbService savePage(final String id, final String content,
-                                  final Handler<AsyncResult<Void>> resultHandler) {
-        String updateDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
-        JsonArray params = new JsonArray()
-                .add(content)
-                .add(updateDate)
-                .add(id);
-
-        dbClient.updateWithParams(sqlQueries.get(SqlQuery.UPDATE_PAGE), params, update -> {
-            if(update.succeeded()) {
-                resultHandler.handle(Future.succeededFuture());
-            } else {
-                LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.UPDATE_PAGE), update.cause());
-                resultHandler.handle(Future.failedFuture(update.cause()));
-            }
-        });
-        return this;
+    // Ejecuta work con una conexion del pool y la devuelve al acabar, vaya bien o mal
+    private <T> Future<T> withConnection(final Function<SQLConnection, Future<T>> work) {
+        return connection().compose(connection -> work.apply(connection)
+                .onComplete(done -> pool.close(connection)));
     }
 
-    @Override
-    public WikiDbService deletePage(final String id, final Handler<AsyncResult<Void>> resultHandler) {
-        fetchPageById(id, pageToDelete -> {
-            if(pageToDelete.succeeded()) {
-                JsonObject json = pageToDelete.result();
-
-                LocalDateTime now = LocalDateTime.now();
-                String name = json.getString("name") + "_deleted_"+now.hashCode();
-                String deleteDate = now.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"));
-
-                JsonArray params = new JsonArray()
-                        .add(name)
-                        .add(deleteDate)
-                        .add(id);
-
-                dbClient.updateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), params, update -> {
-                    if(update.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture());
-                    } else {
-                        LOG.error("Error al ejecutar query {}", sqlQueries.get(SqlQuery.DELETE_PAGE), update.cause());
-                        resultHandler.handle(Future.failedFuture(update.cause()));
-                    }
-                });
-            } else {
-                LOG.error("Error al intentar obtener la pagina a borrar con id {}", id);
-                resultHandler.handle(Future.failedFuture(pageToDelete.cause()));
+    /*
+     * Cada sentencia con su propia conexion del pool, el batch en una transaccion
+     */
+    private final class JdbcSession implements SqlSession {
+
+        @Override
+        public Future<Void> execute(final String sql) {
+            return withConnection(connection -> new ConnectionSession(connection).execute(sql));
+        }
+
+        @Override
+        public Future<List<JsonArray>> query(final String sql, final JsonArray params) {
+            return withConnection(connection -> new ConnectionSession(connection).query(sql, params));
+        }
+
+        @Override
+        public Future<Integer> update(final String sql, final JsonArray params) {
+            return withConnection(connection -> new ConnectionSession(connection).update(sql, params));
+        }
+
+        @Override
+        public Future<List<Integer>> batch(final String sql, final List<JsonArray> params) {
+            return inTransaction(transaction -> transaction.batch(sql, params));
+        }
+    }
+
+    /*
+     * Todas las sentencias sobre la misma conexion, sin abrirla ni cerrarla
+     */
+    private static final class ConnectionSession implements SqlSession {
+
+        private final SQLConnection connection;
+
+        private ConnectionSession(final SQLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Future<Void> execute(final String sql) {
+            Promise<Void> promise = Promise.promise();
+            connection.execute(sql, promise);
+            return promise.future();
+        }
+
+        @Override
+        public Future<List<JsonArray>> query(final String sql, final JsonArray params) {
+            Promise<List<JsonArray>> promise = Promise.promise();
+            connection.queryWithParams(sql, params, query -> {
+                if(query.succeeded()) {
+                    promise.complete(query.result().getResults());
+                } else {
+                    promise.fail(query.cause());
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        public Future<Integer> update(final String sql, final JsonArray params) {
+            Promise<Integer> promise = Promise.promise();
+            connection.setOptions(UPDATE_OPTIONS);
+            connection.updateWithParams(sql, params, update -> {
+                if(update.succeeded()) {
+                    promise.complete(update.result().getUpdated());
+                } else {
+                    promise.fail(update.cause());
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        public Future<List<Integer>> batch(final String sql, final List<JsonArray> params) {
+            Promise<List<Integer>> promise = Promise.promise();
+            connection.batchWithParams(sql, params, promise);
+            return promise.future();
+        }
+    }
+
+    /*
+     * Adapta el SQLRowStream de JDBC a SqlCursor, la conexion se devuelve al pool cuando el stream termina, falla o se
+     * cierra
+     */
+    private static final class JdbcCursor implements SqlCursor {
+
+        private final SQLRowStream stream;
+        private final SQLConnection connection;
+        private final JdbcPool pool;
+        private boolean released;
+
+        private JdbcCursor(final SQLRowStream stream, final SQLConnection connection, final JdbcPool pool) {
+            this.stream = stream;
+            this.connection = connection;
+            this.pool = pool;
+        }
+
+        @Override
+        public SqlCursor exceptionHandler(final Handler<Throwable> handler) {
+            stream.exceptionHandler(error -> {
+                release();
+                if(handler != null) {
+                    handler.handle(error);
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public SqlCursor handler(final Handler<JsonArray> handler) {
+            stream.handler(handler);
+            return this;
+        }
+
+        @Override
+        public SqlCursor pause() {
+            stream.pause();
+            return this;
+        }
+
+        @Override
+        public SqlCursor resume() {
+            stream.resume();
+            return this;
+        }
+
+        @Override
+        public SqlCursor fetch(final long amount) {
+            stream.fetch(amount);
+            return this;
+        }
+
+        @Override
+        public SqlCursor endHandler(final Handler<Void> endHandler) {
+            stream.endHandler(end -> {
+                release();
+                if(endHandler != null) {
+                    endHandler.handle(end);
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public void close() {
+            stream.close(closed -> release());
+        }
+
+        // El stream puede acabar y cerrarse, la conexion solo se devuelve una vez
+        private void release() {
+            if(!released) {
+                released = true;
+                pool.close(connection);
             }
-        });
-        return this;
+        }
     }
 }
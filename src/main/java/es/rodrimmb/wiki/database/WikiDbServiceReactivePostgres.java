@@ -0,0 +1,396 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.RowStream;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * WikiDbService sobre el cliente reactivo de Postgres. Las conexiones del pool viven en el event loop del verticle que
+ * lo crea y las sentencias sueltas se reparten entre unas pocas conexiones fijas, por las que se mandan en pipeline
+ * (hasta wikidb.pg.pipelining_limit) sin esperar la respuesta de la anterior, asi que no pasa nada por el pool de
+ * workers. Las transacciones y los cursores cogen su propia conexion del pool. Solo sirve para Postgres, los tests con
+ * HSQLDB siguen usando WikiDbServicePostgres
+ */
+public final class WikiDbServiceReactivePostgres extends AbstractWikiDbService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WikiDbServiceReactivePostgres.class);
+
+    private final PgPool pool;
+    private final SqlSession session;
+    // Las queries se escriben con ? como en JDBC, las traducimos a $n una sola vez
+    private final Map<String, String> statements = new ConcurrentHashMap<>();
+    // Conexiones fijas de las sentencias sueltas, null hasta que se abren o despues de cerrarse
+    private final List<Future<SqlConnection>> pinned;
+    private int nextPinned;
+
+    public WikiDbServiceReactivePostgres(final Vertx vertx, final PgPool pool,
+                                         final HashMap<SqlQuery, String> sqlQueries, final JsonObject config,
+                                         final Handler<AsyncResult<WikiDbService>> readyHandler) {
+        super(vertx, sqlQueries, config);
+        this.pool = pool;
+        this.session = new PgSession(pool);
+        //Siempre queda al menos una conexion del pool para las transacciones y los cursores
+        int maxPoolSize = config.getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, DEFAULT_CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE);
+        int pinnedConnections = Math.min(maxPoolSize - 1, config.getInteger(CONFIG_WIKIDB_PG_PIPELINED_CONNECTIONS,
+                DEFAULT_CONFIG_WIKIDB_PG_PIPELINED_CONNECTIONS));
+        this.pinned = new ArrayList<>(Collections.nCopies(Math.max(1, pinnedConnections), null));
+        prepareDatabase(readyHandler);
+    }
+
+    @Override
+    protected SqlSession session() {
+        return session;
+    }
+
+    @Override
+    protected Future<SqlCursor> openCursor(final String sql, final int fetchSize) {
+        Promise<SqlCursor> promise = Promise.promise();
+        pool.getConnection(asyncResult -> {
+            if(asyncResult.failed()) {
+                LOG.error("No se ha podido abrir la conexion a la DB", asyncResult.cause());
+                promise.fail(asyncResult.cause());
+                return;
+            }
+            SqlConnection connection = asyncResult.result();
+            //Igual que con JDBC, el cursor solo existe dentro de una transaccion
+            Transaction transaction = connection.begin();
+            transaction.prepare(statement(sql), prepare -> {
+                if(prepare.failed()) {
+                    connection.close();
+                    promise.fail(prepare.cause());
+                } else {
+                    RowStream<Row> stream = prepare.result().createStream(fetchSize, Tuple.tuple());
+                    promise.complete(new PgCursor(stream, transaction, connection));
+                }
+            });
+        });
+        return promise.future();
+    }
+
+    private String statement(final String sql) {
+        return statements.computeIfAbsent(sql, WikiDbServiceReactivePostgres::toPgPlaceholders);
+    }
+
+    /*
+     * Cambia cada ? fuera de un literal por $1, $2... El cliente reactivo no convierte tipos como JDBC, los uuid(?) se
+     * quedan en uuid($n::text) para poder pasarle el id como String
+     */
+    private static String toPgPlaceholders(final String sql) {
+        StringBuilder pgSql = new StringBuilder(sql.length() + 16);
+        boolean inLiteral = false;
+        int param = 0;
+        for(int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(c == '\'') {
+                inLiteral = !inLiteral;
+            }
+            if(c != '?' || inLiteral) {
+                pgSql.append(c);
+                continue;
+            }
+            boolean uuid = pgSql.length() >= 5 && pgSql.substring(pgSql.length() - 5).equalsIgnoreCase("uuid(");
+            pgSql.append('$').append(++param);
+            if(uuid) {
+                pgSql.append("::text");
+            }
+        }
+        return pgSql.toString();
+    }
+
+    private static Tuple toTuple(final JsonArray params) {
+        Tuple tuple = Tuple.tuple();
+        for(Object param : params) {
+            if(param instanceof Integer) {
+                //Los LIMIT ? son int8 para Postgres
+                tuple.addValue(((Integer) param).longValue());
+            } else if(param instanceof byte[]) {
+                tuple.addValue(Buffer.buffer((byte[]) param));
+            } else {
+                tuple.addValue(param);
+            }
+        }
+        return tuple;
+    }
+
+    /*
+     * Devolvemos las filas con los mismos tipos que vertx-jdbc-client para que AbstractWikiDbService no distinga entre
+     * implementaciones: UUID como String, fechas en ISO con zona UTC y bytea como byte[]
+     */
+    private static JsonArray toJsonArray(final Row row) {
+        JsonArray json = new JsonArray();
+        for(int i = 0; i < row.size(); i++) {
+            Object value = row.getValue(i);
+            if(value instanceof UUID) {
+                json.add(value.toString());
+            } else if(value instanceof LocalDateTime) {
+                json.add(((LocalDateTime) value).atZone(ZoneId.systemDefault())
+                        .withZoneSameInstant(ZoneOffset.UTC)
+                        .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            } else if(value instanceof OffsetDateTime) {
+                json.add(((OffsetDateTime) value).withOffsetSameInstant(ZoneOffset.UTC)
+                        .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+            } else if(value instanceof Buffer) {
+                json.add(((Buffer) value).getBytes());
+            } else {
+                json.add(value);
+            }
+        }
+        return json;
+    }
+
+    @Override
+    protected <T> Future<T> inTransaction(final Function<SqlSession, Future<T>> work) {
+        Promise<T> promise = Promise.promise();
+        pool.begin(begin -> {
+            if(begin.failed()) {
+                LOG.error("No se ha podido abrir la conexion a la DB", begin.cause());
+                promise.fail(begin.cause());
+                return;
+            }
+            Transaction transaction = begin.result();
+            work.apply(new PgSession(transaction)).onComplete(result -> {
+                if(result.succeeded()) {
+                    transaction.commit(commit -> promise.handle(commit.map(result.result())));
+                } else {
+                    //Si ha fallado una sentencia el cliente ya ha deshecho la transaccion y rollback() no hace nada
+                    transaction.rollback();
+                    promise.fail(result.cause());
+                }
+            });
+        });
+        return promise.future();
+    }
+
+    /*
+     * En vertx-pg-client 3.9.0 una preparedQuery sobre el pool prepara la sentencia en una conexion y la ejecuta en la
+     * que le vuelva a dar el pool. Con la cache de sentencias, si hay varias conexiones ocupadas puede mandar el nombre
+     * de una sentencia que en esa conexion no existe o es otra query distinta. Por eso las sentencias sueltas se
+     * preparan y ejecutan en una de las conexiones fijas, por turnos. Las que coinciden en la misma conexion van en
+     * pipeline, sin una conexion del pool para cada una
+     */
+    private <T> Future<T> withConnection(final Function<SqlClient, Future<T>> work) {
+        return pinnedConnection().compose(connection -> work.apply(connection));
+    }
+
+    /*
+     * Siguiente conexion fija, se abre la primera vez que se usa. Si no se ha podido abrir o el servidor la cierra se
+     * abre otra en la siguiente sentencia que le toque
+     */
+    private Future<SqlConnection> pinnedConnection() {
+        int slot = nextPinned;
+        nextPinned = (nextPinned + 1) % pinned.size();
+        Future<SqlConnection> connection = pinned.get(slot);
+        if(connection != null && !connection.failed()) {
+            return connection;
+        }
+        Promise<SqlConnection> promise = Promise.promise();
+        Future<SqlConnection> opened = promise.future();
+        pinned.set(slot, opened);
+        pool.getConnection(asyncResult -> {
+            if(asyncResult.failed()) {
+                LOG.error("No se ha podido abrir la conexion a la DB", asyncResult.cause());
+            } else {
+                asyncResult.result().closeHandler(closed -> {
+                    if(pinned.get(slot) == opened) {
+                        pinned.set(slot, null);
+                    }
+                });
+            }
+            promise.handle(asyncResult);
+        });
+        return opened;
+    }
+
+    /*
+     * Sentencias sobre el pool (en las conexiones fijas) o sobre una transaccion. Un batch fuera de una transaccion
+     * abre una, executeBatch manda todas sus sentencias en pipeline por esa conexion
+     */
+    private final class PgSession implements SqlSession {
+
+        private final SqlClient client;
+
+        private PgSession(final SqlClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public Future<Void> execute(final String sql) {
+            Promise<Void> promise = Promise.promise();
+            client.query(sql).execute(result -> {
+                if(result.succeeded()) {
+                    promise.complete();
+                } else {
+                    promise.fail(result.cause());
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        public Future<List<JsonArray>> query(final String sql, final JsonArray params) {
+            if(client == pool) {
+                return withConnection(connection -> new PgSession(connection).query(sql, params));
+            }
+            Promise<List<JsonArray>> promise = Promise.promise();
+            client.preparedQuery(statement(sql)).execute(toTuple(params), query -> {
+                if(query.succeeded()) {
+                    List<JsonArray> rows = new ArrayList<>(query.result().size());
+                    query.result().forEach(row -> rows.add(toJsonArray(row)));
+                    promise.complete(rows);
+                } else {
+                    promise.fail(query.cause());
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        public Future<Integer> update(final String sql, final JsonArray params) {
+            if(client == pool) {
+                return withConnection(connection -> new PgSession(connection).update(sql, params));
+            }
+            Promise<Integer> promise = Promise.promise();
+            client.preparedQuery(statement(sql)).execute(toTuple(params), update -> {
+                if(update.succeeded()) {
+                    promise.complete(update.result().rowCount());
+                } else {
+                    promise.fail(update.cause());
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        public Future<List<Integer>> batch(final String sql, final List<JsonArray> params) {
+            if(client == pool) {
+                return inTransaction(transaction -> transaction.batch(sql, params));
+            }
+            Promise<List<Integer>> promise = Promise.promise();
+            List<Tuple> batch = params.stream()
+                    .map(WikiDbServiceReactivePostgres::toTuple)
+                    .collect(Collectors.toList());
+            client.preparedQuery(statement(sql)).executeBatch(batch, update -> {
+                if(update.failed()) {
+                    promise.fail(update.cause());
+                    return;
+                }
+                //Cada sentencia del batch deja su resultado encadenado al anterior
+                List<Integer> updated = new ArrayList<>(batch.size());
+                for(RowSet<Row> rows = update.result(); rows != null; rows = rows.next()) {
+                    updated.add(rows.rowCount());
+                }
+                promise.complete(updated);
+            });
+            return promise.future();
+        }
+    }
+
+    /*
+     * Adapta el RowStream del cliente reactivo a SqlCursor. Al terminar, fallar o cerrarse se deshace la transaccion
+     * (solo ha leido) y se devuelve la conexion al pool
+     */
+    private static final class PgCursor implements SqlCursor {
+
+        private final RowStream<Row> stream;
+        private final Transaction transaction;
+        private final SqlConnection connection;
+        private boolean released;
+
+        private PgCursor(final RowStream<Row> stream, final Transaction transaction, final SqlConnection connection) {
+            this.stream = stream;
+            this.transaction = transaction;
+            this.connection = connection;
+        }
+
+        // El stream puede acabar y cerrarse, la conexion solo se devuelve una vez
+        private void release() {
+            if(!released) {
+                released = true;
+                transaction.rollback(rollback -> connection.close());
+            }
+        }
+
+        @Override
+        public SqlCursor exceptionHandler(final Handler<Throwable> handler) {
+            stream.exceptionHandler(error -> {
+                release();
+                if(handler != null) {
+                    handler.handle(error);
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public SqlCursor handler(final Handler<JsonArray> handler) {
+            stream.handler(handler == null ? null : row -> handler.handle(toJsonArray(row)));
+            return this;
+        }
+
+        @Override
+        public SqlCursor pause() {
+            stream.pause();
+            return this;
+        }
+
+        @Override
+        public SqlCursor resume() {
+            stream.resume();
+            return this;
+        }
+
+        @Override
+        public SqlCursor fetch(final long amount) {
+            stream.fetch(amount);
+            return this;
+        }
+
+        @Override
+        public SqlCursor endHandler(final Handler<Void> endHandler) {
+            stream.endHandler(end -> {
+                release();
+                if(endHandler != null) {
+                    endHandler.handle(end);
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public void close() {
+            stream.close(closed -> release());
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package es.rodrimmb.wiki.database;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.*;
+
+/*
+ * Decorador de WikiDbService que no escribe cada savePage en la DB: el contenido se queda en un WriteBehindBuffer y
+ * se responde en el momento. Los guardados de la misma pagina dentro de la ventana se quedan en uno y al cerrarse la
+ * ventana se escriben todos juntos con savePages. Las lecturas de una pagina (por id, por nombre, por ids y su
+ * version) ven el contenido pendiente, los listados, la busqueda y las revisiones solo cuando ya esta escrito. Si la
+ * escritura en bloque falla los guardados se escriben uno a uno. Si la DB esta caida no se pierde nada: se reintenta
+ * cada vez mas espaciado hasta que vuelva y mientras tanto savePage falla, igual que con el buffer lleno. Solo se
+ * descarta el guardado que la DB rechaza WriteBehindBuffer.MAX_ATTEMPTS veces estando disponible, o el de una pagina
+ * que ya no existe
+ */
+public final class WikiDbServiceWriteBehind implements WikiDbService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WikiDbServiceWriteBehind.class);
+
+    // Cada cuanto se mira si otra instancia ha terminado de escribir mientras se vacia el buffer al parar
+    private static final long CLOSE_POLL_INTERVAL = 10;
+
+    // Espera maxima entre reintentos con la DB caida, se dobla la ventana en cada escritura fallida hasta llegar a ella
+    private static final long MAX_RETRY_DELAY = 10000;
+
+    private final Vertx vertx;
+    private final WikiDbService delegate;
+    private final long window;
+    private final int maxPending;
+    private final long closeTimeout;
+    private final WriteBehindBuffer buffer;
+    private final Counter buffered;
+    private final Counter written;
+    private final Counter dropped;
+
+    public WikiDbServiceWriteBehind(final Vertx vertx, final WikiDbService delegate, final JsonObject config) {
+        this.vertx = vertx;
+        this.delegate = delegate;
+        this.window = config.getLong(CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_WINDOW);
+        this.maxPending = config.getInteger(CONFIG_WIKIDB_WRITE_BEHIND_MAX_PENDING,
+                DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_MAX_PENDING);
+        this.closeTimeout = config.getLong(CONFIG_WIKIDB_WRITE_BEHIND_CLOSE_TIMEOUT,
+                DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_CLOSE_TIMEOUT);
+        this.buffer = sharedBuffer(vertx, config.getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL));
+        //La diferencia entre los guardados recibidos y los escritos es lo que se ahorra la DB
+        MeterRegistry registry = Metrics.registry();
+        this.buffered = Counter.builder("wiki.writebehind.saves").tag("stage", "buffered").register(registry);
+        this.written = Counter.builder("wiki.writebehind.saves").tag("stage", "written").register(registry);
+        this.dropped = Counter.builder("wiki.writebehind.saves").tag("stage", "dropped").register(registry);
+    }
+
+    /*
+     * Un buffer por DB para todas las instancias de WikiDbVerticle, igual que el indice de busqueda. La instancia que
+     * lo crea registra el gauge de guardados pendientes
+     */
+    private static WriteBehindBuffer sharedBuffer(final Vertx vertx, final String databaseUrl) {
+        WriteBehindBuffer buffer = new WriteBehindBuffer();
+        WriteBehindBuffer shared = vertx.sharedData()
+                .<String, WriteBehindBuffer>getLocalMap(WIKIDB_WRITE_BEHIND_BUFFERS)
+                .putIfAbsent(databaseUrl, buffer);
+        if(shared != null) {
+            return shared;
+        }
+        MeterRegistry registry = Metrics.registry();
+        registry.find("wiki.writebehind.pending").meters().forEach(registry::remove);
+        Gauge.builder("wiki.writebehind.pending", buffer, WriteBehindBuffer::size).register(registry);
+        return buffer;
+    }
+
+    @Override
+    public WikiDbService fetchAllPages(final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.fetchAllPages(resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPages(final String after, final int limit,
+                                    final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPages(after, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService streamPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.streamPages(address, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService exportPages(final String address, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.exportPages(address, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageById(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPageById(id, reply -> resultHandler.handle(reply.map(this::overlay)));
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageVersion(final String id, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPageVersion(id, reply -> resultHandler.handle(reply.map(this::overlay)));
+        return this;
+    }
+
+    @Override
+    public WikiDbService searchPages(final String query, final int limit,
+                                     final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.searchPages(query, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService suggestPages(final String prefix, final int limit,
+                                      final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.suggestPages(prefix, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPageByName(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPageByName(name, reply -> resultHandler.handle(reply.map(this::overlay)));
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPage(final String id, final String name,
+                                    final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPage(id, name, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService findOrCreatePage(final String name, final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.findOrCreatePage(name, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePage(final String id, final String content,
+                                  final Handler<AsyncResult<Void>> resultHandler) {
+        //Un id que la DB no acepta haria fallar la escritura de toda la ventana, se rechaza antes de guardarlo
+        if(!isPageId(id)) {
+            resultHandler.handle(Future.failedFuture("Invalid page id " + id));
+            return this;
+        }
+        //Con la DB caida o el buffer lleno no se puede prometer que el guardado llegue a escribirse
+        if(!buffer.accepts(id.toLowerCase(), maxPending)) {
+            resultHandler.handle(Future.failedFuture(buffer.outages() > 0
+                    ? "Database unavailable, pending saves are being retried"
+                    : "Too many pending saves, the limit is " + maxPending));
+            return this;
+        }
+        //Misma precision que las fechas que devuelve la DB
+        String updateDate = Instant.now().truncatedTo(ChronoUnit.MICROS).toString();
+        buffered.increment();
+        if(buffer.add(id.toLowerCase(), content, updateDate)) {
+            vertx.setTimer(window, timer -> flush());
+        }
+        resultHandler.handle(Future.succeededFuture());
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePage(final String id, final Handler<AsyncResult<Void>> resultHandler) {
+        buffer.discard(Collections.singletonList(id.toLowerCase()));
+        delegate.deletePage(id, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchPagesByIds(final List<String> ids,
+                                         final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.fetchPagesByIds(ids, reply -> resultHandler.handle(reply.map(pages -> pages.stream()
+                .map(this::overlay)
+                .collect(Collectors.toList()))));
+        return this;
+    }
+
+    @Override
+    public WikiDbService createPages(final List<JsonObject> pages, final Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPages(pages, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService savePages(final List<JsonObject> pages,
+                                   final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        //Un guardado en bloque va directo a la DB y es mas nuevo que lo que hubiera pendiente de esas paginas
+        buffer.discard(pages.stream().map(page -> page.getString("id").toLowerCase()).collect(Collectors.toList()));
+        delegate.savePages(pages, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService importPages(final List<JsonObject> pages, final Handler<AsyncResult<Integer>> resultHandler) {
+        //Solo se insertan paginas nuevas, no hay guardados pendientes que puedan chocar
+        delegate.importPages(pages, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService deletePages(final List<String> ids, final Handler<AsyncResult<List<Boolean>>> resultHandler) {
+        buffer.discard(ids.stream().map(String::toLowerCase).collect(Collectors.toList()));
+        delegate.deletePages(ids, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevisions(final String id, final long before, final int limit,
+                                        final Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.fetchRevisions(id, before, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService fetchRevision(final String id, final long revision,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchRevision(id, revision, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDbService diffRevisions(final String id, final long from, final long to,
+                                       final Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.diffRevisions(id, from, to, resultHandler);
+        return this;
+    }
+
+    /*
+     * Escribe todo lo pendiente antes de parar la instancia. Si otra instancia esta escribiendo se espera a que
+     * termine, y si la DB no esta disponible se reintenta hasta closeTimeout. Lo que no se ha podido escribir para
+     * entonces se descarta avisando en el log
+     */
+    public Future<Void> close() {
+        Promise<Void> promise = Promise.promise();
+        closeFlush(System.currentTimeMillis() + closeTimeout, promise);
+        return promise.future();
+    }
+
+    private void closeFlush(final long deadline, final Promise<Void> promise) {
+        List<JsonObject> pages = buffer.drain(MAX_BATCH_SIZE);
+        if(pages.isEmpty()) {
+            if(buffer.isFlushing()) {
+                vertx.setTimer(CLOSE_POLL_INTERVAL, timer -> closeFlush(deadline, promise));
+            } else {
+                promise.complete();
+            }
+            return;
+        }
+        write(pages).compose(failed -> done(failed, System.currentTimeMillis() < deadline)).onComplete(done -> {
+            long wait = Math.min(retryDelay(), deadline - System.currentTimeMillis());
+            if(buffer.outages() > 0 && wait > 0) {
+                vertx.setTimer(wait, timer -> closeFlush(deadline, promise));
+            } else {
+                closeFlush(deadline, promise);
+            }
+        });
+    }
+
+    /*
+     * Escribe hasta MAX_BATCH_SIZE guardados pendientes. Los que no se han podido escribir vuelven a pendientes para
+     * la siguiente escritura, que se retrasa mientras la DB siga caida
+     */
+    private void flush() {
+        List<JsonObject> pages = buffer.drain(MAX_BATCH_SIZE);
+        if(pages.isEmpty()) {
+            return;
+        }
+        write(pages).compose(failed -> done(failed, true)).onComplete(done -> {
+            if(buffer.scheduleNext()) {
+                vertx.setTimer(retryDelay(), timer -> flush());
+            }
+        });
+    }
+
+    /*
+     * Termina la escritura en curso. Si algo ha fallado se comprueba si la DB responde: si no responde la escritura ha
+     * fallado por la caida y no cuenta como intento de esos guardados
+     */
+    private Future<Void> done(final List<String> failed, final boolean requeue) {
+        if(failed.isEmpty()) {
+            buffer.done(failed, false, requeue);
+            return Future.succeededFuture();
+        }
+        Promise<Void> promise = Promise.promise();
+        delegate.fetchPages(null, 1, probe -> {
+            if(probe.failed()) {
+                LOG.warn("La DB no esta disponible, se reintentan {} guardados pendientes", failed.size());
+            }
+            drop(buffer.done(failed, probe.failed(), requeue));
+            promise.complete();
+        });
+        return promise.future();
+    }
+
+    // La ventana, o mientras la DB sigue caida el doble por cada escritura fallida hasta MAX_RETRY_DELAY
+    private long retryDelay() {
+        int outages = buffer.outages();
+        if(outages == 0) {
+            return window;
+        }
+        return Math.max(window, Math.min(window << Math.min(outages, 20), MAX_RETRY_DELAY));
+    }
+
+    /*
+     * Escribe los guardados en una transaccion. Si falla se escriben uno a uno, asi una pagina que la DB no acepta no
+     * impide guardar las demas. Nunca falla, devuelve los ids que no se han podido escribir. Los de paginas que ya no
+     * existen no se escriben pero tampoco se devuelven, no tiene sentido reintentarlos
+     */
+    private Future<List<String>> write(final List<JsonObject> pages) {
+        Promise<List<String>> promise = Promise.promise();
+        delegate.savePages(pages, reply -> {
+            if(reply.succeeded()) {
+                List<String> missing = new ArrayList<>();
+                for(int i = 0; i < pages.size(); i++) {
+                    if(!reply.result().get(i)) {
+                        missing.add(pages.get(i).getString("id"));
+                    }
+                }
+                written.increment(pages.size() - missing.size());
+                LOG.debug("Escritos {} guardados pendientes", pages.size() - missing.size());
+                if(!missing.isEmpty()) {
+                    dropped.increment(missing.size());
+                    LOG.warn("Se descartan los guardados pendientes de {} paginas que ya no existen: {}",
+                            missing.size(), missing);
+                }
+                promise.complete(Collections.emptyList());
+            } else if(pages.size() == 1) {
+                LOG.error("No se ha podido escribir el guardado pendiente de la pagina {}",
+                        pages.get(0).getString("id"), reply.cause());
+                promise.complete(Collections.singletonList(pages.get(0).getString("id")));
+            } else {
+                LOG.warn("No se han podido escribir {} guardados pendientes juntos, se escriben uno a uno",
+                        pages.size(), reply.cause());
+                List<Future<List<String>>> singles = pages.stream()
+                        .map(page -> write(Collections.singletonList(page)))
+                        .collect(Collectors.toList());
+                CompositeFuture.all(new ArrayList<>(singles))
+                        .map(all -> singles.stream()
+                                .flatMap(single -> single.result().stream())
+                                .collect(Collectors.toList()))
+                        .onComplete(promise);
+            }
+        });
+        return promise.future();
+    }
+
+    private void drop(final List<String> ids) {
+        if(!ids.isEmpty()) {
+            dropped.increment(ids.size());
+            LOG.error("Se descartan los guardados pendientes de {} paginas que no se han podido escribir: {}",
+                    ids.size(), ids);
+        }
+    }
+
+    // Los ids de pagina son UUID en su forma canonica, que es lo que acepta la DB
+    private static boolean isPageId(final String id) {
+        try {
+            return id != null && UUID.fromString(id).toString().equalsIgnoreCase(id);
+        } catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * El contenido pendiente reemplaza al de la DB. El HTML guardado ya no corresponde al contenido, se quita para que
+     * se vuelva a generar, y la fecha de actualizacion es la del guardado para que cambie la version de la pagina
+     */
+    private JsonObject overlay(final JsonObject page) {
+        if(page == null || !page.getBoolean("found", false)) {
+            return page;
+        }
+        WriteBehindBuffer.Save save = buffer.get(page.getString("id").toLowerCase());
+        if(save == null) {
+            return page;
+        }
+        JsonObject overlaid = page.copy().put("update_date", save.updateDate);
+        if(page.containsKey("content")) {
+            overlaid.put("content", save.content).putNull("html");
+        }
+        return overlaid;
+    }
+}
@@ -1,9 +1,15 @@
 package es.rodrimmb.wiki.database;
 
+import es.rodrimmb.wiki.metrics.Metrics;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.PoolOptions;
 import io.vertx.serviceproxy.ServiceBinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,31 +28,78 @@ public final class WikiDbVerticle extends AbstractVerticle {
 
     public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
 
-    private JDBCClient dbClient;
+    private JdbcPool jdbcPool;
+    private PgPool pgPool;
+    private WikiDbServiceWriteBehind writeBehind;
 
     @Override
     public void start(final Promise<Void> promise) throws Exception {
+        Metrics.monitorEventLoop(vertx);
         JsonObject config = new JsonObject()
                 .put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, DEFAULT_CONFIG_WIKIDB_JDBC_URL))
                 .put("user", config().getString(CONFIG_WIKIDB_JDBC_USER, DEFAULT_CONFIG_WIKIDB_JDBC_USER))
                 .put("password", config().getString(CONFIG_WIKIDB_JDBC_PASSWORD, DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD))
-                .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER, DEFAULT_CONFIG_WIKIDB_JDBC_DRIVER))
                 .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, DEFAULT_CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE));
 
         HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
 
-        dbClient = JDBCClient.createShared(vertx, config);
-
-        WikiDbService.create(dbClient, sqlQueries, ready -> {
+        Handler<AsyncResult<WikiDbService>> readyHandler = ready -> {
             if(ready.succeeded()) {
+                WikiDbService service = new WikiDbServiceCached(vertx, ready.result(), config());
+                //Por encima de la cache, asi al escribir los guardados pendientes se invalidan como cualquier otro
+                if(config().getBoolean(CONFIG_WIKIDB_WRITE_BEHIND_ENABLED,
+                        DEFAULT_CONFIG_WIKIDB_WRITE_BEHIND_ENABLED)) {
+                    writeBehind = new WikiDbServiceWriteBehind(vertx, service, config());
+                    service = writeBehind;
+                }
                 ServiceBinder binder = new ServiceBinder(vertx);
                 binder
                         .setAddress(CONFIG_WIKIDB_QUEUE)
-                        .register(WikiDbService.class, ready.result());
+                        .register(WikiDbService.class, service);
+                //Los verticles de este mismo Vert.x pueden llamarlo directamente, el proxy queda para los remotos
+                WikiDbServiceLocal.register(vertx, CONFIG_WIKIDB_QUEUE, context, service);
                 promise.complete();
             } else {
                 promise.fail(ready.cause());
             }
+        };
+
+        String client = config().getString(CONFIG_WIKIDB_CLIENT, DEFAULT_CONFIG_WIKIDB_CLIENT);
+        if(WIKIDB_CLIENT_REACTIVE.equals(client)) {
+            //El pool se crea desde start() para que sus conexiones queden en el event loop de este verticle
+            PgConnectOptions connectOptions = PgConnectOptions.fromUri(config.getString("url").replaceFirst("^jdbc:", ""))
+                    .setUser(config.getString("user"))
+                    .setPassword(config.getString("password"))
+                    //Sin la cache cada query vuelve a preparar la sentencia en el servidor
+                    .setCachePreparedStatements(true)
+                    .setPipeliningLimit(config().getInteger(CONFIG_WIKIDB_PG_PIPELINING_LIMIT,
+                            DEFAULT_CONFIG_WIKIDB_PG_PIPELINING_LIMIT));
+            PoolOptions poolOptions = new PoolOptions().setMaxSize(config.getInteger("max_pool_size"));
+            pgPool = PgPool.pool(vertx, connectOptions, poolOptions);
+            LOG.info("Usando el cliente reactivo de Postgres con {}", connectOptions.getHost());
+            WikiDbService.createReactive(vertx, pgPool, sqlQueries, config(), readyHandler);
+        } else if(WIKIDB_CLIENT_JDBC.equals(client)) {
+            jdbcPool = JdbcPool.create(vertx, config());
+            WikiDbService.create(vertx, jdbcPool, sqlQueries, config(), readyHandler);
+        } else {
+            promise.fail(new IllegalArgumentException("Cliente de DB desconocido: " + client));
+        }
+    }
+
+    @Override
+    public void stop(final Promise<Void> promise) {
+        WikiDbServiceLocal.unregister(vertx, CONFIG_WIKIDB_QUEUE, context);
+        //Los guardados pendientes se escriben antes de cerrar los pools
+        Future<Void> flushed = writeBehind != null ? writeBehind.close() : Future.succeededFuture();
+        flushed.onComplete(flush -> {
+            //No esperamos a que se cierren las conexiones para no retrasar el undeploy
+            if(pgPool != null) {
+                pgPool.close();
+            }
+            if(jdbcPool != null) {
+                jdbcPool.close();
+            }
+            promise.complete();
         });
     }
 
@@ -68,12 +121,34 @@ public final class WikiDbVerticle extends AbstractVerticle {
 
         HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
         sqlQueries.put(SqlQuery.CREATE_PAGES_TABLE, queriesProps.getProperty("create-pages-table"));
+        sqlQueries.put(SqlQuery.ADD_HTML_COLUMN, queriesProps.getProperty("add-html-column"));
+        sqlQueries.put(SqlQuery.ADD_CONTENT_DEFLATE_COLUMN, queriesProps.getProperty("add-content-deflate-column"));
+        sqlQueries.put(SqlQuery.CREATE_PAGES_NAME_INDEX, queriesProps.getProperty("create-pages-name-index"));
+        sqlQueries.put(SqlQuery.CREATE_REVISIONS_TABLE, queriesProps.getProperty("create-revisions-table"));
+        sqlQueries.put(SqlQuery.CREATE_REVISIONS_SNAPSHOT_INDEX,
+                queriesProps.getProperty("create-revisions-snapshot-index"));
         sqlQueries.put(SqlQuery.ALL_PAGES, queriesProps.getProperty("all-pages"));
+        sqlQueries.put(SqlQuery.PAGES_AFTER, queriesProps.getProperty("pages-after"));
         sqlQueries.put(SqlQuery.GET_PAGE_BY_NAME, queriesProps.getProperty("get-page-by-name"));
         sqlQueries.put(SqlQuery.GET_PAGE_BY_ID, queriesProps.getProperty("get-page-by-id"));
+        sqlQueries.put(SqlQuery.GET_PAGES_BY_IDS, queriesProps.getProperty("get-pages-by-ids"));
+        sqlQueries.put(SqlQuery.GET_PAGE_VERSION, queriesProps.getProperty("get-page-version"));
+        sqlQueries.put(SqlQuery.SEARCH_INDEX_PAGES, queriesProps.getProperty("search-index-pages"));
+        sqlQueries.put(SqlQuery.EXPORT_PAGES, queriesProps.getProperty("export-pages"));
         sqlQueries.put(SqlQuery.CREATE_PAGE, queriesProps.getProperty("create-page"));
+        sqlQueries.put(SqlQuery.FIND_OR_CREATE_PAGE, queriesProps.getProperty("find-or-create-page"));
+        sqlQueries.put(SqlQuery.IMPORT_PAGE, queriesProps.getProperty("import-page"));
         sqlQueries.put(SqlQuery.UPDATE_PAGE, queriesProps.getProperty("save-page"));
         sqlQueries.put(SqlQuery.DELETE_PAGE, queriesProps.getProperty("delete-page"));
+        sqlQueries.put(SqlQuery.PAGES_WITHOUT_HTML, queriesProps.getProperty("pages-without-html"));
+        sqlQueries.put(SqlQuery.SAVE_PAGE_HTML, queriesProps.getProperty("save-page-html"));
+        sqlQueries.put(SqlQuery.PAGES_TO_COMPRESS, queriesProps.getProperty("pages-to-compress"));
+        sqlQueries.put(SqlQuery.COMPRESS_PAGE_CONTENT, queriesProps.getProperty("compress-page-content"));
+        sqlQueries.put(SqlQuery.LOCK_PAGES_FOR_REVISION, queriesProps.getProperty("lock-pages-for-revision"));
+        sqlQueries.put(SqlQuery.REVISION_HEADS, queriesProps.getProperty("revision-heads"));
+        sqlQueries.put(SqlQuery.CREATE_REVISION, queriesProps.getProperty("create-revision"));
+        sqlQueries.put(SqlQuery.PAGE_REVISIONS, queriesProps.getProperty("page-revisions"));
+        sqlQueries.put(SqlQuery.REVISION_CHAIN, queriesProps.getProperty("revision-chain"));
         return sqlQueries;
     }
 
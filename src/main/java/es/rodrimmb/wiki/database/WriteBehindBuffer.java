@@ -0,0 +1,146 @@
+package es.rodrimmb.wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Guardados de paginas pendientes de escribir en la DB, por id. Un guardado nuevo de la misma pagina reemplaza al
+ * anterior, asi que en la DB solo se escribe el ultimo contenido de cada ventana. Lo comparten todas las instancias de
+ * WikiDbVerticle del mismo Vert.x (se llama desde varios event loops, por eso todo es synchronized) para que cualquier
+ * lectura del nodo vea los guardados pendientes, y solo una de ellas escribe a la vez. Un guardado que la DB rechaza
+ * MAX_ATTEMPTS veces estando disponible se descarta, asi una pagina que la DB no acepta no se queda pendiente. Si la
+ * escritura falla porque la DB no esta disponible no cuenta como intento: se reintenta hasta que vuelva
+ */
+final class WriteBehindBuffer implements Shareable {
+
+    static final int MAX_ATTEMPTS = 3;
+
+    static final class Save {
+        final String content;
+        final String updateDate;
+        // Escrituras que la DB ha rechazado con este contenido
+        private final int failures;
+
+        private Save(final String content, final String updateDate, final int failures) {
+            this.content = content;
+            this.updateDate = updateDate;
+            this.failures = failures;
+        }
+    }
+
+    private final Map<String, Save> pending = new LinkedHashMap<>();
+    // Los que se estan escribiendo, siguen siendo visibles hasta que la DB confirma la escritura
+    private final Map<String, Save> inFlight = new HashMap<>();
+    private boolean scheduled;
+    private boolean flushing;
+    // Escrituras seguidas que han fallado con la DB caida, mientras no es cero el buffer no acepta guardados nuevos
+    private int outages;
+
+    // Devuelve true si quien añade tiene que programar la escritura, solo hay una programada a la vez
+    synchronized boolean add(final String id, final String content, final String updateDate) {
+        pending.remove(id);
+        pending.put(id, new Save(content, updateDate, 0));
+        if(scheduled || flushing) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    /*
+     * Si se puede aceptar un guardado de la pagina: la DB no esta caida y no hay ya maxPending guardados, salvo que
+     * la pagina ya tenga uno pendiente y solo se reemplace
+     */
+    synchronized boolean accepts(final String id, final int maxPending) {
+        return outages == 0 && (size() < maxPending || pending.containsKey(id));
+    }
+
+    synchronized Save get(final String id) {
+        Save save = pending.get(id);
+        return save != null ? save : inFlight.get(id);
+    }
+
+    // Olvida los guardados pendientes de esas paginas, los que ya se estan escribiendo no se pueden cancelar
+    synchronized void discard(final Collection<String> ids) {
+        ids.forEach(pending::remove);
+        //Sin nada que escribir no hay escritura que confirme que la DB ha vuelto
+        if(pending.isEmpty() && !flushing) {
+            outages = 0;
+        }
+    }
+
+    /*
+     * Saca hasta limit guardados en el formato de savePages ({"id": ..., "content": ...}). Si ya hay una escritura en
+     * curso devuelve una lista vacia, al terminar esa escritura scheduleNext() avisa de que queda algo pendiente
+     */
+    synchronized List<JsonObject> drain(final int limit) {
+        List<JsonObject> pages = new ArrayList<>();
+        if(flushing) {
+            return pages;
+        }
+        scheduled = false;
+        Iterator<Map.Entry<String, Save>> entries = pending.entrySet().iterator();
+        while(entries.hasNext() && pages.size() < limit) {
+            Map.Entry<String, Save> entry = entries.next();
+            inFlight.put(entry.getKey(), entry.getValue());
+            pages.add(new JsonObject().put("id", entry.getKey()).put("content", entry.getValue().content));
+            entries.remove();
+        }
+        flushing = !pages.isEmpty();
+        return pages;
+    }
+
+    /*
+     * Termina la escritura en curso, failed son los ids que no se han podido escribir y outage si la DB no estaba
+     * disponible. Si requeue es true vuelven a pendientes, salvo los que ya tienen un guardado mas nuevo o la DB ha
+     * rechazado MAX_ATTEMPTS veces. Devuelve los ids de los guardados que se descartan
+     */
+    synchronized List<String> done(final Collection<String> failed, final boolean outage, final boolean requeue) {
+        List<String> dropped = new ArrayList<>();
+        for(String id : failed) {
+            Save save = inFlight.get(id);
+            if(save == null || pending.containsKey(id)) {
+                continue;
+            }
+            int failures = outage ? save.failures : save.failures + 1;
+            if(requeue && failures < MAX_ATTEMPTS) {
+                pending.put(id, new Save(save.content, save.updateDate, failures));
+            } else {
+                dropped.add(id);
+            }
+        }
+        inFlight.clear();
+        flushing = false;
+        outages = outage && !pending.isEmpty() ? outages + 1 : 0;
+        return dropped;
+    }
+
+    // Devuelve true si queda algo pendiente y quien llama tiene que programar la siguiente escritura
+    synchronized boolean scheduleNext() {
+        if(pending.isEmpty() || scheduled || flushing) {
+            return false;
+        }
+        scheduled = true;
+        return true;
+    }
+
+    synchronized int outages() {
+        return outages;
+    }
+
+    synchronized boolean isFlushing() {
+        return flushing;
+    }
+
+    synchronized int size() {
+        return pending.size() + inFlight.size();
+    }
+}
@@ -0,0 +1,115 @@
+package es.rodrimmb.wiki.http;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.search.Search;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/*
+ * Control de admision de las rutas que van a la DB. Antes de pasar la peticion a su handler se pide sitio a un
+ * ConcurrencyLimit y, si no lo hay, se responde al momento con un 503 y Retry-After en vez de dejar que la peticion
+ * espere en la cola del event bus o del pool de conexiones. La latencia de cada peticion admitida ajusta el limite.
+ * Hay uno para lecturas y otro para escrituras, cada uno compartido por todas las instancias de HttpServerVerticle
+ * en el LocalMap HTTP_ADMISSION_LIMITS. Su limite, las peticiones en curso y las rechazadas se publican en las metricas
+ * con el tag kind
+ */
+final class AdmissionControl {
+
+    static final String READS = "read";
+    static final String WRITES = "write";
+
+    static final String HTTP_ADMISSION_LIMITS = "http.admission.limits";
+
+    // Datos del RoutingContext con el sitio que ocupa la peticion, se mantienen si la peticion se redirige con reroute
+    private static final String ADMISSION_RELEASE = "admission.release";
+    private static final String ADMISSION_START = "admission.start";
+
+    private final String kind;
+    private final ConcurrencyLimit limit;
+    private final long retryAfter;
+    private final boolean enabled;
+    private final Counter rejected;
+
+    AdmissionControl(final Vertx vertx, final String kind, final ConcurrencyLimit limit, final long retryAfterSeconds,
+                     final boolean enabled) {
+        this.kind = kind;
+        this.limit = shared(vertx, kind, limit);
+        this.retryAfter = retryAfterSeconds;
+        this.enabled = enabled;
+        this.rejected = Counter.builder("wiki.http.admission.rejected").tag("kind", kind)
+                .register(Metrics.registry());
+    }
+
+    // La instancia que crea el limite registra sus gauges, quitando antes los de un Vert.x anterior
+    private static ConcurrencyLimit shared(final Vertx vertx, final String kind, final ConcurrencyLimit limit) {
+        ConcurrencyLimit shared = vertx.sharedData().<String, ConcurrencyLimit>getLocalMap(HTTP_ADMISSION_LIMITS)
+                .putIfAbsent(kind, limit);
+        if(shared != null) {
+            return shared;
+        }
+        MeterRegistry registry = Metrics.registry();
+        for(String name : new String[] {"wiki.http.admission.limit", "wiki.http.admission.in_flight"}) {
+            Search.in(registry).name(name).tag("kind", kind).meters().forEach(registry::remove);
+        }
+        Gauge.builder("wiki.http.admission.limit", limit, ConcurrencyLimit::limit).tag("kind", kind)
+                .register(registry);
+        Gauge.builder("wiki.http.admission.in_flight", limit, ConcurrencyLimit::inFlight).tag("kind", kind)
+                .register(registry);
+        return limit;
+    }
+
+    /*
+     * Envuelve el handler de una ruta. La peticion ocupa su sitio hasta que se termina de escribir la respuesta o se
+     * cierra la conexion, lo que pase antes. Una peticion redirigida con reroute (POST /create a /wiki/:id) sigue con
+     * el sitio que ya tenia, no pide otro
+     */
+    Handler<RoutingContext> admit(final Handler<RoutingContext> handler) {
+        if(!enabled) {
+            return handler;
+        }
+        return context -> {
+            Handler<Long> held = context.get(ADMISSION_RELEASE);
+            if(held != null) {
+                //reroute quita los bodyEndHandler, hay que volver a ponerlo para que el sitio se libere
+                releaseOnEnd(context, held, context.get(ADMISSION_START));
+                handler.handle(context);
+                return;
+            }
+            if(!limit.tryAcquire()) {
+                rejected.increment();
+                context.response()
+                        .setStatusCode(503)
+                        .putHeader("Retry-After", String.valueOf(retryAfter))
+                        .putHeader("Content-Type", "application/json")
+                        .end(new JsonObject()
+                                .put("success", false)
+                                .put("error", "Too many " + kind + " requests in progress, retry later")
+                                .put("limit", limit.limit())
+                                .encode());
+                return;
+            }
+            long start = System.nanoTime();
+            boolean[] released = new boolean[1];
+            Handler<Long> release = latency -> {
+                if(!released[0]) {
+                    released[0] = true;
+                    limit.release(latency);
+                }
+            };
+            context.put(ADMISSION_RELEASE, release);
+            context.put(ADMISSION_START, start);
+            releaseOnEnd(context, release, start);
+            handler.handle(context);
+        };
+    }
+
+    private static void releaseOnEnd(final RoutingContext context, final Handler<Long> release, final long start) {
+        context.addBodyEndHandler(end -> release.handle(System.nanoTime() - start));
+        context.response().closeHandler(closed -> release.handle(-1L));
+    }
+}
@@ -0,0 +1,71 @@
+package es.rodrimmb.wiki.http;
+
+import io.vertx.core.shareddata.Shareable;
+
+/*
+ * Limite de peticiones en curso que se ajusta con la latencia observada (AIMD): una peticion que tarda mas que
+ * targetLatency reduce el limite un 10% y, mientras no las hay, el limite sube de uno en uno cada vez que se llega a
+ * usar al menos la mitad. Como mucho se reduce una vez por cada targetLatency, las peticiones lentas que terminan a la
+ * vez son sintoma de la misma ralentizacion y no deben llevar el limite al minimo de golpe. Asi cuando la DB se
+ * ralentiza el limite baja hasta lo que es capaz de atender y cuando se recupera vuelve a subir. Lo comparten todas
+ * las instancias de HttpServerVerticle (varios event loops), por eso todo es synchronized
+ */
+final class ConcurrencyLimit implements Shareable {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatency;
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    ConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit, final long targetLatencyMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = targetLatencyMillis * 1_000_000;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecrease = System.nanoTime() - targetLatency;
+    }
+
+    // Devuelve false si ya hay tantas peticiones en curso como permite el limite, la peticion se rechaza
+    synchronized boolean tryAcquire() {
+        if(inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /*
+     * Termina una peticion admitida. latencyNanos es lo que ha tardado, o -1 si no hay una latencia que valga como
+     * muestra (el cliente cerro la conexion antes de la respuesta)
+     */
+    void release(final long latencyNanos) {
+        release(latencyNanos, System.nanoTime());
+    }
+
+    // now es System.nanoTime() al terminar la peticion
+    synchronized void release(final long latencyNanos, final long now) {
+        if(latencyNanos >= 0) {
+            if(latencyNanos > targetLatency) {
+                if(now - lastDecrease >= targetLatency) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecrease = now;
+                }
+            } else if(inFlight * 2 >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+        }
+        inFlight--;
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+}
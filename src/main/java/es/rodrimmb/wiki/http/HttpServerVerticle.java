@@ -1,23 +1,58 @@
 package es.rodrimmb.wiki.http;
 
 import com.github.rjeschke.txtmark.Processor;
+import es.rodrimmb.wiki.database.ErrorCodes;
 import es.rodrimmb.wiki.database.WikiDbService;
+import es.rodrimmb.wiki.database.WikiDbServiceLocal;
+import es.rodrimmb.wiki.metrics.Metrics;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JksOptions;
+import io.vertx.core.parsetools.RecordParser;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.templ.freemarker.FreeMarkerTemplateEngine;
+import io.vertx.micrometer.PrometheusScrapingHandler;
+import io.vertx.serviceproxy.ServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static es.rodrimmb.wiki.database.DatabaseConstants.CONFIG_WIKIDB_INVALIDATIONS_ADDRESS;
+import static es.rodrimmb.wiki.database.DatabaseConstants.DEFAULT_CONFIG_WIKIDB_INVALIDATIONS_ADDRESS;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_BATCH_SIZE;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_IMPORT_BATCH_SIZE;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_PAGES_LIMIT;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_REVISIONS_LIMIT;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_SEARCH_LIMIT;
+import static es.rodrimmb.wiki.database.DatabaseConstants.MAX_SUGGEST_LIMIT;
 
 public final class HttpServerVerticle extends AbstractVerticle {
 
@@ -26,44 +61,166 @@ public final class HttpServerVerticle extends AbstractVerticle {
     // Parametros de configuracion del Verticle
     public static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
     public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+    public static final String CONFIG_MARKDOWN_CACHE_MAX_BYTES = "http.markdown.cache.max_bytes";
+    public static final String CONFIG_WIKIDB_LOCAL = "wikidb.local";
+    public static final String CONFIG_MARKDOWN_RENDER_POOL_SIZE = "http.markdown.render.pool_size";
+    public static final String CONFIG_MARKDOWN_RENDER_MAX_QUEUE = "http.markdown.render.max_queue";
+    public static final String CONFIG_MARKDOWN_RENDER_INLINE_MAX_CHARS = "http.markdown.render.inline_max_chars";
+    public static final String CONFIG_HTTP_COMPRESSION = "http.compression";
+    public static final String CONFIG_HTTP_COMPRESSION_LEVEL = "http.compression.level";
+    public static final String CONFIG_RESPONSE_CACHE_MAX_BYTES = "http.response.cache.max_bytes";
+    public static final String CONFIG_HTTP_TLS_KEYSTORE_PATH = "http.tls.keystore.path";
+    public static final String CONFIG_HTTP_TLS_KEYSTORE_PASSWORD = "http.tls.keystore.password";
+    public static final String CONFIG_HTTP_ADMISSION_ENABLED = "http.admission.enabled";
+    public static final String CONFIG_HTTP_ADMISSION_READ_LIMIT = "http.admission.read.limit";
+    public static final String CONFIG_HTTP_ADMISSION_READ_MAX_LIMIT = "http.admission.read.max_limit";
+    public static final String CONFIG_HTTP_ADMISSION_READ_LATENCY = "http.admission.read.latency";
+    public static final String CONFIG_HTTP_ADMISSION_WRITE_LIMIT = "http.admission.write.limit";
+    public static final String CONFIG_HTTP_ADMISSION_WRITE_MAX_LIMIT = "http.admission.write.max_limit";
+    public static final String CONFIG_HTTP_ADMISSION_WRITE_LATENCY = "http.admission.write.latency";
+    public static final String CONFIG_HTTP_ADMISSION_RETRY_AFTER = "http.admission.retry_after";
+
+    private static final long DEFAULT_MARKDOWN_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_MARKDOWN_RENDER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_MARKDOWN_RENDER_MAX_QUEUE = 32;
+    // txtmark tarda unos 90 ns por caracter, una pagina de 4096 caracteres ocupa el event loop menos de medio ms
+    private static final int DEFAULT_MARKDOWN_RENDER_INLINE_MAX_CHARS = 4096;
+    private static final String MARKDOWN_RENDER_POOL = "markdown-render";
+    // El mismo nivel que usa Netty por defecto, a partir de ahi gzip gasta mucha mas CPU para ganar muy poco
+    private static final int DEFAULT_HTTP_COMPRESSION_LEVEL = 6;
+    private static final long DEFAULT_RESPONSE_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    // Limites de peticiones en curso a la DB: el inicial, el maximo y la latencia (ms) a partir de la cual se reducen.
+    // Nunca bajan de ADMISSION_MIN_LIMIT para que una racha lenta no deje la wiki atendiendo de una en una
+    private static final int DEFAULT_ADMISSION_READ_LIMIT = 32;
+    private static final int DEFAULT_ADMISSION_READ_MAX_LIMIT = 512;
+    private static final long DEFAULT_ADMISSION_READ_LATENCY = 500;
+    private static final int DEFAULT_ADMISSION_WRITE_LIMIT = 16;
+    private static final int DEFAULT_ADMISSION_WRITE_MAX_LIMIT = 256;
+    private static final long DEFAULT_ADMISSION_WRITE_LATENCY = 1000;
+    private static final int ADMISSION_MIN_LIMIT = 4;
+    private static final long DEFAULT_ADMISSION_RETRY_AFTER = 1;
+    private static final int DEFAULT_PAGES_LIMIT = 50;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int DEFAULT_SUGGEST_LIMIT = 10;
+    private static final int DEFAULT_REVISIONS_LIMIT = 50;
+    // Una linea mas larga que esto corta la importacion, sin limite una linea sin \n podria llenar la memoria
+    private static final int IMPORT_MAX_LINE_BYTES = 16 * 1024 * 1024;
 
     private String wikiDbQueue = "wikidb.queue";
 
     private FreeMarkerTemplateEngine templateEngine;
     private WikiDbService dbService;
+    private MarkdownCache markdownCache;
+    private MarkdownRenderer markdownRenderer;
+    private ResponseCache responseCache;
 
     @Override
     public void start(final Promise<Void> promise) throws Exception {
         wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue");
-        dbService = WikiDbService.createProxy(vertx, wikiDbQueue);
+        //Si el servicio de DB esta desplegado en este Vert.x lo llamamos directamente, si no por el event bus
+        if(config().getBoolean(CONFIG_WIKIDB_LOCAL, true)) {
+            dbService = WikiDbService.createLocal(vertx, wikiDbQueue);
+        }
+        if(dbService == null) {
+            dbService = WikiDbService.createProxy(vertx, wikiDbQueue);
+        }
+        LOG.info("Servicio de DB en {} ({})", wikiDbQueue, dbService instanceof WikiDbServiceLocal ? "local" : "event bus");
+        markdownCache = new MarkdownCache(
+                config().getLong(CONFIG_MARKDOWN_CACHE_MAX_BYTES, DEFAULT_MARKDOWN_CACHE_MAX_BYTES));
+        markdownRenderer = new MarkdownRenderer(vertx, MARKDOWN_RENDER_POOL,
+                config().getInteger(CONFIG_MARKDOWN_RENDER_POOL_SIZE, DEFAULT_MARKDOWN_RENDER_POOL_SIZE),
+                config().getInteger(CONFIG_MARKDOWN_RENDER_MAX_QUEUE, DEFAULT_MARKDOWN_RENDER_MAX_QUEUE),
+                config().getInteger(CONFIG_MARKDOWN_RENDER_INLINE_MAX_CHARS, DEFAULT_MARKDOWN_RENDER_INLINE_MAX_CHARS));
+        boolean compression = config().getBoolean(CONFIG_HTTP_COMPRESSION, true);
+        int compressionLevel = config().getInteger(CONFIG_HTTP_COMPRESSION_LEVEL, DEFAULT_HTTP_COMPRESSION_LEVEL);
+        responseCache = new ResponseCache(
+                config().getLong(CONFIG_RESPONSE_CACHE_MAX_BYTES, DEFAULT_RESPONSE_CACHE_MAX_BYTES),
+                compression, compressionLevel);
+        //El servicio de DB publica cada escritura, asi las caches no sirven paginas cambiadas desde otra instancia
+        vertx.eventBus().<JsonObject>consumer(
+                config().getString(CONFIG_WIKIDB_INVALIDATIONS_ADDRESS, DEFAULT_CONFIG_WIKIDB_INVALIDATIONS_ADDRESS),
+                message -> invalidate(message.body().getString("id"),
+                        message.body().getBoolean("listing", true)));
 
-        HttpServer server = vertx.createHttpServer();
+        Metrics.monitorEventLoop(vertx);
+        HttpServerOptions serverOptions = new HttpServerOptions()
+                .setCompressionSupported(compression)
+                .setCompressionLevel(compressionLevel);
+        //Con TLS se negocia HTTP/2 por ALPN. Sin TLS Vert.x ya acepta h2c, tanto con Upgrade como con prior knowledge,
+        //pero con la compresion activada Vert.x 3.9.0 deja colgadas las respuestas asincronas de la peticion que llega
+        //con Upgrade: h2c. Si algun cliente lo necesita hay que desactivar http.compression, con prior knowledge y con
+        //TLS funciona bien
+        String keyStore = config().getString(CONFIG_HTTP_TLS_KEYSTORE_PATH);
+        if(keyStore != null) {
+            serverOptions
+                    .setSsl(true)
+                    .setUseAlpn(true)
+                    .setKeyStoreOptions(new JksOptions()
+                            .setPath(keyStore)
+                            .setPassword(config().getString(CONFIG_HTTP_TLS_KEYSTORE_PASSWORD)));
+        }
+        HttpServer server = vertx.createHttpServer(serverOptions);
 
         templateEngine = FreeMarkerTemplateEngine.create(vertx);
 
+        //Las rutas que van a la DB pasan por el control de admision. Los listados en streaming, la exportacion y la
+        //importacion quedan fuera: duran lo que tarde el cliente y ya tienen su propia contrapresion
+        boolean admission = config().getBoolean(CONFIG_HTTP_ADMISSION_ENABLED, true);
+        long retryAfter = config().getLong(CONFIG_HTTP_ADMISSION_RETRY_AFTER, DEFAULT_ADMISSION_RETRY_AFTER);
+        AdmissionControl reads = new AdmissionControl(vertx, AdmissionControl.READS, new ConcurrencyLimit(
+                config().getInteger(CONFIG_HTTP_ADMISSION_READ_LIMIT, DEFAULT_ADMISSION_READ_LIMIT),
+                ADMISSION_MIN_LIMIT,
+                config().getInteger(CONFIG_HTTP_ADMISSION_READ_MAX_LIMIT, DEFAULT_ADMISSION_READ_MAX_LIMIT),
+                config().getLong(CONFIG_HTTP_ADMISSION_READ_LATENCY, DEFAULT_ADMISSION_READ_LATENCY)),
+                retryAfter, admission);
+        AdmissionControl writes = new AdmissionControl(vertx, AdmissionControl.WRITES, new ConcurrencyLimit(
+                config().getInteger(CONFIG_HTTP_ADMISSION_WRITE_LIMIT, DEFAULT_ADMISSION_WRITE_LIMIT),
+                ADMISSION_MIN_LIMIT,
+                config().getInteger(CONFIG_HTTP_ADMISSION_WRITE_MAX_LIMIT, DEFAULT_ADMISSION_WRITE_MAX_LIMIT),
+                config().getLong(CONFIG_HTTP_ADMISSION_WRITE_LATENCY, DEFAULT_ADMISSION_WRITE_LATENCY)),
+                retryAfter, admission);
+
+        RouteMetrics routeMetrics = new RouteMetrics();
         Router router = Router.router(vertx);
+        router.route().handler(routeMetrics);
         router.get("/hello").handler(this::helloHandler);
-        router.get("/").handler(this::allPagesHandler);
-        router.get("/wiki/:id").handler(this::pageHandler);
-        // Todas las peticiones POST pasan primero por BodyHandler.create() que decodifica los body de estas peticiones,
-        // es util para el envio de formularios
-        router.post().handler(BodyHandler.create());
-        router.post("/create").handler(this::createNewPageHandler);
-        router.post("/save").handler(this::pageUpdateHandler);
-        router.post("/delete").handler(this::pageDeleteHandler);
+        //Metricas de la wiki y de Vert.x en formato Prometheus
+        router.get("/metrics").handler(PrometheusScrapingHandler.create());
+        router.get("/").handler(reads.admit(this::allPagesHandler));
+        router.get("/wiki/:id").handler(reads.admit(this::pageHandler));
+        router.get("/wiki/:id/history").handler(reads.admit(this::historyHandler));
+        router.get("/search").handler(reads.admit(this::searchHandler));
 
         //Rutas para la API
         Router apiRouter = Router.router(vertx);
-        apiRouter.get("/pages").handler(this::apiRoot);
-        apiRouter.get("/pages/:id").handler(this::apiGetPage);
+        apiRouter.route().handler(routeMetrics);
+        apiRouter.get("/pages").handler(reads.admit(this::apiRoot));
+        apiRouter.get("/pages/stream").handler(this::apiStreamPages);
+        apiRouter.get("/pages/suggest").handler(reads.admit(this::apiSuggestPages));
+        apiRouter.get("/pages/:id").handler(reads.admit(this::apiGetPage));
+        apiRouter.get("/pages/:id/revisions").handler(reads.admit(this::apiRevisions));
+        apiRouter.get("/pages/:id/revisions/:revision").handler(reads.admit(this::apiGetRevision));
+        apiRouter.get("/pages/:id/revisions/:revision/diff").handler(reads.admit(this::apiRevisionDiff));
+        apiRouter.get("/search").handler(reads.admit(this::apiSearch));
+        apiRouter.get("/export").handler(this::apiExport);
+        //Antes del BodyHandler, la importacion lee el body en streaming
+        apiRouter.post("/import").handler(this::apiImport);
         apiRouter.post().handler(BodyHandler.create());
-        apiRouter.post("/pages").handler(this::apiCreatePage);
+        apiRouter.post("/pages").handler(writes.admit(this::apiCreatePage));
+        apiRouter.post("/batch").handler(writes.admit(this::apiBatch));
         apiRouter.put().handler(BodyHandler.create());
-        apiRouter.put("/pages/:id").handler(this::apiUpdatePage);
-        apiRouter.delete("/pages/:id").handler(this::apiDeletePage);
+        apiRouter.put("/pages/:id").handler(writes.admit(this::apiUpdatePage));
+        apiRouter.delete("/pages/:id").handler(writes.admit(this::apiDeletePage));
 
         router.mountSubRouter("/api", apiRouter);
 
+        // Todas las peticiones POST pasan primero por BodyHandler.create() que decodifica los body de estas peticiones,
+        // es util para el envio de formularios. Va despues de la API, que tiene los suyos y no lo quiere en /api/import
+        router.post().handler(BodyHandler.create());
+        router.post("/create").handler(writes.admit(this::createNewPageHandler));
+        router.post("/save").handler(writes.admit(this::pageUpdateHandler));
+        router.post("/delete").handler(writes.admit(this::pageDeleteHandler));
+
         int portNumbre = config().getInteger(CONFIG_HTTP_SERVER_PORT, 8080);
         server
             .requestHandler(router)
@@ -72,24 +229,54 @@ public final class HttpServerVerticle extends AbstractVerticle {
                     LOG.error("No se ha podido arrancar el servidor HTTP", asyncResult.cause());
                     promise.fail(asyncResult.cause());
                 } else {
-                    LOG.info("Servidor HTTP corriendo en el puerto 8080");
+                    LOG.info("Servidor HTTP corriendo en el puerto {} ({}, compresion {})", portNumbre,
+                            keyStore != null ? "HTTP/2 con TLS" : "HTTP/1.1 y h2c",
+                            compression ? "gzip/deflate" : "no");
                     promise.complete();
                 }
             });
     }
 
+    @Override
+    public void stop() {
+        LOG.info("Cache de Markdown: {} aciertos, {} fallos, {} bytes en uso",
+                markdownCache.hits(), markdownCache.misses(), markdownCache.sizeInBytes());
+        LOG.info("Cache de respuestas: {} aciertos, {} fallos, {} bytes en uso",
+                responseCache.hits(), responseCache.misses(), responseCache.sizeInBytes());
+        markdownRenderer.close();
+    }
+
     private void apiRoot(final RoutingContext context) {
-        dbService.fetchAllPages(reply -> {
+        Integer limit = pagesLimit(context);
+        if(limit == null) {
+            context.response()
+                    .setStatusCode(400)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject()
+                            .put("success", false)
+                            .put("error", "Bad limit, it must be a number between 1 and " + MAX_PAGES_LIMIT)
+                            .encode());
+            return;
+        }
+        String after = context.request().getParam("after");
+        String key = "/api/pages?after=" + (after == null ? "" : after) + "&limit=" + limit;
+        ResponseCache.Entry cached = responseCache.get(key, null);
+        if(cached != null) {
+            responseCache.send(context.request(), cached);
+            return;
+        }
+        long generation = responseCache.generation();
+        dbService.fetchPages(after, limit, reply -> {
             JsonObject response = new JsonObject();
             if(reply.succeeded()) {
-                List<JsonObject> result = reply.result();
+                JsonObject result = reply.result();
                 response
                         .put("success", true)
-                        .put("pages", result);
-                context.response()
-                        .setStatusCode(200)
-                        .putHeader("Content-Type", "application/json")
-                        .end(response.encode());
+                        .put("pages", result.getJsonArray("pages"));
+                if(result.containsKey("next")) {
+                    response.put("next", result.getString("next"));
+                }
+                sendCacheable(context, key, null, generation, "application/json", response.toBuffer());
             } else {
                 response
                         .put("success", false)
@@ -102,36 +289,400 @@ public final class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    /*
+     * Tamaño de pagina del listado pedido con ?limit=, null si no es valido
+     */
+    private Integer pagesLimit(final RoutingContext context) {
+        String limit = context.request().getParam("limit");
+        if(limit == null) {
+            return DEFAULT_PAGES_LIMIT;
+        }
+        try {
+            int value = Integer.parseInt(limit);
+            return value >= 1 && value <= MAX_PAGES_LIMIT ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void apiStreamPages(final RoutingContext context) {
+        streamPages(context, dbService::streamPages, null);
+    }
+
+    private void apiExport(final RoutingContext context) {
+        streamPages(context, dbService::exportPages, new TransferProgress("Exportacion"));
+    }
+
+    /*
+     * Listado completo en NDJSON (una pagina por linea). El servicio de DB envia las paginas por bloques a un address
+     * propio de esta peticion y solo lee el siguiente bloque cuando respondemos, cosa que no hacemos hasta que la cola
+     * de escritura de la respuesta tiene sitio. Asi la memoria no depende del numero de paginas. Con progress se
+     * apuntan las paginas enviadas
+     */
+    private void streamPages(final RoutingContext context,
+                             final BiConsumer<String, Handler<AsyncResult<Void>>> stream,
+                             final TransferProgress progress) {
+        HttpServerResponse response = context.response();
+        String address = wikiDbQueue + ".stream." + UUID.randomUUID().toString();
+        MessageConsumer<JsonObject> consumer = vertx.eventBus().consumer(address);
+        //Bloque pendiente de confirmar mientras esperamos a que se vacie la cola de escritura
+        AtomicReference<Message<JsonObject>> waiting = new AtomicReference<>();
+        response.closeHandler(closed -> {
+            LOG.debug("El cliente ha cerrado el listado en streaming {}", address);
+            consumer.unregister();
+            Message<JsonObject> message = waiting.getAndSet(null);
+            if(message != null) {
+                message.fail(500, "Client closed the connection");
+            }
+        });
+
+        consumer.handler(message -> {
+            JsonObject chunk = message.body();
+            if(!response.headWritten()) {
+                response
+                        .setStatusCode(200)
+                        .setChunked(true)
+                        .putHeader("Content-Type", "application/x-ndjson");
+            }
+            Buffer lines = Buffer.buffer();
+            JsonArray pages = chunk.getJsonArray("pages");
+            for(int i = 0; i < pages.size(); i++) {
+                lines.appendString(pages.getJsonObject(i).encode()).appendString("\n");
+            }
+            if(progress != null) {
+                progress.add(pages.size());
+            }
+            if(chunk.getBoolean("end")) {
+                consumer.unregister();
+                message.reply(null);
+                if(chunk.containsKey("error")) {
+                    //La respuesta ya ha empezado, cortamos la conexion para que el cliente sepa que esta incompleta
+                    LOG.error("El listado en streaming ha fallado: {}", chunk.getString("error"));
+                    response.write(lines);
+                    response.close();
+                } else {
+                    response.end(lines);
+                    if(progress != null) {
+                        progress.finish();
+                    }
+                }
+                return;
+            }
+            response.write(lines);
+            if(response.writeQueueFull()) {
+                waiting.set(message);
+                response.drainHandler(drained -> {
+                    response.drainHandler(null);
+                    Message<JsonObject> drainedMessage = waiting.getAndSet(null);
+                    if(drainedMessage != null) {
+                        drainedMessage.reply(null);
+                    }
+                });
+            } else {
+                message.reply(null);
+            }
+        });
+
+        consumer.completionHandler(registered -> stream.accept(address, started -> {
+            if(started.failed()) {
+                consumer.unregister();
+                response
+                        .setStatusCode(500)
+                        .putHeader("Content-Type", "application/json")
+                        .end(new JsonObject()
+                                .put("success", false)
+                                .put("error", started.cause().getMessage())
+                                .encode());
+            }
+        }));
+    }
+
+    /*
+     * Importacion en NDJSON, una pagina por linea con el formato de /api/export. El body se lee por lineas segun llega
+     * y cada MAX_IMPORT_BATCH_SIZE paginas se insertan en una transaccion; mientras tanto se deja de leer la peticion,
+     * asi en memoria nunca hay mas de un bloque. Si una linea no es valida o falla la DB se para ahi, lo importado
+     * hasta entonces se queda y la respuesta dice cuantas paginas se han importado
+     */
+    private void apiImport(final RoutingContext context) {
+        HttpServerRequest request = context.request();
+        TransferProgress progress = new TransferProgress("Importacion");
+        RecordParser parser = RecordParser.newDelimited("\n", request).maxRecordSize(IMPORT_MAX_LINE_BYTES);
+        List<JsonObject> pages = new ArrayList<>(MAX_IMPORT_BATCH_SIZE);
+        long[] lines = new long[1];
+        int[] imported = new int[1];
+        //Bloque que se esta insertando, el final de la peticion espera a que termine
+        AtomicReference<Future<Void>> inserting = new AtomicReference<>(Future.succeededFuture());
+
+        Handler<Throwable> fail = error -> {
+            if(context.response().ended()) {
+                return;
+            }
+            boolean badRequest = !(error instanceof ServiceException);
+            LOG.error("La importacion ha fallado en la linea {}", lines[0], error);
+            context.response()
+                    .setStatusCode(badRequest ? 400 : 500)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject()
+                            .put("success", false)
+                            .put("error", error.getMessage())
+                            .put("line", lines[0])
+                            .put("imported", imported[0])
+                            .encode());
+        };
+        Function<List<JsonObject>, Future<Void>> insert = batch -> {
+            Promise<Void> promise = Promise.promise();
+            dbService.importPages(batch, reply -> {
+                if(reply.succeeded()) {
+                    imported[0] += reply.result();
+                    progress.add(batch.size());
+                    promise.complete();
+                } else {
+                    promise.fail(new ServiceException(500, reply.cause().getMessage()));
+                }
+            });
+            return promise.future();
+        };
+
+        parser.exceptionHandler(fail);
+        parser.handler(line -> {
+            if(context.response().ended()) {
+                return;
+            }
+            lines[0]++;
+            String text = line.toString().trim();
+            if(text.isEmpty()) {
+                return;
+            }
+            JsonObject page;
+            try {
+                page = new JsonObject(text);
+            } catch (DecodeException e) {
+                fail.handle(new IllegalArgumentException("Bad page, expected a JSON object per line"));
+                return;
+            }
+            if(!validImportPage(page)) {
+                fail.handle(new IllegalArgumentException("Bad page, expected id, name and optional content and dates"));
+                return;
+            }
+            pages.add(page);
+            if(pages.size() < MAX_IMPORT_BATCH_SIZE) {
+                return;
+            }
+            List<JsonObject> batch = new ArrayList<>(pages);
+            pages.clear();
+            parser.pause();
+            Future<Void> inserted = insert.apply(batch);
+            inserting.set(inserted);
+            inserted.onComplete(done -> {
+                if(done.succeeded()) {
+                    parser.resume();
+                } else {
+                    fail.handle(done.cause());
+                }
+            });
+        });
+        parser.endHandler(end -> inserting.get()
+                .compose(previous -> pages.isEmpty() ? Future.<Void>succeededFuture() : insert.apply(pages))
+                .onComplete(done -> {
+                    if(done.failed()) {
+                        fail.handle(done.cause());
+                        return;
+                    }
+                    if(context.response().ended()) {
+                        return;
+                    }
+                    JsonObject summary = progress.finish();
+                    context.response()
+                            .putHeader("Content-Type", "application/json")
+                            .end(new JsonObject()
+                                    .put("success", true)
+                                    .put("imported", imported[0])
+                                    .put("skipped", progress.rows() - imported[0])
+                                    .put("seconds", summary.getDouble("seconds"))
+                                    .put("rows_per_second", summary.getLong("rows_per_second"))
+                                    .encode());
+                }));
+    }
+
+    private static boolean validImportPage(final JsonObject page) {
+        if(!(page.getValue("id") instanceof String) || !(page.getValue("name") instanceof String)) {
+            return false;
+        }
+        if(page.getValue("content") != null && !(page.getValue("content") instanceof String)) {
+            return false;
+        }
+        try {
+            UUID.fromString(page.getString("id"));
+            for(String date : Arrays.asList("creation_date", "update_date")) {
+                if(page.getValue(date) != null) {
+                    Instant.parse(page.getString(date));
+                }
+            }
+            return true;
+        } catch (IllegalArgumentException | ClassCastException | DateTimeParseException e) {
+            return false;
+        }
+    }
+
     private void apiGetPage(final RoutingContext context) {
         String id = context.request().getParam("id");
-        dbService.fetchPageById(id, reply -> {
-            JsonObject response = new JsonObject();
-            if(reply.succeeded()) {
-                JsonObject result = reply.result();
-                if(result.getBoolean("found")) {
-                    String content = result.getString("content");
-                    JsonObject payload = new JsonObject()
-                            .put("id", result.getString("id"))
-                            .put("name", result.getString("name"))
-                            .put("content", content)
-                            .put("html", content == null ? "" : Processor.process(content));
+        conditionalGet(context, id, null, () -> dbService.fetchPageById(id, reply -> {
+            if(reply.succeeded() && !reply.result().getBoolean("found")) {
+                context.response()
+                        .setStatusCode(404)
+                        .putHeader("Content-Type", "application/json")
+                        .end(notFound(id).encode());
+                return;
+            }
+            Future<JsonObject> page = reply.succeeded() ? apiPage(reply.result()) : Future.failedFuture(reply.cause());
+            page.onComplete(render -> {
+                JsonObject response = new JsonObject();
+                if(render.succeeded()) {
                     response
                             .put("success", true)
-                            .put("page", payload);
-                    context.response()
+                            .put("page", render.result());
+                    PageVersion.of(reply.result()).putHeaders(context.response())
                             .setStatusCode(200);
                 } else {
-                    context.response().setStatusCode(404);
                     response
                             .put("success", false)
-                            .put("error", "There is no page with ID " + id);
+                            .put("error", render.cause().getMessage());
+                    context.response()
+                            .setStatusCode(renderErrorStatus(render.cause()));
                 }
+                context.response()
+                        .putHeader("Content-Type", "application/json")
+                        .end(response.encode());
+            });
+        }));
+    }
+
+    /*
+     * Busqueda en el nombre y el contenido de las paginas, ?q= con los terminos y ?limit= opcional. Mientras el indice
+     * se construye responde 503
+     */
+    private void apiSearch(final RoutingContext context) {
+        String query = context.request().getParam("q");
+        Integer limit = searchLimit(context);
+        if(query == null || query.trim().isEmpty() || limit == null) {
+            context.response()
+                    .setStatusCode(400)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject()
+                            .put("success", false)
+                            .put("error", query == null || query.trim().isEmpty()
+                                    ? "Bad query, the q parameter is required"
+                                    : "Bad limit, it must be a number between 1 and " + MAX_SEARCH_LIMIT)
+                            .encode());
+            return;
+        }
+        dbService.searchPages(query, limit, reply -> {
+            JsonObject response = new JsonObject();
+            if(reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("results", new JsonArray(reply.result()));
             } else {
                 response
                         .put("success", false)
                         .put("error", reply.cause().getMessage());
-                context.response()
-                        .setStatusCode(500);
+                context.response().setStatusCode(unavailableStatus(reply.cause()));
+            }
+            context.response()
+                    .putHeader("Content-Type", "application/json")
+                    .end(response.encode());
+        });
+    }
+
+    /*
+     * Numero de resultados pedido con ?limit=, null si no es valido
+     */
+    private Integer searchLimit(final RoutingContext context) {
+        String limit = context.request().getParam("limit");
+        if(limit == null) {
+            return DEFAULT_SEARCH_LIMIT;
+        }
+        try {
+            int value = Integer.parseInt(limit);
+            return value >= 1 && value <= MAX_SEARCH_LIMIT ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Autocompletado de nombres de pagina con ?prefix= y ?limit= opcional, sale del directorio en memoria sin ir a la
+     * DB. Mientras el directorio se carga responde 503
+     */
+    private void apiSuggestPages(final RoutingContext context) {
+        String prefix = context.request().getParam("prefix");
+        Integer limit = suggestLimit(context);
+        if(limit == null) {
+            context.response()
+                    .setStatusCode(400)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject()
+                            .put("success", false)
+                            .put("error", "Bad limit, it must be a number between 1 and " + MAX_SUGGEST_LIMIT)
+                            .encode());
+            return;
+        }
+        dbService.suggestPages(prefix == null ? "" : prefix, limit, reply -> {
+            JsonObject response = new JsonObject();
+            if(reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("pages", new JsonArray(reply.result()));
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(unavailableStatus(reply.cause()));
+            }
+            context.response()
+                    .putHeader("Content-Type", "application/json")
+                    .end(response.encode());
+        });
+    }
+
+    private Integer suggestLimit(final RoutingContext context) {
+        String limit = context.request().getParam("limit");
+        if(limit == null) {
+            return DEFAULT_SUGGEST_LIMIT;
+        }
+        try {
+            int value = Integer.parseInt(limit);
+            return value >= 1 && value <= MAX_SUGGEST_LIMIT ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Historial de una pagina de la revision mas nueva a la mas antigua, ?before= para seguir por una revision y ?limit=
+     * opcional. Cada revision trae lo que ocupa su contenido completo y lo que ocupa guardada (copia o delta)
+     */
+    private void apiRevisions(final RoutingContext context) {
+        String id = context.request().getParam("id");
+        Long before = revisionParam(context, "before", 0);
+        Long limit = revisionParam(context, "limit", DEFAULT_REVISIONS_LIMIT);
+        if(before == null || limit == null || limit < 1 || limit > MAX_REVISIONS_LIMIT) {
+            badRequest(context, before == null
+                    ? "Bad before, it must be a revision number"
+                    : "Bad limit, it must be a number between 1 and " + MAX_REVISIONS_LIMIT);
+            return;
+        }
+        dbService.fetchRevisions(id, before, limit.intValue(), reply -> {
+            JsonObject response = new JsonObject();
+            if(reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("revisions", new JsonArray(reply.result()));
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
             }
             context.response()
                     .putHeader("Content-Type", "application/json")
@@ -139,12 +690,176 @@ public final class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    private void apiGetRevision(final RoutingContext context) {
+        String id = context.request().getParam("id");
+        Long revision = revisionParam(context, "revision", 0);
+        if(revision == null || revision < 1) {
+            badRequest(context, "Bad revision, it must be a number greater than 0");
+            return;
+        }
+        dbService.fetchRevision(id, revision, reply -> revisionReply(context, reply, "revision"));
+    }
+
+    /*
+     * Diff unificado de una revision con la anterior, o con la de ?from= (0 es la pagina vacia)
+     */
+    private void apiRevisionDiff(final RoutingContext context) {
+        String id = context.request().getParam("id");
+        Long revision = revisionParam(context, "revision", 0);
+        Long from = revision == null ? null : revisionParam(context, "from", revision - 1);
+        if(revision == null || revision < 1 || from == null) {
+            badRequest(context, "Bad revision, it must be a number greater than 0");
+            return;
+        }
+        dbService.diffRevisions(id, from, revision, reply -> revisionReply(context, reply, "diff"));
+    }
+
+    private void revisionReply(final RoutingContext context, final AsyncResult<JsonObject> reply, final String key) {
+        JsonObject response = new JsonObject();
+        if(reply.succeeded() && reply.result().getBoolean("found")) {
+            response
+                    .put("success", true)
+                    .put(key, reply.result());
+        } else if(reply.succeeded()) {
+            response
+                    .put("success", false)
+                    .put("error", "There is no such revision of page " + context.request().getParam("id"));
+            context.response().setStatusCode(404);
+        } else {
+            response
+                    .put("success", false)
+                    .put("error", reply.cause().getMessage());
+            context.response().setStatusCode(500);
+        }
+        context.response()
+                .putHeader("Content-Type", "application/json")
+                .end(response.encode());
+    }
+
+    /*
+     * Numero de revision (o limite) del parametro name, defaultValue si no viene y null si no es un numero valido
+     */
+    private static Long revisionParam(final RoutingContext context, final String name, final long defaultValue) {
+        String value = context.request().getParam(name);
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            long number = Long.parseLong(value);
+            return number >= 0 ? number : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void badRequest(final RoutingContext context, final String error) {
+        context.response()
+                .setStatusCode(400)
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject()
+                        .put("success", false)
+                        .put("error", error)
+                        .encode());
+    }
+
+    // 503 si el indice de busqueda o el directorio de nombres todavia no estan listos (o estan desactivados)
+    private static int unavailableStatus(final Throwable error) {
+        if(!(error instanceof ServiceException)) {
+            return 500;
+        }
+        int code = ((ServiceException) error).failureCode();
+        return code == ErrorCodes.SEARCH_UNAVAILABLE.ordinal() || code == ErrorCodes.DIRECTORY_UNAVAILABLE.ordinal()
+                ? 503
+                : 500;
+    }
+
+    /*
+     * Si el cliente trae validadores (If-None-Match o If-Modified-Since) se comprueban con fetchPageVersion, que solo
+     * lee las fechas de la pagina, y si su copia sigue valiendo se responde 304 sin leer ni renderizar la pagina. Con
+     * cacheKey la misma version sirve para responder desde responseCache. En cualquier otro caso, tambien si falla la
+     * comprobacion, se sigue con fullResponse
+     */
+    private void conditionalGet(final RoutingContext context, final String id, final String cacheKey,
+                                final Runnable fullResponse) {
+        HttpServerRequest request = context.request();
+        if(request.getHeader(HttpHeaders.IF_NONE_MATCH) == null
+                && request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) == null
+                && (cacheKey == null || !responseCache.contains(cacheKey))) {
+            fullResponse.run();
+            return;
+        }
+        dbService.fetchPageVersion(id, reply -> {
+            if(reply.succeeded() && reply.result().getBoolean("found")) {
+                PageVersion version = PageVersion.of(reply.result());
+                if(version.notModified(request)) {
+                    version.putHeaders(context.response())
+                            .setStatusCode(304)
+                            .end();
+                    return;
+                }
+                ResponseCache.Entry cached = cacheKey == null ? null : responseCache.get(cacheKey, version.etag());
+                if(cached != null) {
+                    version.putHeaders(context.response());
+                    responseCache.send(request, cached);
+                    return;
+                }
+            }
+            fullResponse.run();
+        });
+    }
+
+    private Future<JsonObject> apiPage(final JsonObject page) {
+        String content = page.getString("content");
+        return (content == null ? Future.succeededFuture("") : renderMarkdown(page, content))
+                .map(html -> new JsonObject()
+                        .put("id", page.getString("id"))
+                        .put("name", page.getString("name"))
+                        .put("content", content)
+                        .put("html", html));
+    }
+
+    /*
+     * Envia una respuesta de pagina (con su version) o de listado (version null) y la guarda en responseCache para las
+     * siguientes peticiones. Si no se puede guardar se envia igual y la comprime el servidor si esta activado
+     */
+    private void sendCacheable(final RoutingContext context, final String key, final String version,
+                               final long generation, final String contentType, final Buffer body) {
+        ResponseCache.Entry entry = responseCache.put(key, version, generation, contentType, body);
+        if(entry != null) {
+            responseCache.send(context.request(), entry);
+        } else {
+            context.response()
+                    .putHeader("Content-Type", contentType)
+                    .end(body);
+        }
+    }
+
+    /*
+     * Se llama tras cada escritura de esta instancia y con cada aviso del servicio de DB. Sin esperar al aviso, esta
+     * instancia ya no sirve de las caches lo que acaba de cambiar
+     */
+    private void invalidate(final String id, final boolean listing) {
+        if(id != null) {
+            markdownCache.invalidate(id);
+            responseCache.invalidate("/wiki/" + id);
+        }
+        if(listing) {
+            responseCache.invalidateListings();
+        }
+    }
+
+    // Con la cola de renderizado llena respondemos 503 para que el cliente reintente, cualquier otro fallo es un 500
+    private static int renderErrorStatus(final Throwable error) {
+        return error instanceof MarkdownRenderer.QueueFullException ? 503 : 500;
+    }
+
     private void apiCreatePage(final RoutingContext context) {
         JsonObject page = context.getBodyAsJson();
         if(!validJsonPage(context, page, "id", "name")) {
             return;
         }
         dbService.createPage(page.getString("id"), page.getString("name"), reply -> {
+            invalidate(page.getString("id"), true);
             handleSimpleDbReply(context, reply);
         });
     }
@@ -156,6 +871,7 @@ public final class HttpServerVerticle extends AbstractVerticle {
             return;
         }
         dbService.savePage(id, page.getString("content"), reply -> {
+            invalidate(id, false);
             handleSimpleDbReply(context, reply);
         });
     }
@@ -178,10 +894,156 @@ public final class HttpServerVerticle extends AbstractVerticle {
     private void apiDeletePage(final RoutingContext context) {
         String id = context.request().getParam("id");
         dbService.deletePage(id, reply -> {
+            invalidate(id, true);
             handleSimpleDbReply(context, reply);
         });
     }
 
+    /*
+     * Varias operaciones en una peticion: {"operations": [{"op": "get|create|save|delete", "id": ..., ...}]}. Las
+     * operaciones seguidas del mismo tipo van juntas en una sola llamada en bloque al servicio de DB (una query o un
+     * batch en una transaccion) y los grupos se ejecutan en orden. La respuesta trae un resultado por operacion.
+     */
+    private void apiBatch(final RoutingContext context) {
+        JsonObject body = context.getBodyAsJson();
+        JsonArray operations = body == null ? null : body.getJsonArray("operations");
+        if(operations == null || operations.size() > MAX_BATCH_SIZE
+                || !operations.stream().allMatch(this::validBatchOperation)) {
+            context.response()
+                    .setStatusCode(400)
+                    .putHeader("Content-Type", "application/json")
+                    .end(new JsonObject()
+                            .put("success", false)
+                            .put("error", "Bad request payload, expected up to " + MAX_BATCH_SIZE + " operations")
+                            .encode());
+            return;
+        }
+
+        List<JsonObject> results = new ArrayList<>(operations.size());
+        Future<Void> done = Future.succeededFuture();
+        int start = 0;
+        while(start < operations.size()) {
+            String op = operations.getJsonObject(start).getString("op");
+            int end = start;
+            while(end < operations.size() && op.equals(operations.getJsonObject(end).getString("op"))) {
+                end++;
+            }
+            List<JsonObject> group = new ArrayList<>(end - start);
+            for(int i = start; i < end; i++) {
+                group.add(operations.getJsonObject(i));
+            }
+            done = done.compose(previous -> batchGroup(op, group).map(groupResults -> {
+                results.addAll(groupResults);
+                return null;
+            }));
+            start = end;
+        }
+
+        done.onComplete(finished -> context.response()
+                .setStatusCode(200)
+                .putHeader("Content-Type", "application/json")
+                .end(new JsonObject()
+                        .put("success", true)
+                        .put("results", results)
+                        .encode()));
+    }
+
+    private boolean validBatchOperation(final Object operation) {
+        if(!(operation instanceof JsonObject)) {
+            return false;
+        }
+        JsonObject json = (JsonObject) operation;
+        String op = json.getString("op");
+        if(!(json.getValue("id") instanceof String)) {
+            return false;
+        }
+        if("create".equals(op)) {
+            return json.getValue("name") instanceof String;
+        }
+        if("save".equals(op)) {
+            return json.getValue("content") instanceof String;
+        }
+        return "get".equals(op) || "delete".equals(op);
+    }
+
+    /*
+     * Ejecuta un grupo de operaciones del mismo tipo. Nunca falla, si falla el servicio de DB todas las operaciones del
+     * grupo llevan el error
+     */
+    private Future<List<JsonObject>> batchGroup(final String op, final List<JsonObject> operations) {
+        List<String> ids = operations.stream().map(operation -> operation.getString("id")).collect(Collectors.toList());
+        Promise<List<JsonObject>> promise = Promise.promise();
+        switch(op) {
+            case "get":
+                dbService.fetchPagesByIds(ids, reply -> {
+                    if(reply.failed()) {
+                        promise.fail(reply.cause());
+                        return;
+                    }
+                    //Cada pagina lleva su propio error si no se ha podido renderizar
+                    List<Future<JsonObject>> pages = reply.result().stream()
+                            .map(page -> page.getBoolean("found")
+                                    ? apiPage(page)
+                                            .map(json -> new JsonObject().put("success", true).put("page", json))
+                                            .otherwise(error -> new JsonObject()
+                                                    .put("success", false)
+                                                    .put("error", error.getMessage()))
+                                    : Future.succeededFuture(notFound(page.getString("id"))))
+                            .collect(Collectors.toList());
+                    CompositeFuture.all(new ArrayList<>(pages))
+                            .map(all -> pages.stream().map(Future::result).collect(Collectors.toList()))
+                            .onComplete(promise);
+                });
+                break;
+            case "create":
+                List<JsonObject> pages = operations.stream()
+                        .map(operation -> new JsonObject()
+                                .put("id", operation.getString("id"))
+                                .put("name", operation.getString("name")))
+                        .collect(Collectors.toList());
+                dbService.createPages(pages, reply -> {
+                    ids.forEach(id -> invalidate(id, true));
+                    promise.handle(reply.map(created -> ids.stream()
+                            .map(id -> new JsonObject().put("success", true).put("id", id))
+                            .collect(Collectors.toList())));
+                });
+                break;
+            case "save":
+                List<JsonObject> contents = operations.stream()
+                        .map(operation -> new JsonObject()
+                                .put("id", operation.getString("id"))
+                                .put("content", operation.getString("content")))
+                        .collect(Collectors.toList());
+                dbService.savePages(contents, reply -> {
+                    ids.forEach(id -> invalidate(id, false));
+                    promise.handle(reply.map(found -> updatedResults(ids, found)));
+                });
+                break;
+            default:
+                dbService.deletePages(ids, reply -> {
+                    ids.forEach(id -> invalidate(id, true));
+                    promise.handle(reply.map(found -> updatedResults(ids, found)));
+                });
+        }
+        return promise.future().otherwise(error -> operations.stream()
+                .map(operation -> new JsonObject().put("success", false).put("error", error.getMessage()))
+                .collect(Collectors.toList()));
+    }
+
+    private static List<JsonObject> updatedResults(final List<String> ids, final List<Boolean> found) {
+        List<JsonObject> results = new ArrayList<>(ids.size());
+        for(int i = 0; i < ids.size(); i++) {
+            results.add(found.get(i) ? new JsonObject().put("success", true) : notFound(ids.get(i)));
+        }
+        return results;
+    }
+
+    private static JsonObject notFound(final String id) {
+        return new JsonObject()
+                .put("success", false)
+                .put("error", "There is no page with ID " + id);
+    }
+
     private void handleSimpleDbReply(final RoutingContext context, final AsyncResult<Void> reply) {
         if(reply.succeeded()) {
             context.response()
@@ -208,15 +1070,23 @@ public final class HttpServerVerticle extends AbstractVerticle {
     }
 
     private void allPagesHandler(final RoutingContext context) {
-        dbService.fetchAllPages(reply -> {
+        String after = context.request().getParam("after");
+        String key = "/?after=" + (after == null ? "" : after);
+        ResponseCache.Entry cached = responseCache.get(key, null);
+        if(cached != null) {
+            responseCache.send(context.request(), cached);
+            return;
+        }
+        long generation = responseCache.generation();
+        dbService.fetchPages(after, DEFAULT_PAGES_LIMIT, reply -> {
             if(reply.succeeded()) {
                 context.put("title", "Wiki Home");
-                context.put("pages", reply.result());
+                context.put("pages", reply.result().getJsonArray("pages").getList());
+                context.put("first", after == null || after.isEmpty());
+                context.put("next", reply.result().getString("next"));
                 templateEngine.render(context.data(), "templates/index.ftl", asyncResult -> {
                     if(asyncResult.succeeded()) {
-                        context.response()
-                                .putHeader("Content-Type", "text/html")
-                                .end(asyncResult.result());
+                        sendCacheable(context, key, null, generation, "text/html", asyncResult.result());
                     } else {
                         LOG.error("No se ha podido renderizar bien la pagina de inicio", asyncResult.cause());
                         context.fail(asyncResult.cause());
@@ -229,62 +1099,172 @@ public final class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    private void searchHandler(final RoutingContext context) {
+        String query = context.request().getParam("q") == null ? "" : context.request().getParam("q").trim();
+        Future<List<JsonObject>> search = Future.succeededFuture(new ArrayList<>());
+        if(!query.isEmpty()) {
+            Promise<List<JsonObject>> promise = Promise.promise();
+            dbService.searchPages(query, DEFAULT_SEARCH_LIMIT, promise);
+            search = promise.future();
+        }
+        search.onComplete(reply -> {
+            if(reply.succeeded()) {
+                context.put("title", "Search");
+                context.put("query", query);
+                context.put("results", reply.result().stream().map(JsonObject::getMap).collect(Collectors.toList()));
+                templateEngine.render(context.data(), "templates/search.ftl", asyncResult -> {
+                    if(asyncResult.succeeded()) {
+                        context.response()
+                                .putHeader("Content-Type", "text/html")
+                                .end(asyncResult.result());
+                    } else {
+                        LOG.error("No se ha podido renderizar bien la pagina de busqueda", asyncResult.cause());
+                        context.fail(asyncResult.cause());
+                    }
+                });
+            } else {
+                LOG.warn("No se ha podido buscar {}", query, reply.cause());
+                context.fail(unavailableStatus(reply.cause()), reply.cause());
+            }
+        });
+    }
+
     private static final String EMPTY_PAGE_MARKDOWN =
             "# A new page\n" +
                     "\n" +
                     "Feel-free to write in Markdown!\n";
 
+    private static final String EMPTY_PAGE_HTML = Processor.process(EMPTY_PAGE_MARKDOWN);
+
+    /*
+     * Si el servicio de DB ya guardo el HTML al salvar la pagina se usa tal cual. Si no, se renderiza el Markdown
+     * pasando por la cache, la version de la entrada es la fecha de la ultima modificacion de la pagina (o la de
+     * creacion si nunca se ha guardado)
+     */
+    private Future<String> renderMarkdown(final JsonObject page, final String content) {
+        if(page.getString("html") != null) {
+            return Future.succeededFuture(page.getString("html"));
+        }
+        String id = page.getString("id");
+        String version = page.getString("update_date") != null
+                ? page.getString("update_date")
+                : String.valueOf(page.getString("creation_date"));
+        String html = markdownCache.get(id, version);
+        if(html != null) {
+            return Future.succeededFuture(html);
+        }
+        return markdownRenderer.render(content).map(rendered -> {
+            markdownCache.put(id, version, rendered);
+            return rendered;
+        });
+    }
+
     private void pageHandler(final RoutingContext context) {
         //Obtener la page con el id de la URL
         String id = context.request().getParam("id");
-        dbService.fetchPageById(id, reply -> {
+        String key = "/wiki/" + id;
+        //La respuesta guardada se busca con la version, la pagina entera solo se lee si hay que renderizarla
+        conditionalGet(context, id, key, () -> dbService.fetchPageById(id, reply -> {
            if(reply.succeeded()) {
                JsonObject json = reply.result();
+               PageVersion version = PageVersion.of(json);
                String content = json.getString("content") == null ? "" : json.getString("content");
-               context.put("title", "Edit page");
-               context.put("id", json.getString("id"));
-               context.put("name", json.getString("name"));
-               context.put("content", content.isEmpty() ? Processor.process(EMPTY_PAGE_MARKDOWN) : Processor.process(content));
-               context.put("rawContent", content.isEmpty() ? EMPTY_PAGE_MARKDOWN : content);
-               templateEngine.render(context.data(), "templates/page.ftl", html -> {
-                   if(html.succeeded()) {
-                       context.response()
-                               .putHeader("Content-Type", "text/html")
-                               .end(html.result());
-                   } else {
-                       LOG.error("No se ha generado bien la pagina de edicion", html.cause());
-                       context.fail(html.cause());
+               Future<String> rendered = content.isEmpty()
+                       ? Future.succeededFuture(EMPTY_PAGE_HTML)
+                       : renderMarkdown(json, content);
+               rendered.onComplete(markdown -> {
+                   if(markdown.failed()) {
+                       LOG.warn("No se ha podido renderizar el Markdown de la pagina {}", id, markdown.cause());
+                       context.fail(renderErrorStatus(markdown.cause()), markdown.cause());
+                       return;
                    }
+                   context.put("title", "Edit page");
+                   context.put("id", json.getString("id"));
+                   context.put("name", json.getString("name"));
+                   context.put("content", markdown.result());
+                   context.put("rawContent", content.isEmpty() ? EMPTY_PAGE_MARKDOWN : content);
+                   templateEngine.render(context.data(), "templates/page.ftl", html -> {
+                       if(html.succeeded()) {
+                           version.putHeaders(context.response());
+                           if(json.getBoolean("found")) {
+                               sendCacheable(context, key, version.etag(), -1, "text/html", html.result());
+                           } else {
+                               context.response()
+                                       .putHeader("Content-Type", "text/html")
+                                       .end(html.result());
+                           }
+                       } else {
+                           LOG.error("No se ha generado bien la pagina de edicion", html.cause());
+                           context.fail(html.cause());
+                       }
+                   });
                });
            } else {
                LOG.error("El servicio de DB no ha respondido correctamente", reply.cause());
                context.fail(reply.cause());
            }
+        }));
+    }
+
+    /*
+     * Historial de la pagina con lo que ocupa cada revision guardada frente al contenido completo. Con ?diff= muestra
+     * tambien los cambios de esa revision respecto a la anterior
+     */
+    private void historyHandler(final RoutingContext context) {
+        String id = context.request().getParam("id");
+        Long diff = revisionParam(context, "diff", 0);
+        Promise<JsonObject> page = Promise.promise();
+        Promise<List<JsonObject>> revisions = Promise.promise();
+        Promise<JsonObject> changes = Promise.promise();
+        dbService.fetchPageById(id, page);
+        dbService.fetchRevisions(id, 0, DEFAULT_REVISIONS_LIMIT, revisions);
+        if(diff != null && diff > 0) {
+            dbService.diffRevisions(id, diff - 1, diff, changes);
+        } else {
+            changes.complete(new JsonObject().put("found", false));
+        }
+        CompositeFuture.all(page.future(), revisions.future(), changes.future()).onComplete(reply -> {
+            if(reply.failed()) {
+                LOG.error("El servicio de DB no ha respondido correctamente", reply.cause());
+                context.fail(reply.cause());
+                return;
+            }
+            if(!page.future().result().getBoolean("found")) {
+                context.fail(404);
+                return;
+            }
+            List<JsonObject> history = revisions.future().result();
+            context.put("title", "History");
+            context.put("id", id);
+            context.put("name", page.future().result().getString("name"));
+            context.put("revisions", history.stream().map(JsonObject::getMap).collect(Collectors.toList()));
+            context.put("contentSize", history.stream().mapToLong(revision -> revision.getLong("content_size")).sum());
+            context.put("storedSize", history.stream().mapToLong(revision -> revision.getLong("stored_size")).sum());
+            context.put("diff", changes.future().result().getBoolean("found") ? diff : 0);
+            context.put("changes", changes.future().result().getString("diff", ""));
+            templateEngine.render(context.data(), "templates/history.ftl", html -> {
+                if(html.succeeded()) {
+                    context.response()
+                            .putHeader("Content-Type", "text/html")
+                            .end(html.result());
+                } else {
+                    LOG.error("No se ha podido renderizar bien el historial de la pagina {}", id, html.cause());
+                    context.fail(html.cause());
+                }
+            });
         });
     }
 
     private void createNewPageHandler(final RoutingContext context) {
         String name = context.request().getParam("name").toLowerCase();
 
-        //Primero buscamos si ya existe la pagina
-        dbService.fetchPageByName(name, reply -> {
+        //Si ya existe la pagina nos da su id, si no la crea
+        dbService.findOrCreatePage(name, reply -> {
+            if(reply.failed() || reply.result().getBoolean("created")) {
+                invalidate(reply.succeeded() ? reply.result().getString("id") : null, true);
+            }
             if(reply.succeeded()) {
-                JsonObject body = reply.result();
-                if(body.getBoolean("found")) {
-                    //Si existe dirigimos a su pagina
-                    context.reroute(HttpMethod.GET, "/wiki/"+body.getString("id"));
-                } else {
-                    //Si no existe creamos la pagina
-                    String id = UUID.randomUUID().toString();
-                    dbService.createPage(id, name, create -> {
-                        if(create.succeeded()) {
-                            context.reroute(HttpMethod.GET, "/wiki/"+id);
-                        } else {
-                            LOG.error("El servicio de DB no ha respondido correctamente", reply.cause());
-                            context.fail(create.cause());
-                        }
-                    });
-                }
+                context.reroute(HttpMethod.GET, "/wiki/"+reply.result().getString("id"));
             } else {
                 LOG.error("El servicio de DB no ha respondido correctamente", reply.cause());
                 context.fail(reply.cause());
@@ -297,6 +1277,7 @@ public final class HttpServerVerticle extends AbstractVerticle {
         String content = context.request().getParam("markdown");
 
         dbService.savePage(id, content, reply -> {
+            invalidate(id, false);
             if(reply.succeeded()) {
                 context.response()
                         .setStatusCode(303)
@@ -313,6 +1294,7 @@ public final class HttpServerVerticle extends AbstractVerticle {
         String id = context.request().getParam("id");
 
         dbService.deletePage(id, reply -> {
+            invalidate(id, true);
             if(reply.succeeded()) {
                 context.response()
                         .setStatusCode(303)
@@ -0,0 +1,85 @@
+package es.rodrimmb.wiki.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Cache LRU del HTML ya renderizado de cada pagina. La clave es el id de la pagina y cada entrada guarda la version
+ * (update_date) con la que se renderizo, asi cuando savePage cambia la pagina la entrada deja de ser valida sola.
+ * El tamaño se limita en bytes (aproximados como 2 bytes por caracter) y no es thread-safe: cada instancia de
+ * HttpServerVerticle tiene la suya y solo se usa desde su event loop.
+ */
+final class MarkdownCache {
+
+    private static final class Entry {
+        private final String version;
+        private final String html;
+        private final long bytes;
+
+        private Entry(final String id, final String version, final String html) {
+            this.version = version;
+            this.html = html;
+            this.bytes = 2L * (id.length() + version.length() + html.length());
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private long hits;
+    private long misses;
+
+    MarkdownCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    String get(final String id, final String version) {
+        Entry entry = entries.get(id);
+        if(entry != null && entry.version.equals(version)) {
+            hits++;
+            return entry.html;
+        }
+        misses++;
+        return null;
+    }
+
+    void put(final String id, final String version, final String html) {
+        Entry entry = new Entry(id, version, html);
+        if(entry.bytes > maxBytes) {
+            // No cabe ni sola, no merece la pena vaciar la cache por ella
+            invalidate(id);
+            return;
+        }
+        Entry old = entries.put(id, entry);
+        if(old != null) {
+            currentBytes -= old.bytes;
+        }
+        currentBytes += entry.bytes;
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while(currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    void invalidate(final String id) {
+        Entry old = entries.remove(id);
+        if(old != null) {
+            currentBytes -= old.bytes;
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long sizeInBytes() {
+        return currentBytes;
+    }
+}
@@ -0,0 +1,58 @@
+package es.rodrimmb.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+/*
+ * Renderizado de Markdown fuera del event loop. Las paginas pequeñas (hasta inlineMaxChars caracteres) se renderizan
+ * en el propio event loop, que es mas rapido que ir y volver de un worker. Las grandes van a un pool de workers propio,
+ * compartido por nombre entre todas las instancias de HttpServerVerticle, con una cola limitada: si ya hay maxQueued
+ * renderizados pendientes de esta instancia se falla al momento con QueueFullException, que se responde con un 503.
+ * Solo se usa desde el event loop de su verticle.
+ */
+final class MarkdownRenderer {
+
+    // La cola de renderizado esta llena, el cliente puede reintentar mas tarde
+    static final class QueueFullException extends RuntimeException {
+        QueueFullException() {
+            super("Markdown render queue is full", null, false, false);
+        }
+    }
+
+    private final WorkerExecutor executor;
+    private final int inlineMaxChars;
+    private final int maxQueued;
+    private int queued;
+
+    MarkdownRenderer(final Vertx vertx, final String poolName, final int poolSize, final int maxQueued,
+                     final int inlineMaxChars) {
+        this.executor = vertx.createSharedWorkerExecutor(poolName, poolSize);
+        this.maxQueued = maxQueued;
+        this.inlineMaxChars = inlineMaxChars;
+    }
+
+    Future<String> render(final String markdown) {
+        if(markdown.length() <= inlineMaxChars) {
+            return Future.succeededFuture(Processor.process(markdown));
+        }
+        if(queued >= maxQueued) {
+            return Future.failedFuture(new QueueFullException());
+        }
+        queued++;
+        Promise<String> promise = Promise.promise();
+        //Sin orden, cada renderizado puede ir a un worker distinto
+        executor.<String>executeBlocking(blocking -> blocking.complete(Processor.process(markdown)), false, done -> {
+            queued--;
+            promise.handle(done);
+        });
+        return promise.future();
+    }
+
+
+    void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,102 @@
+package es.rodrimmb.wiki.http;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+
+/*
+ * Validadores de HTTP (ETag y Last-Modified) de una pagina. La version es la fecha del ultimo cambio de la pagina: la
+ * mas reciente de creation_date, update_date y delete_date, que vienen igual en la pagina completa y en
+ * fetchPageVersion(). El ETag es esa fecha en microsegundos, Last-Modified la misma fecha truncada a segundos. Las
+ * fechas se comparan como instantes, el driver quita los ceros del final de los decimales y Instant.toString() no
+ */
+final class PageVersion {
+
+    private final String etag;
+    private final Instant lastModified;
+
+    private PageVersion(final String etag, final Instant lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    String etag() {
+        return etag;
+    }
+
+    static PageVersion of(final JsonObject page) {
+        String creationDate = page.getString("creation_date");
+        String updateDate = page.getString("update_date");
+        String deleteDate = page.getString("delete_date");
+        Instant version = null;
+        for(String date : new String[]{creationDate, updateDate, deleteDate}) {
+            if(date == null) {
+                continue;
+            }
+            try {
+                Instant instant = OffsetDateTime.parse(date).toInstant();
+                if(version == null || instant.isAfter(version)) {
+                    version = instant;
+                }
+            } catch (DateTimeParseException e) {
+                //Si el driver da otro formato seguimos teniendo ETag, aunque sin Last-Modified
+                int hash = Objects.hash(creationDate, updateDate, deleteDate);
+                return new PageVersion("\"" + Integer.toHexString(hash) + "\"", null);
+            }
+        }
+        if(version == null) {
+            return new PageVersion("\"0\"", null);
+        }
+        long micros = ChronoUnit.MICROS.between(Instant.EPOCH, version);
+        return new PageVersion("\"" + Long.toString(micros, 36) + "\"", version.truncatedTo(ChronoUnit.SECONDS));
+    }
+
+    /*
+     * true si la copia del cliente sigue valiendo. Si manda If-None-Match solo se mira ese, If-Modified-Since solo se
+     * usa cuando no hay ETag (RFC 7232, seccion 6)
+     */
+    boolean notModified(final HttpServerRequest request) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if(ifNoneMatch != null) {
+            for(String tag : ifNoneMatch.split(",")) {
+                String candidate = tag.trim();
+                if(candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if(ifModifiedSince == null || lastModified == null) {
+            return false;
+        }
+        try {
+            Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return !lastModified.isAfter(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // no-cache para que el proxy y los navegadores pregunten siempre, si no podrian dar por buena una copia vieja
+    HttpServerResponse putHeaders(final HttpServerResponse response) {
+        response
+                .putHeader(HttpHeaders.ETAG, etag)
+                .putHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        if(lastModified != null) {
+            response.putHeader(HttpHeaders.LAST_MODIFIED,
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atZone(ZoneOffset.UTC)));
+        }
+        return response;
+    }
+}
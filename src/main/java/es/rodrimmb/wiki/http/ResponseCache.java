@@ -0,0 +1,264 @@
+package es.rodrimmb.wiki.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Cache LRU de respuestas ya generadas (paginas renderizadas y listados) con el body comprimido, asi una respuesta que
+ * se pide mucho no se vuelve a renderizar ni a comprimir en cada peticion. Cada entrada guarda el body sin comprimir y
+ * cada codificacion (gzip o deflate) se comprime la primera vez que la pide un cliente.
+ *
+ * Las paginas se guardan con su version (el ETag) y dejan de valer solas cuando cambian. Los listados no tienen
+ * version: se borran con invalidateListings() y para que una peticion que empezo antes de un cambio no guarde un
+ * listado viejo put() solo lo acepta si generation() no ha cambiado desde que empezo. Como MarkdownCache no es
+ * thread-safe, cada instancia de HttpServerVerticle tiene la suya.
+ */
+final class ResponseCache {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    static final String IDENTITY = "identity";
+
+    static final class Entry {
+        private final String key;
+        private final String version;
+        private final boolean listing;
+        private final String contentType;
+        private final Buffer body;
+        private final Map<String, Buffer> encoded = new HashMap<>(4);
+        private long bytes;
+
+        private Entry(final String key, final String version, final boolean listing, final String contentType,
+                      final Buffer body) {
+            this.key = key;
+            this.version = version;
+            this.listing = listing;
+            this.contentType = contentType;
+            this.body = body;
+            this.bytes = 2L * key.length() + body.length();
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean compression;
+    private final int compressionLevel;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+    private long generation;
+    private long hits;
+    private long misses;
+
+    /*
+     * Con compression a false solo se guarda el body sin comprimir, que es lo que se envia siempre
+     */
+    ResponseCache(final long maxBytes, final boolean compression, final int compressionLevel) {
+        this.maxBytes = maxBytes;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    // true si hay alguna respuesta guardada para key, sin contar acierto ni fallo
+    boolean contains(final String key) {
+        return entries.containsKey(key);
+    }
+
+    /*
+     * Entrada de key si sigue valiendo para version (null en los listados)
+     */
+    Entry get(final String key, final String version) {
+        Entry entry = entries.get(key);
+        if(entry != null && (version == null ? entry.listing : version.equals(entry.version))) {
+            hits++;
+            return entry;
+        }
+        misses++;
+        return null;
+    }
+
+    /*
+     * Guarda la respuesta, devuelve null si no se ha guardado porque no cabe o porque un listado ha cambiado mientras
+     * se generaba
+     */
+    Entry put(final String key, final String version, final long startGeneration, final String contentType,
+              final Buffer body) {
+        boolean listing = version == null;
+        if(listing && startGeneration != generation) {
+            return null;
+        }
+        Entry entry = new Entry(key, version, listing, contentType, body);
+        if(entry.bytes > maxBytes) {
+            invalidate(key);
+            return null;
+        }
+        Entry old = entries.put(key, entry);
+        if(old != null) {
+            currentBytes -= old.bytes;
+        }
+        currentBytes += entry.bytes;
+        evict();
+        return entry;
+    }
+
+    /*
+     * Envia la respuesta con la codificacion que acepta el cliente. En HTTP/2 Netty comprime el body segun el
+     * Content-Encoding que ya ha puesto Vert.x y no hay forma de pasarle uno ya comprimido, ahi se envia sin comprimir
+     * y solo nos ahorramos el renderizado
+     */
+    void send(final HttpServerRequest request, final Entry entry) {
+        HttpServerResponse response = request.response()
+                .putHeader(HttpHeaders.CONTENT_TYPE, entry.contentType);
+        if(!compression) {
+            response.end(entry.body);
+            return;
+        }
+        response.putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+        String encoding = request.version() == HttpVersion.HTTP_2
+                ? IDENTITY
+                : negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if(IDENTITY.equals(encoding)) {
+            response.end(entry.body);
+        } else {
+            response
+                    .putHeader(HttpHeaders.CONTENT_ENCODING, encoding)
+                    .end(encoded(entry, encoding));
+        }
+    }
+
+    void invalidate(final String key) {
+        Entry old = entries.remove(key);
+        if(old != null) {
+            currentBytes -= old.bytes;
+        }
+    }
+
+    void invalidateListings() {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if(entry.listing) {
+                currentBytes -= entry.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long sizeInBytes() {
+        return currentBytes;
+    }
+
+    /*
+     * Codificacion para el Accept-Encoding del cliente: gzip si lo acepta, si no deflate y si no ninguna. Un q=0
+     * rechaza la codificacion y * vale por las que no aparecen
+     */
+    static String negotiate(final String acceptEncoding) {
+        if(acceptEncoding == null) {
+            return IDENTITY;
+        }
+        Boolean gzip = null;
+        Boolean deflate = null;
+        boolean any = false;
+        for(String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            boolean accepted = true;
+            for(int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if(param.startsWith("q=")) {
+                    try {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if(GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                gzip = accepted;
+            } else if(DEFLATE.equals(coding)) {
+                deflate = accepted;
+            } else if("*".equals(coding)) {
+                any = accepted;
+            }
+        }
+        if(gzip == null ? any : gzip) {
+            return GZIP;
+        }
+        if(deflate == null ? any : deflate) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    private Buffer encoded(final Entry entry, final String encoding) {
+        Buffer buffer = entry.encoded.get(encoding);
+        if(buffer == null) {
+            buffer = encode(entry.body, encoding, compressionLevel);
+            entry.encoded.put(encoding, buffer);
+            //La entrada puede haber salido ya de la cache, entonces su tamaño no cuenta
+            if(entries.get(entry.key) == entry) {
+                entry.bytes += buffer.length();
+                currentBytes += buffer.length();
+                evict();
+            }
+        }
+        return buffer;
+    }
+
+    // deflate en HTTP es el formato zlib, igual que lo comprime Netty
+    static Buffer encode(final Buffer body, final String encoding, final int level) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length() / 4));
+        Deflater deflater = new Deflater(level, false);
+        try(OutputStream out = GZIP.equals(encoding)
+                ? new LevelGZIPOutputStream(bytes, level)
+                : new DeflaterOutputStream(bytes, deflater)) {
+            out.write(body.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return Buffer.buffer(bytes.toByteArray());
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while(currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    private static final class LevelGZIPOutputStream extends GZIPOutputStream {
+        private LevelGZIPOutputStream(final OutputStream out, final int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
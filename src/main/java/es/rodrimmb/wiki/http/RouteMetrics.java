@@ -0,0 +1,82 @@
+package es.rodrimmb.wiki.http;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Primer handler de cada router. Apunta en wiki.http.requests la latencia de cada peticion con la ruta que la ha
+ * atendido (el patron, /wiki/:id, no la URL) y lleva la cuenta de las peticiones en curso. Por los sub-routers vuelve a
+ * pasar la misma peticion, la ruta que queda es la del router montado mas adentro, la mas concreta
+ */
+final class RouteMetrics implements Handler<RoutingContext> {
+
+    private static final String START = "metrics.start";
+    private static final String ROUTE = "metrics.route";
+    private static final String ROUTE_DEPTH = "metrics.route.depth";
+    private static final String UNMATCHED = "unmatched";
+    private static final String FAILED = "failed";
+
+    // Compartido por todas las instancias de HttpServerVerticle
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    private final MeterRegistry registry;
+
+    RouteMetrics() {
+        registry = Metrics.registry();
+        registry.gauge("wiki.http.requests.active", ACTIVE);
+    }
+
+    @Override
+    public void handle(final RoutingContext context) {
+        if(context.get(START) == null) {
+            context.put(START, System.nanoTime());
+            ACTIVE.incrementAndGet();
+            //endHandler tambien se llama si se cierra la conexion antes de acabar la respuesta
+            context.response().endHandler(end -> record(context));
+        }
+        //La ruta solo se conoce cuando un handler responde, antes de eso el router sigue buscando. Los handlers de
+        //headers end no se llaman en el orden en que se añaden, por eso se compara la profundidad del router
+        int depth = context.mountPoint() == null ? 0 : context.mountPoint().length();
+        context.addHeadersEndHandler(headers -> {
+            Integer previous = context.get(ROUTE_DEPTH);
+            if(previous == null || depth >= previous) {
+                context.put(ROUTE_DEPTH, depth);
+                context.put(ROUTE, route(context));
+            }
+        });
+        context.next();
+    }
+
+    private void record(final RoutingContext context) {
+        ACTIVE.decrementAndGet();
+        HttpServerResponse response = context.response();
+        String route = context.get(ROUTE);
+        Metrics.latency("wiki.http.requests")
+                .tag("method", context.request().method().name())
+                .tag("route", route == null ? UNMATCHED : route)
+                .tag("status", response.ended() ? String.valueOf(response.getStatusCode()) : "closed")
+                .register(registry)
+                .record(System.nanoTime() - context.<Long>get(START), TimeUnit.NANOSECONDS);
+    }
+
+    private static String route(final RoutingContext context) {
+        //Tras context.fail() el router vuelve a empezar buscando failure handlers y ya no sabemos que ruta fallo (sin
+        //ninguno currentRoute() lanza NullPointerException)
+        if(context.failed()) {
+            return FAILED;
+        }
+        Route route = context.currentRoute();
+        if(route == null || route.getPath() == null) {
+            return UNMATCHED;
+        }
+        String mountPoint = context.mountPoint();
+        return mountPoint == null ? route.getPath() : mountPoint + route.getPath();
+    }
+}
@@ -0,0 +1,62 @@
+package es.rodrimmb.wiki.http;
+
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Filas de una importacion o exportacion en curso. Cada PROGRESS_INTERVAL deja en el log cuantas lleva y a que ritmo,
+ * y las suma a wiki.transfer.rows para ver el ritmo de todas las transferencias en las metricas. Solo se usa desde el
+ * event loop de la peticion
+ */
+final class TransferProgress {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransferProgress.class);
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    private final String direction;
+    private final Counter counter;
+    private final long start = System.nanoTime();
+    private long lastReport = start;
+    private long rows;
+
+    TransferProgress(final String direction) {
+        this.direction = direction;
+        this.counter = Counter.builder("wiki.transfer.rows").tag("direction", direction).register(Metrics.registry());
+    }
+
+    void add(final int count) {
+        rows += count;
+        counter.increment(count);
+        long now = System.nanoTime();
+        if(now - lastReport >= PROGRESS_INTERVAL) {
+            lastReport = now;
+            LOG.info("{}: {} paginas, {} por segundo", direction, rows, rowsPerSecond(now));
+        }
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    // Resumen para el log y la respuesta: {"rows": ..., "seconds": ..., "rows_per_second": ...}
+    JsonObject finish() {
+        long now = System.nanoTime();
+        JsonObject summary = new JsonObject()
+                .put("rows", rows)
+                .put("seconds", (now - start) / 1e9)
+                .put("rows_per_second", rowsPerSecond(now));
+        LOG.info("{} terminada: {}", direction, summary.encode());
+        return summary;
+    }
+
+    private long rowsPerSecond(final long now) {
+        long elapsed = Math.max(1, now - start);
+        return rows * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
@@ -0,0 +1,67 @@
+package es.rodrimmb.wiki.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Vertx;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Registro de Micrometer en el que se apuntan las metricas de la wiki y que se publica en /metrics con formato de
+ * Prometheus. Si Vert.x se ha arrancado con WikiLauncher es el mismo registro que usa Vert.x para las suyas (event bus,
+ * servidor HTTP, pools), si no se crea uno solo para las nuestras
+ */
+public final class Metrics {
+
+    // Cada cuanto se mide el retraso del event loop
+    private static final long EVENT_LOOP_LAG_INTERVAL = 100;
+
+    private Metrics() {
+    }
+
+    public static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        if(registry != null) {
+            return registry;
+        }
+        return BackendRegistries.setupBackend(options()).getMeterRegistry();
+    }
+
+    public static MicrometerMetricsOptions options() {
+        return new MicrometerMetricsOptions()
+                .setPrometheusOptions(new VertxPrometheusOptions().setEnabled(true))
+                .setEnabled(true);
+    }
+
+    /*
+     * Timer con histograma para poder calcular percentiles en Prometheus. Limitamos el rango a lo que tiene sentido en
+     * la wiki para no publicar cientos de buckets por cada combinacion de tags
+     */
+    public static Timer.Builder latency(final String name) {
+        return Timer.builder(name)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10));
+    }
+
+    /*
+     * Mide cuanto tarda en ejecutarse un timer periodico respecto a cuando tocaba, es el tiempo que una tarea tiene
+     * que esperar en la cola del event loop del verticle que lo llama
+     */
+    public static void monitorEventLoop(final Vertx vertx) {
+        Timer lag = latency("wiki.eventloop.lag")
+                .tag("thread", Thread.currentThread().getName())
+                .register(registry());
+        long[] last = {System.nanoTime()};
+        vertx.setPeriodic(EVENT_LOOP_LAG_INTERVAL, id -> {
+            long now = System.nanoTime();
+            long delay = now - last[0] - TimeUnit.MILLISECONDS.toNanos(EVENT_LOOP_LAG_INTERVAL);
+            last[0] = now;
+            lag.record(Math.max(0, delay), TimeUnit.NANOSECONDS);
+        });
+    }
+}
@@ -0,0 +1,397 @@
+package es.rodrimmb.wiki.search;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/*
+ * Indice invertido en memoria del nombre y el contenido de las paginas. Cada termino tiene su lista de documentos en un
+ * unico int[] con pares (documento, frecuencia) ordenados por documento, y los resultados se ordenan con BM25.
+ *
+ * Los documentos son numeros internos que solo crecen: al cambiar una pagina se le da un numero nuevo y el viejo queda
+ * marcado como borrado en live hasta que compactIfNeeded() limpia las listas y vuelve a numerar. Asi añadir una pagina
+ * solo escribe al final de las listas y siguen ordenadas sin tener que buscar nada.
+ *
+ * Se comparte entre todas las instancias de WikiDbVerticle (por eso es Shareable y tiene su propio lock). Mientras se
+ * construye desde la DB las escrituras que llegan mandan sobre las filas que lee la construccion, que pueden ser
+ * anteriores.
+ */
+public final class SearchIndex implements Shareable {
+
+    // Parametros habituales de BM25
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // Cada aparicion de un termino en el nombre de la pagina cuenta como varias en el contenido
+    private static final int NAME_WEIGHT = 3;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+    private static final int MAX_QUERY_TERMS = 8;
+    // No merece la pena compactar por unos pocos documentos borrados
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final class Postings {
+        private int[] data = new int[4];
+        private int size;
+
+        private void add(final int doc, final int frequency) {
+            if(size + 2 > data.length) {
+                data = Arrays.copyOf(data, data.length + (data.length >> 1) + 2);
+            }
+            data[size++] = doc;
+            data[size++] = frequency;
+        }
+
+        private int documents() {
+            return size >> 1;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    private final HashMap<String, Integer> docsById = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private String[] ids = new String[16];
+    private String[] names = new String[16];
+    private int[] lengths = new int[16];
+    private int nextDoc;
+    private int liveDocs;
+    private int deadDocs;
+    private long totalLength;
+    // Mientras se construye, paginas escritas despues de empezar: el contenido que tienen o null si se han borrado
+    private Map<String, String> writtenWhileBuilding = new HashMap<>();
+    private volatile boolean ready;
+
+    /*
+     * Pagina leida de la DB al construir el indice. Se ignora si se ha escrito despues de empezar la construccion, y si
+     * solo se ha guardado su contenido se usa ese contenido con el nombre de la fila
+     */
+    public void load(final String id, final String name, final String content) {
+        lock.writeLock().lock();
+        try {
+            if(docsById.containsKey(id)) {
+                return;
+            }
+            if(writtenWhileBuilding != null && writtenWhileBuilding.containsKey(id)) {
+                String written = writtenWhileBuilding.get(id);
+                if(written != null) {
+                    add(id, name, written);
+                }
+                return;
+            }
+            add(id, name, content);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // La construccion ha acabado, a partir de aqui search() da resultados
+    public void ready() {
+        lock.writeLock().lock();
+        try {
+            writtenWhileBuilding = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Pagina nueva
+    public void put(final String id, final String name, final String content) {
+        lock.writeLock().lock();
+        try {
+            add(id, name, content);
+            if(writtenWhileBuilding != null) {
+                writtenWhileBuilding.put(id, content == null ? "" : content);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Contenido nuevo de una pagina, el nombre es el que ya tenia en el indice
+    public void update(final String id, final String content) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docsById.get(id);
+            if(doc != null) {
+                add(id, names[doc], content);
+            }
+            if(writtenWhileBuilding != null) {
+                writtenWhileBuilding.put(id, content == null ? "" : content);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(final String id) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docsById.get(id);
+            if(doc != null) {
+                kill(doc);
+                compactIfNeeded();
+            }
+            if(writtenWhileBuilding != null) {
+                writtenWhileBuilding.put(id, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Hasta limit paginas que tienen alguno de los terminos de la busqueda, {"id": ..., "name": ..., "score": ...} de
+     * mayor a menor puntuacion. Las listas de los terminos se recorren a la vez por orden de documento, asi cada
+     * documento se puntua una sola vez sin acumular las puntuaciones en un mapa
+     */
+    public List<JsonObject> search(final String query, final int limit) {
+        List<String> queryTerms = new ArrayList<>(tokenize(query).keySet());
+        if(queryTerms.size() > MAX_QUERY_TERMS) {
+            queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+        }
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>(queryTerms.size());
+            for(String term : queryTerms) {
+                Postings postings = terms.get(term);
+                if(postings != null) {
+                    lists.add(postings);
+                }
+            }
+            if(lists.isEmpty() || liveDocs == 0) {
+                return Collections.emptyList();
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / liveDocs);
+            double[] idf = new double[lists.size()];
+            for(int i = 0; i < idf.length; i++) {
+                //Las listas aun tienen documentos borrados, cuentan de mas pero solo hasta la siguiente compactacion
+                int df = Math.min(lists.get(i).documents(), liveDocs);
+                idf[i] = Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+            }
+
+            PriorityQueue<double[]> top = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a[0], b[0]));
+            int[] cursors = new int[lists.size()];
+            while(true) {
+                int doc = Integer.MAX_VALUE;
+                for(int i = 0; i < cursors.length; i++) {
+                    Postings postings = lists.get(i);
+                    if(cursors[i] < postings.size) {
+                        doc = Math.min(doc, postings.data[cursors[i]]);
+                    }
+                }
+                if(doc == Integer.MAX_VALUE) {
+                    break;
+                }
+                double score = 0;
+                for(int i = 0; i < cursors.length; i++) {
+                    Postings postings = lists.get(i);
+                    if(cursors[i] < postings.size && postings.data[cursors[i]] == doc) {
+                        int frequency = postings.data[cursors[i] + 1];
+                        double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                        score += idf[i] * frequency * (K1 + 1) / (frequency + norm);
+                        cursors[i] += 2;
+                    }
+                }
+                if(live.get(doc) && (top.size() < limit || score > top.peek()[0])) {
+                    top.add(new double[] {score, doc});
+                    if(top.size() > limit) {
+                        top.poll();
+                    }
+                }
+            }
+
+            List<JsonObject> results = new ArrayList<>(top.size());
+            while(!top.isEmpty()) {
+                double[] hit = top.poll();
+                int doc = (int) hit[1];
+                results.add(new JsonObject()
+                        .put("id", ids[doc])
+                        .put("name", names[doc])
+                        .put("score", Math.round(hit[0] * 1000) / 1000.0));
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int documents() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int terms() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Memoria aproximada del indice con una JVM de 64 bits con oops comprimidos: cabeceras de objeto de 12-16 bytes,
+     * 32 bytes por entrada de HashMap y las cadenas en Latin-1. Sirve para ver como crece, no es exacta
+     */
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for(Map.Entry<String, Postings> entry : terms.entrySet()) {
+                bytes += 32 + stringBytes(entry.getKey()) + 24 + 16 + 4L * entry.getValue().data.length;
+            }
+            for(int doc = 0; doc < nextDoc; doc++) {
+                if(live.get(doc)) {
+                    bytes += 32 + 16 + stringBytes(ids[doc]) + stringBytes(names[doc]);
+                }
+            }
+            bytes += 3 * 16 + (8L + 8L + 4L) * ids.length + live.size() / 8;
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Terminos de un texto con su frecuencia: sin acentos, en minusculas y partido por todo lo que no es letra o
+     * numero. Se usa igual para indexar y para buscar, asi "Canción" encuentra "cancion"
+     */
+    static Map<String, Integer> tokenize(final String text) {
+        //LinkedHashMap para que los terminos de la busqueda conserven el orden en que se escribieron
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        if(text == null || text.isEmpty()) {
+            return frequencies;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for(String term : SEPARATORS.split(normalized)) {
+            if(term.length() >= MIN_TERM_LENGTH && term.length() <= MAX_TERM_LENGTH) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+        }
+        return frequencies;
+    }
+
+    private void add(final String id, final String name, final String content) {
+        Integer old = docsById.get(id);
+        if(old != null) {
+            kill(old);
+        }
+        Map<String, Integer> frequencies = tokenize(content);
+        tokenize(name).forEach((term, count) -> frequencies.merge(term, count * NAME_WEIGHT, Integer::sum));
+
+        int doc = nextDoc++;
+        if(doc == ids.length) {
+            int capacity = ids.length + (ids.length >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        int length = 0;
+        for(Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            terms.computeIfAbsent(entry.getKey(), term -> new Postings()).add(doc, entry.getValue());
+            length += entry.getValue();
+        }
+        ids[doc] = id;
+        names[doc] = name;
+        lengths[doc] = length;
+        live.set(doc);
+        docsById.put(id, doc);
+        liveDocs++;
+        totalLength += length;
+        compactIfNeeded();
+    }
+
+    private void kill(final int doc) {
+        docsById.remove(ids[doc]);
+        live.clear(doc);
+        liveDocs--;
+        deadDocs++;
+        totalLength -= lengths[doc];
+        ids[doc] = null;
+        names[doc] = null;
+    }
+
+    /*
+     * Con mas documentos borrados que vivos se quitan de las listas y se vuelven a numerar los vivos en el mismo
+     * orden, asi las listas siguen ordenadas
+     */
+    private void compactIfNeeded() {
+        if(deadDocs < MIN_DEAD_TO_COMPACT || deadDocs < liveDocs) {
+            return;
+        }
+        int[] renumbered = new int[nextDoc];
+        int count = 0;
+        for(int doc = 0; doc < nextDoc; doc++) {
+            renumbered[doc] = live.get(doc) ? count++ : -1;
+        }
+        Iterator<Postings> iterator = terms.values().iterator();
+        while(iterator.hasNext()) {
+            Postings postings = iterator.next();
+            int size = 0;
+            for(int i = 0; i < postings.size; i += 2) {
+                int doc = renumbered[postings.data[i]];
+                if(doc >= 0) {
+                    postings.data[size++] = doc;
+                    postings.data[size++] = postings.data[i + 1];
+                }
+            }
+            if(size == 0) {
+                iterator.remove();
+            } else {
+                postings.size = size;
+                postings.data = Arrays.copyOf(postings.data, size);
+            }
+        }
+        int capacity = Math.max(16, count + (count >> 1));
+        String[] newIds = new String[capacity];
+        String[] newNames = new String[capacity];
+        int[] newLengths = new int[capacity];
+        live.clear();
+        for(int doc = 0; doc < nextDoc; doc++) {
+            int target = renumbered[doc];
+            if(target >= 0) {
+                newIds[target] = ids[doc];
+                newNames[target] = names[doc];
+                newLengths[target] = lengths[doc];
+                docsById.put(ids[doc], target);
+                live.set(target);
+            }
+        }
+        ids = newIds;
+        names = newNames;
+        lengths = newLengths;
+        nextDoc = count;
+        deadDocs = 0;
+    }
+
+    private static long stringBytes(final String value) {
+        return value == null ? 0 : 40 + value.length();
+    }
+}
@@ -0,0 +1,56 @@
+<#include "header.ftl">
+
+<div class="d-flex flex-column flex-md-row align-items-center p-3 px-md-4 mb-3 bg-white border-bottom shadow-sm">
+    <h1 class="my-0 mr-md-auto font-weight-normal display-4">History of { ${name?html} }</h1>
+
+    <a class="btn btn-outline-secondary mr-2" href="/wiki/${id}" role="button">Page</a>
+    <a class="btn btn-outline-primary" href="/" role="button" aria-pressed="true">Home</a>
+</div>
+
+<div class="container">
+    <#if diff gt 0>
+        <div class="row">
+            <h2>Changes in revision ${diff?c}</h2>
+        </div>
+        <div class="row">
+            <pre class="col-md-12 bg-light p-3">${changes?html}</pre>
+        </div>
+    </#if>
+    <div class="row">
+        <#if revisions?has_content>
+            <table class="table table-sm">
+                <thead>
+                    <tr>
+                        <th>Revision</th>
+                        <th>Date</th>
+                        <th>Stored as</th>
+                        <th class="text-right">Content bytes</th>
+                        <th class="text-right">Stored bytes</th>
+                    </tr>
+                </thead>
+                <tbody>
+                    <#list revisions as revision>
+                        <tr>
+                            <td><a href="/wiki/${id}/history?diff=${revision.revision?c}">${revision.revision?c}</a></td>
+                            <td>${revision.creation_date}</td>
+                            <td><#if revision.snapshot>Full copy<#else>Delta</#if></td>
+                            <td class="text-right">${revision.content_size?c}</td>
+                            <td class="text-right">${revision.stored_size?c}</td>
+                        </tr>
+                    </#list>
+                </tbody>
+                <tfoot>
+                    <tr>
+                        <th colspan="3">Total</th>
+                        <th class="text-right">${contentSize?c}</th>
+                        <th class="text-right">${storedSize?c}</th>
+                    </tr>
+                </tfoot>
+            </table>
+        <#else>
+            <p>This page has no revisions yet</p>
+        </#if>
+    </div>
+</div>
+
+<#include "footer.ftl">
\ No newline at end of file
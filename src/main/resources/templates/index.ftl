@@ -3,6 +3,18 @@
 <div class="d-flex flex-column flex-md-row align-items-center p-3 px-md-4 mb-3 bg-white border-bottom shadow-sm">
     <h1 class="my-0 mr-md-auto font-weight-normal display-1">Wiki home</h1>
 
+    <form action="/search" method="get" class="mr-md-3">
+        <div class="form-row align-items-center">
+            <div class="col-auto">
+                <label class="sr-only" for="q">Search</label>
+                <input type="search" class="form-control mb-2" id="q" name="q" placeholder="Search pages">
+            </div>
+            <div class="col-auto">
+                <button type="submit" class="btn btn-outline-secondary mb-2">Search</button>
+            </div>
+        </div>
+    </form>
+
     <form action="/create" method="post">
         <div class="form-row align-items-center">
             <div class="col-auto">
@@ -29,10 +41,22 @@
                     </li>
                 </#list>
             </ul>
-        <#else>
+        <#elseif first>
             <p>The Wiki is empty! Create new page</p>
+        <#else>
+            <p>There are no more pages</p>
         </#if>
     </div>
+    <nav class="row">
+        <ul class="pagination">
+            <#if !first>
+                <li class="page-item"><a class="page-link" href="/">First</a></li>
+            </#if>
+            <#if next??>
+                <li class="page-item"><a class="page-link" href="/?after=${next?url('UTF-8')}">Next</a></li>
+            </#if>
+        </ul>
+    </nav>
 </div>
 
 <#include "footer.ftl">
\ No newline at end of file
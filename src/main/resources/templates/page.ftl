@@ -3,6 +3,7 @@
 <div class="d-flex flex-column flex-md-row align-items-center p-3 px-md-4 mb-3 bg-white border-bottom shadow-sm">
     <h1 class="my-0 mr-md-auto font-weight-normal display-1">{ ${name} }</h1>
 
+    <a class="btn btn-outline-secondary mr-2" href="/wiki/${id}/history" role="button">History</a>
     <a class="btn btn-outline-primary" href="/" role="button" aria-pressed="true">Home</a>
 </div>
 
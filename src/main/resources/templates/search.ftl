@@ -0,0 +1,39 @@
+<#include "header.ftl">
+
+<div class="d-flex flex-column flex-md-row align-items-center p-3 px-md-4 mb-3 bg-white border-bottom shadow-sm">
+    <h1 class="my-0 mr-md-auto font-weight-normal display-4"><a href="/">Wiki home</a></h1>
+
+    <form action="/search" method="get">
+        <div class="form-row align-items-center">
+            <div class="col-auto">
+                <label class="sr-only" for="q">Search</label>
+                <input type="search" class="form-control mb-2" id="q" name="q" value="${query?html}"
+                       placeholder="Search pages">
+            </div>
+            <div class="col-auto">
+                <button type="submit" class="btn btn-outline-secondary mb-2">Search</button>
+            </div>
+        </div>
+    </form>
+</div>
+
+<div class="container">
+    <div class="row">
+        <h2>Results for "${query?html}":</h2>
+    </div>
+    <div class="row">
+        <#if results?has_content>
+            <ul>
+                <#list results as result>
+                    <li>
+                        <a href="/wiki/${result.id}">${result.name?html}</a>
+                    </li>
+                </#list>
+            </ul>
+        <#else>
+            <p>No pages found</p>
+        </#if>
+    </div>
+</div>
+
+<#include "footer.ftl">
\ No newline at end of file
@@ -2,6 +2,8 @@ package es.rodrimmb.wiki;
 
 import es.rodrimmb.wiki.database.WikiDbVerticle;
 import io.vertx.core.*;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
@@ -15,7 +17,13 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -41,9 +49,10 @@ class MainVerticleTest {
     }
 
     @AfterEach
-    void cleanup() {
+    void cleanup(VertxTestContext testContext) {
         assertThat(vertx.deploymentIDs().size(), is(3));
-        vertx.close();
+        //Esperamos a que se cierre para que el siguiente test pueda volver a usar el puerto 8080
+        vertx.close(testContext.completing());
     }
 
     @Test
@@ -60,6 +69,24 @@ class MainVerticleTest {
                 }));
     }
 
+    @Test
+    @DisplayName("📈 Metrics in Prometheus format")
+    void metrics(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx);
+        webClient.get(8080, "localhost", "/hello")
+                .send(testContext.succeeding(hello -> webClient.get(8080, "localhost", "/metrics")
+                        .as(BodyCodec.string())
+                        .send(testContext.succeeding(resp -> {
+                            testContext.verify(() -> {
+                                assertThat(resp.statusCode(), is(200));
+                                assertThat(resp.body(), containsString("wiki_http_requests_seconds_count{method=\"GET\",route=\"/hello\",status=\"200\",}"));
+                                assertThat(resp.body(), containsString("wiki_db_queries_seconds_count{outcome=\"success\",query=\"create_pages_table\",}"));
+                                assertThat(resp.body(), containsString("wiki_db_pool_connections{pool=\""));
+                                testContext.completeNow();
+                            });
+                        }))));
+    }
+
     @Test
     @DisplayName("🏠‍️ Start a server and perform requests main page")
     void return_html(VertxTestContext testContext) {
@@ -226,6 +253,306 @@ class MainVerticleTest {
                 }));
     }
 
+    @Test
+    @DisplayName("🌊 Stream all pages as NDJSON")
+    void api_stream_pages(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        JsonObject page1 = new JsonObject().put("id", UUID.randomUUID().toString()).put("name", "stream 1");
+        JsonObject page2 = new JsonObject().put("id", UUID.randomUUID().toString()).put("name", "stream 2");
+
+        webClient.post("/api/pages").sendJsonObject(page1, testContext.succeeding(create1 -> {
+            webClient.post("/api/pages").sendJsonObject(page2, testContext.succeeding(create2 -> {
+                webClient.get("/api/pages/stream")
+                        .as(BodyCodec.string())
+                        .send(testContext.succeeding(resp -> {
+                            testContext.verify(() -> {
+                                assertThat(resp.statusCode(), is(200));
+                                assertThat(resp.getHeader("Content-Type"), is("application/x-ndjson"));
+                                String[] lines = resp.body().split("\n");
+                                assertThat(lines.length, is(2));
+                                assertThat(new JsonObject(lines[0]).getString("name"), startsWith("stream"));
+                                assertThat(new JsonObject(lines[1]).getString("name"), startsWith("stream"));
+                                testContext.completeNow();
+                            });
+                        }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🏷️ Conditional GET with ETag in API")
+    void api_conditional_get(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String id = UUID.randomUUID().toString();
+        JsonObject page = new JsonObject().put("id", id).put("name", "etag");
+
+        webClient.post("/api/pages").sendJsonObject(page, testContext.succeeding(create -> {
+            webClient.get("/api/pages/" + id).send(testContext.succeeding(first -> {
+                String etag = first.getHeader("ETag");
+                webClient.get("/api/pages/" + id)
+                        .putHeader("If-None-Match", etag)
+                        .send(testContext.succeeding(notModified -> {
+                            JsonObject update = new JsonObject().put("content", "# Nuevo contenido");
+                            webClient.put("/api/pages/" + id).sendJsonObject(update, testContext.succeeding(save -> {
+                                webClient.get("/api/pages/" + id)
+                                        .putHeader("If-None-Match", etag)
+                                        .send(testContext.succeeding(modified -> {
+                                            testContext.verify(() -> {
+                                                assertThat(first.statusCode(), is(200));
+                                                assertThat(etag, is(notNullValue()));
+                                                assertThat(notModified.statusCode(), is(304));
+                                                assertThat(notModified.getHeader("ETag"), is(etag));
+                                                assertThat(modified.statusCode(), is(200));
+                                                assertThat(modified.getHeader("ETag"), is(not(etag)));
+                                                testContext.completeNow();
+                                            });
+                                        }));
+                            }));
+                        }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🗜️ Home page compressed with gzip and refreshed after a new page")
+    void compressed_home(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        JsonObject page = new JsonObject().put("id", UUID.randomUUID().toString()).put("name", "gzip page");
+
+        webClient.get("/").putHeader("Accept-Encoding", "gzip").send(testContext.succeeding(before -> {
+            webClient.post("/api/pages").sendJsonObject(page, testContext.succeeding(create -> {
+                webClient.get("/").putHeader("Accept-Encoding", "gzip").send(testContext.succeeding(after -> {
+                    testContext.verify(() -> {
+                        assertThat(before.statusCode(), is(200));
+                        assertThat(before.getHeader("Content-Encoding"), is("gzip"));
+                        assertThat(gunzip(before.body()), not(containsString("gzip page")));
+                        assertThat(after.getHeader("Content-Encoding"), is("gzip"));
+                        assertThat(gunzip(after.body()), containsString("gzip page"));
+                        testContext.completeNow();
+                    });
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("📄 Page view served from the response cache until the page changes")
+    void cached_page_view(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String id = UUID.randomUUID().toString();
+        JsonObject page = new JsonObject().put("id", id).put("name", "cached page");
+        List<HttpResponse<String>> views = new ArrayList<>();
+
+        Promise<HttpResponse<Buffer>> created = Promise.promise();
+        webClient.post("/api/pages").sendJsonObject(page, created);
+        created.future()
+                .compose(resp -> save(webClient, id, "# First"))
+                .compose(resp -> view(webClient, id, views))
+                .compose(resp -> view(webClient, id, views))
+                .compose(resp -> save(webClient, id, "# Second"))
+                .compose(resp -> view(webClient, id, views))
+                .onComplete(testContext.succeeding(resp -> testContext.verify(() -> {
+                    assertThat(views.get(0).body(), containsString("<h1>First</h1>"));
+                    // La segunda sale de la cache de respuestas, la tercera se vuelve a renderizar
+                    assertThat(views.get(1).getHeader("ETag"), is(views.get(0).getHeader("ETag")));
+                    assertThat(views.get(1).body(), is(views.get(0).body()));
+                    assertThat(views.get(2).getHeader("ETag"), not(views.get(0).getHeader("ETag")));
+                    assertThat(views.get(2).body(), containsString("<h1>Second</h1>"));
+                    testContext.completeNow();
+                })));
+    }
+
+    private Future<HttpResponse<Buffer>> save(final WebClient webClient, final String id, final String content) {
+        Promise<HttpResponse<Buffer>> promise = Promise.promise();
+        webClient.put("/api/pages/" + id).sendJsonObject(new JsonObject().put("content", content), promise);
+        return promise.future();
+    }
+
+    private Future<HttpResponse<String>> view(final WebClient webClient, final String id,
+                                              final List<HttpResponse<String>> views) {
+        Promise<HttpResponse<String>> promise = Promise.promise();
+        webClient.get("/wiki/" + id).as(BodyCodec.string()).send(promise);
+        return promise.future().onSuccess(views::add);
+    }
+
+    @Test
+    @DisplayName("🔎 Search pages by content in API")
+    void api_search(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String id = UUID.randomUUID().toString();
+        String word = "zq" + UUID.randomUUID().toString().replace("-", "");
+        JsonObject page = new JsonObject().put("id", id).put("name", "search " + word.substring(0, 8));
+        JsonObject update = new JsonObject().put("content", "# Busqueda\n\nPagina con la palabra " + word);
+
+        webClient.post("/api/pages").sendJsonObject(page, testContext.succeeding(create -> {
+            webClient.put("/api/pages/" + id).sendJsonObject(update, testContext.succeeding(save -> {
+                webClient.get("/api/search").addQueryParam("q", word.toUpperCase())
+                        .send(testContext.succeeding(search -> {
+                            webClient.get("/api/search").send(testContext.succeeding(noQuery -> {
+                                testContext.verify(() -> {
+                                    assertThat(search.statusCode(), is(200));
+                                    JsonArray results = search.bodyAsJsonObject().getJsonArray("results");
+                                    assertThat(results.size(), is(1));
+                                    assertThat(results.getJsonObject(0).getString("id"), is(id));
+                                    assertThat(noQuery.statusCode(), is(400));
+                                    testContext.completeNow();
+                                });
+                            }));
+                        }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("💡 Suggest page names by prefix")
+    void api_suggest(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String prefix = "suggest " + UUID.randomUUID().toString().substring(0, 8);
+        JsonArray pages = new JsonArray()
+                .add(new JsonObject().put("op", "create").put("id", UUID.randomUUID().toString())
+                        .put("name", prefix + " beta"))
+                .add(new JsonObject().put("op", "create").put("id", UUID.randomUUID().toString())
+                        .put("name", prefix + " alpha"));
+
+        webClient.post("/api/batch").sendJsonObject(new JsonObject().put("operations", pages),
+                testContext.succeeding(create -> {
+            webClient.get("/api/pages/suggest").addQueryParam("prefix", prefix.toUpperCase())
+                    .send(testContext.succeeding(suggest -> {
+                        testContext.verify(() -> {
+                            assertThat(suggest.statusCode(), is(200));
+                            JsonArray suggested = suggest.bodyAsJsonObject().getJsonArray("pages");
+                            assertThat(suggested.size(), is(2));
+                            assertThat(suggested.getJsonObject(0).getString("name"), is(prefix + " alpha"));
+                            assertThat(suggested.getJsonObject(1).getString("name"), is(prefix + " beta"));
+                            testContext.completeNow();
+                        });
+                    }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🚦 Admission limits for DB routes exposed in metrics")
+    void admission_limits(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        webClient.get("/api/pages").send(testContext.succeeding(pages -> webClient.get("/metrics")
+                .as(BodyCodec.string())
+                .send(testContext.succeeding(resp -> {
+                    testContext.verify(() -> {
+                        assertThat(pages.statusCode(), is(200));
+                        assertThat(resp.body(), containsString("wiki_http_admission_limit{kind=\"read\",}"));
+                        // Sin escrituras el limite de escrituras sigue en el inicial
+                        assertThat(resp.body(), containsString("wiki_http_admission_limit{kind=\"write\",} 16.0"));
+                        assertThat(resp.body(), containsString("wiki_http_admission_in_flight{kind=\"read\",} 0.0"));
+                        assertThat(resp.body(), containsString("wiki_http_admission_rejected_total{kind=\"read\",} 0.0"));
+                        testContext.completeNow();
+                    });
+                }))));
+    }
+
+    @Test
+    @DisplayName("🕰️ Page history and diffs between revisions in API")
+    void api_revisions(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String id = UUID.randomUUID().toString();
+        JsonObject page = new JsonObject().put("id", id).put("name", "history " + id.substring(0, 8));
+
+        webClient.post("/api/pages").sendJsonObject(page, testContext.succeeding(create -> {
+            webClient.put("/api/pages/" + id).sendJsonObject(new JsonObject().put("content", "# One\n"),
+                    testContext.succeeding(save1 -> {
+                webClient.put("/api/pages/" + id).sendJsonObject(new JsonObject().put("content", "# One\nTwo\n"),
+                        testContext.succeeding(save2 -> {
+                    webClient.get("/api/pages/" + id + "/revisions").send(testContext.succeeding(list -> {
+                        webClient.get("/api/pages/" + id + "/revisions/1").send(testContext.succeeding(first -> {
+                            webClient.get("/api/pages/" + id + "/revisions/2/diff")
+                                    .send(testContext.succeeding(diff -> {
+                                webClient.get("/api/pages/" + id + "/revisions/3")
+                                        .send(testContext.succeeding(missing -> {
+                                    testContext.verify(() -> {
+                                        JsonArray revisions = list.bodyAsJsonObject().getJsonArray("revisions");
+                                        assertThat(revisions.size(), is(2));
+                                        assertThat(revisions.getJsonObject(0).getLong("revision"), is(2L));
+                                        assertThat(revisions.getJsonObject(0).getLong("content_size"), is(10L));
+                                        assertThat(first.bodyAsJsonObject().getJsonObject("revision")
+                                                .getString("content"), is("# One\n"));
+                                        assertThat(diff.bodyAsJsonObject().getJsonObject("diff").getString("diff"),
+                                                is("@@ -1,1 +1,2 @@\n # One\n+Two\n"));
+                                        assertThat(missing.statusCode(), is(404));
+                                        testContext.completeNow();
+                                    });
+                                }));
+                            }));
+                        }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🚚 Import and export the wiki in NDJSON")
+    void api_import_export(VertxTestContext testContext) {
+        WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080));
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        // La tercera linea repite el id de la primera y se salta
+        Buffer ndjson = Buffer.buffer()
+                .appendString(new JsonObject().put("id", id1).put("name", "imported 1").put("content", "# One")
+                        .put("creation_date", "2020-01-02T03:04:05.123456Z").encode() + "\n")
+                .appendString(new JsonObject().put("id", id2).put("name", "imported 2").encode() + "\n")
+                .appendString(new JsonObject().put("id", id1).put("name", "imported 3").encode() + "\n");
+
+        webClient.post("/api/import").sendBuffer(ndjson, testContext.succeeding(imported -> {
+            webClient.post("/api/import").sendBuffer(Buffer.buffer("{\"id\": \"not-a-uuid\"}\n"),
+                    testContext.succeeding(bad -> {
+                webClient.get("/api/export").as(BodyCodec.string()).send(testContext.succeeding(exported -> {
+                    webClient.get("/api/pages/" + id1).send(testContext.succeeding(page -> {
+                        testContext.verify(() -> {
+                            assertThat(imported.statusCode(), is(200));
+                            assertThat(imported.bodyAsJsonObject().getInteger("imported"), is(2));
+                            assertThat(imported.bodyAsJsonObject().getInteger("skipped"), is(1));
+                            assertThat(bad.statusCode(), is(400));
+                            assertThat(bad.bodyAsJsonObject().getInteger("line"), is(1));
+                            assertThat(exported.getHeader("Content-Type"), is("application/x-ndjson"));
+                            String[] lines = exported.body().split("\n");
+                            assertThat(lines.length, is(2));
+                            JsonObject first = new JsonObject(lines[0]).getString("id").equals(id1)
+                                    ? new JsonObject(lines[0]) : new JsonObject(lines[1]);
+                            assertThat(first.getString("content"), is("# One"));
+                            assertThat(first.getString("creation_date"), is("2020-01-02T03:04:05.123456Z"));
+                            assertThat(page.bodyAsJsonObject().getJsonObject("page").getString("html"),
+                                    is("<h1>One</h1>\n"));
+                            testContext.completeNow();
+                        });
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    private static String gunzip(final Buffer body) throws IOException {
+        try(GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
     @Test
     @DisplayName("🎯 All CRUD operations in API with promises.")
     void api_crud_with_promises(VertxTestContext context) {
@@ -1,7 +1,13 @@
 package es.rodrimmb.wiki.database;
 
+import es.rodrimmb.wiki.metrics.Metrics;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.junit5.VertxExtension;
 import io.vertx.junit5.VertxTestContext;
@@ -11,11 +17,31 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 @ExtendWith(VertxExtension.class)
 class WikiDbServiceTest {
@@ -71,6 +97,7 @@ class WikiDbServiceTest {
                                 assertThat(json2.getString("name"), is(name));
                                 assertThat(json2.getString("creation_date"), is(notNullValue()));
                                 assertThat(json2.getString("update_date"), is(notNullValue()));
+                                assertThat(json2.getString("html"), is("<p>Some content</p>\n"));
                             });
 
                             service.deletePage(id, testContext.succeeding(v3 -> {
@@ -87,4 +114,533 @@ class WikiDbServiceTest {
             }));
         }));
     }
+
+    @Test
+    @DisplayName("📣 Writes publish cache invalidations")
+    void writes_publish_invalidations(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        service.createPage(id, "invalidation", testContext.succeeding(v1 -> {
+            service.fetchPageById(id, testContext.succeeding(json1 -> {
+                vertx.eventBus().<JsonObject>consumer(DatabaseConstants.DEFAULT_CONFIG_WIKIDB_INVALIDATIONS_ADDRESS, message -> {
+                    testContext.verify(() -> {
+                        assertThat(message.body().getString("id"), is(id));
+                        assertThat(message.body().getBoolean("listing"), is(false));
+                    });
+                    //La pagina cacheada antes de guardar no se puede servir despues
+                    service.fetchPageById(id, testContext.succeeding(json2 -> {
+                        testContext.verify(() -> {
+                            assertThat(json2.getString("content"), is("New content"));
+                            testContext.completeNow();
+                        });
+                    }));
+                });
+                service.savePage(id, "New content", testContext.succeeding(v2 -> {}));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("📑 Keyset pagination over pages")
+    void paginated_pages(VertxTestContext testContext) {
+        service.createPage(UUID.randomUUID().toString(), "b", testContext.succeeding(v1 -> {
+            service.createPage(UUID.randomUUID().toString(), "a", testContext.succeeding(v2 -> {
+                service.createPage(UUID.randomUUID().toString(), "c", testContext.succeeding(v3 -> {
+                    service.fetchPages("", 2, testContext.succeeding(page1 -> {
+                        testContext.verify(() -> {
+                            assertThat(page1.getJsonArray("pages").size(), is(2));
+                            assertThat(page1.getJsonArray("pages").getJsonObject(0).getString("name"), is("a"));
+                            assertThat(page1.getJsonArray("pages").getJsonObject(1).getString("name"), is("b"));
+                            assertThat(page1.getString("next"), is("b"));
+                        });
+                        service.fetchPages(page1.getString("next"), 2, testContext.succeeding(page2 -> {
+                            testContext.verify(() -> {
+                                assertThat(page2.getJsonArray("pages").size(), is(1));
+                                assertThat(page2.getJsonArray("pages").getJsonObject(0).getString("name"), is("c"));
+                                assertThat(page2.containsKey("next"), is(false));
+                                testContext.completeNow();
+                            });
+                        }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("📦 Bulk operations over pages")
+    void bulk_pages(VertxTestContext testContext) {
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        String missing = UUID.randomUUID().toString();
+        List<JsonObject> pages = Arrays.asList(
+                new JsonObject().put("id", id1).put("name", "Bulk 1"),
+                new JsonObject().put("id", id2).put("name", "Bulk 2"));
+        service.createPages(pages, testContext.succeeding(v1 -> {
+            List<JsonObject> contents = Arrays.asList(
+                    new JsonObject().put("id", id1).put("content", "Bulk content"),
+                    new JsonObject().put("id", missing).put("content", "Nothing"));
+            service.savePages(contents, testContext.succeeding(saved -> {
+                testContext.verify(() -> assertThat(saved, is(Arrays.asList(true, false))));
+                service.fetchPagesByIds(Arrays.asList(id2, missing, id1), testContext.succeeding(fetched -> {
+                    testContext.verify(() -> {
+                        assertThat(fetched.get(0).getString("name"), is("bulk 2"));
+                        assertThat(fetched.get(1).getBoolean("found"), is(false));
+                        assertThat(fetched.get(2).getString("content"), is("Bulk content"));
+                    });
+                    service.deletePages(Arrays.asList(id1, missing), testContext.succeeding(deleted -> {
+                        testContext.verify(() -> assertThat(deleted, is(Arrays.asList(true, false))));
+                        service.fetchAllPages(testContext.succeeding(all -> {
+                            testContext.verify(() -> {
+                                assertThat(all.size(), is(1));
+                                testContext.completeNow();
+                            });
+                        }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🚧 Bulk operations reject more than MAX_BATCH_SIZE pages")
+    void bulk_limits(VertxTestContext testContext) {
+        List<JsonObject> creates = new ArrayList<>();
+        List<JsonObject> saves = new ArrayList<>();
+        for(int i = 0; i <= DatabaseConstants.MAX_BATCH_SIZE; i++) {
+            String id = UUID.randomUUID().toString();
+            creates.add(new JsonObject().put("id", id).put("name", "Too many " + i));
+            saves.add(new JsonObject().put("id", id).put("content", "Too many"));
+        }
+        String limit = "Too many pages, the limit is " + DatabaseConstants.MAX_BATCH_SIZE;
+        service.createPages(creates, testContext.failing(created -> {
+            testContext.verify(() -> assertThat(created.getMessage(), is(limit)));
+            service.savePages(saves, testContext.failing(saved -> {
+                testContext.verify(() -> assertThat(saved.getMessage(), is(limit)));
+                // Con una pagina menos entran en el limite
+                service.createPages(creates.subList(1, creates.size()), testContext.succeeding(v -> {
+                    service.savePages(saves.subList(1, saves.size()), testContext.succeeding(updated -> {
+                        testContext.verify(() -> {
+                            assertThat(updated.size(), is(DatabaseConstants.MAX_BATCH_SIZE));
+                            assertThat(updated.contains(false), is(false));
+                            testContext.completeNow();
+                        });
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🔎 Find or create a page by name")
+    void find_or_create_page(VertxTestContext testContext) {
+        service.findOrCreatePage("Find Me", testContext.succeeding(created -> {
+            testContext.verify(() -> assertThat(created.getBoolean("created"), is(true)));
+            service.findOrCreatePage("find me", testContext.succeeding(found -> {
+                testContext.verify(() -> {
+                    assertThat(found.getBoolean("created"), is(false));
+                    assertThat(found.getString("id"), is(created.getString("id")));
+                });
+                service.deletePage(found.getString("id"), testContext.succeeding(v -> {
+                    service.findOrCreatePage("find me", testContext.succeeding(recreated -> {
+                        testContext.verify(() -> {
+                            assertThat(recreated.getBoolean("created"), is(true));
+                            assertThat(recreated.getString("id"), is(not(created.getString("id"))));
+                            testContext.completeNow();
+                        });
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🛰️ Pages written by another node are found by name and listed")
+    void pages_from_another_node(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        whenDirectoryReady(() -> vertx.<Void>executeBlocking(blocking -> {
+            // Otro nodo escribe en la misma DB, el directorio de este nodo no se entera
+            try(Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:wiki",
+                    DatabaseConstants.DEFAULT_CONFIG_WIKIDB_JDBC_USER,
+                    DatabaseConstants.DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD);
+                PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO pages (id, name, creation_date) VALUES (?, 'other node', CURRENT_TIMESTAMP)")) {
+                insert.setString(1, id);
+                insert.executeUpdate();
+                blocking.complete();
+            } catch(SQLException e) {
+                blocking.fail(e);
+            }
+        }, testContext.succeeding(inserted -> {
+            service.fetchPageByName("Other Node", testContext.succeeding(page -> {
+                testContext.verify(() -> {
+                    assertThat(page.getBoolean("found"), is(true));
+                    assertThat(page.getString("id"), is(id));
+                });
+                service.fetchPages(null, 10, testContext.succeeding(listing -> {
+                    testContext.verify(() -> assertThat(listing.getJsonArray("pages").getJsonObject(0)
+                            .getString("id"), is(id)));
+                    service.findOrCreatePage("other node", testContext.succeeding(found -> {
+                        testContext.verify(() -> {
+                            assertThat(found.getBoolean("created"), is(false));
+                            assertThat(found.getString("id"), is(id));
+                            testContext.completeNow();
+                        });
+                    }));
+                }));
+            }));
+        })));
+    }
+
+    @Test
+    @DisplayName("🔁 The search index and page directory loads retry a failed query")
+    void background_loads_retry(VertxTestContext testContext) throws IOException {
+        // Las cargas leen de una vista que todavia no existe, sus consultas fallan hasta que se crea
+        Path queries = Files.createTempFile("db-queries-retry", ".properties");
+        Files.writeString(queries, Files.readString(Paths.get("src/test/resources/db-queries-test.properties"))
+                .replace("content_deflate FROM pages WHERE delete_date IS NULL AND name > ?",
+                        "content_deflate FROM pages_loaded WHERE delete_date IS NULL AND name > ?")
+                .replace("pages-after=SELECT id, name FROM pages", "pages-after=SELECT id, name FROM pages_loaded"));
+        JsonObject config = new JsonObject()
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki-retry;shutdown=true")
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(WikiDbVerticle.CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE, queries.toString())
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+        vertx.undeploy(vertx.deploymentIDs().iterator().next(), testContext.succeeding(undeployed -> vertx
+                .deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config),
+                        testContext.succeeding(deployed -> service.searchPages("page", 10,
+                                testContext.failing(unavailable -> vertx.<Void>executeBlocking(blocking -> {
+                                    try(Connection connection = DriverManager.getConnection(
+                                            "jdbc:hsqldb:mem:wiki-retry",
+                                            DatabaseConstants.DEFAULT_CONFIG_WIKIDB_JDBC_USER,
+                                            DatabaseConstants.DEFAULT_CONFIG_WIKIDB_JDBC_PASSWORD);
+                                        PreparedStatement view = connection.prepareStatement(
+                                                "CREATE VIEW pages_loaded AS SELECT * FROM pages")) {
+                                        view.executeUpdate();
+                                        blocking.complete();
+                                    } catch(SQLException e) {
+                                        blocking.fail(e);
+                                    }
+                                }, testContext.succeeding(created -> whenSearchReady(() -> whenDirectoryReady(
+                                        testContext::completeNow))))))))));
+    }
+
+    private void whenSearchReady(final Runnable next) {
+        service.searchPages("page", 1, ready -> {
+            if(ready.succeeded()) {
+                next.run();
+            } else {
+                vertx.setTimer(10, timer -> whenSearchReady(next));
+            }
+        });
+    }
+
+    // Vuelve a desplegar el verticle sobre otra base de datos en memoria con las opciones del test
+    private void redeploy(final VertxTestContext testContext, final String database, final JsonObject options,
+                          final Runnable next) {
+        JsonObject config = new JsonObject()
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:" + database + ";shutdown=true")
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(WikiDbVerticle.CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE,
+                        "src/test/resources/db-queries-test.properties")
+                .put(WikiDbVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .mergeIn(options);
+        vertx.undeploy(vertx.deploymentIDs().iterator().next(), testContext.succeeding(undeployed -> vertx
+                .deployVerticle(new WikiDbVerticle(), new DeploymentOptions().setConfig(config),
+                        testContext.succeeding(deployed -> next.run()))));
+    }
+
+    // Espera a que el directorio de paginas termine de cargarse, hasta entonces suggestPages falla
+    private void whenDirectoryReady(final Runnable next) {
+        service.suggestPages("", 1, ready -> {
+            if(ready.succeeded()) {
+                next.run();
+            } else {
+                vertx.setTimer(10, timer -> whenDirectoryReady(next));
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("🗜️ Large content stored compressed")
+    void compressed_content(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        StringBuilder content = new StringBuilder();
+        for(int i = 0; i < 200; i++) {
+            content.append("* Line ").append(i).append(" of a long and repetitive page\n");
+        }
+        double compressed = Metrics.registry().counter("wiki.content.bytes", "form", "compressed").count();
+        JsonObject options = new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_CONTENT_COMPRESSION_ENABLED, true)
+                .put(DatabaseConstants.CONFIG_WIKIDB_CONTENT_COMPRESSION_THRESHOLD, 1024);
+        redeploy(testContext, "wiki-compressed", options, () -> service.createPage(id, "compressed",
+                testContext.succeeding(v1 -> {
+            service.savePage(id, content.toString(), testContext.succeeding(v2 -> {
+                service.fetchPageById(id, testContext.succeeding(page -> {
+                    testContext.verify(() -> {
+                        assertThat(page.getString("content"), is(content.toString()));
+                        assertThat(page.getString("html").startsWith("<ul>"), is(true));
+                        assertThat(Metrics.registry().counter("wiki.content.bytes", "form", "compressed").count(),
+                                is(greaterThan(compressed)));
+                        testContext.completeNow();
+                    });
+                }));
+            }));
+        })));
+    }
+    @Test
+    @DisplayName("🕰️ Revision history with deltas and snapshots")
+    void revision_history(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        List<String> versions = Arrays.asList(
+                "# Title\n\nFirst paragraph\n",
+                "# Title\n\nFirst paragraph\nSecond paragraph\n",
+                "# New title\n\nFirst paragraph\nSecond paragraph\n",
+                "# New title\n\nSecond paragraph\n",
+                "# New title\n\nSecond paragraph\nThird paragraph");
+        List<JsonObject> saves = Arrays.asList(
+                new JsonObject().put("id", id).put("content", versions.get(0)),
+                new JsonObject().put("id", id).put("content", versions.get(1)),
+                new JsonObject().put("id", id).put("content", versions.get(2)),
+                new JsonObject().put("id", id).put("content", versions.get(3)));
+        JsonObject options = new JsonObject().put(DatabaseConstants.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 3);
+        redeploy(testContext, "wiki-history", options, () -> service.createPage(id, "history",
+                testContext.succeeding(v1 -> {
+            service.savePages(saves, testContext.succeeding(v2 -> {
+                service.savePage(id, versions.get(4), testContext.succeeding(v3 -> {
+                    service.fetchRevisions(id, 0, 10, testContext.succeeding(revisions -> {
+                        testContext.verify(() -> {
+                            assertThat(revisions.size(), is(5));
+                            assertThat(revisions.get(0).getLong("revision"), is(5L));
+                            // Con snapshot_interval 3 hay copia completa en las revisiones 1 y 4
+                            assertThat(revisions.get(1).getBoolean("snapshot"), is(true));
+                            assertThat(revisions.get(2).getBoolean("snapshot"), is(false));
+                            assertThat(revisions.get(4).getBoolean("snapshot"), is(true));
+                        });
+                        service.fetchRevision(id, 3, testContext.succeeding(third -> {
+                            testContext.verify(() -> assertThat(third.getString("content"), is(versions.get(2))));
+                            service.fetchRevision(id, 5, testContext.succeeding(fifth -> {
+                                testContext.verify(() -> assertThat(fifth.getString("content"), is(versions.get(4))));
+                                service.diffRevisions(id, 2, 3, testContext.succeeding(diff -> {
+                                    testContext.verify(() -> {
+                                        assertThat(diff.getString("diff"), is("@@ -1,4 +1,4 @@\n"
+                                                + "-# Title\n+# New title\n \n First paragraph\n Second paragraph\n"));
+                                        testContext.completeNow();
+                                    });
+                                }));
+                            }));
+                        }));
+                    }));
+                }));
+            }));
+        })));
+    }
+
+    @Test
+    @DisplayName("⏳ Write-behind collapses repeated saves")
+    void write_behind_saves(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        // Con una ventana tan larga solo se escribe al cerrar
+        WikiDbServiceWriteBehind writeBehind = new WikiDbServiceWriteBehind(vertx, service, new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, 60000L));
+        service.createPage(id, "autosave", testContext.succeeding(v1 -> {
+            writeBehind.savePage(id, "First draft", testContext.succeeding(v2 -> {
+                writeBehind.savePage(id, "Second draft", testContext.succeeding(v3 -> {
+                    writeBehind.savePage(id, "Final draft", testContext.succeeding(v4 -> {
+                        writeBehind.fetchPageById(id, testContext.succeeding(pending -> {
+                            testContext.verify(() -> {
+                                assertThat(pending.getString("content"), is("Final draft"));
+                                assertThat(pending.getString("html"), is(nullValue()));
+                            });
+                            service.fetchRevisions(id, 0, 10, testContext.succeeding(before -> {
+                                testContext.verify(() -> assertThat(before.isEmpty(), is(true)));
+                                writeBehind.close().onComplete(testContext.succeeding(v5 -> {
+                                    service.fetchRevisions(id, 0, 10, testContext.succeeding(after -> {
+                                        service.fetchPageById(id, testContext.succeeding(written -> {
+                                            testContext.verify(() -> {
+                                                assertThat(after.size(), is(1));
+                                                assertThat(written.getString("content"), is("Final draft"));
+                                                testContext.completeNow();
+                                            });
+                                        }));
+                                    }));
+                                }));
+                            }));
+                        }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("☣️ Write-behind isolates saves the database rejects")
+    void write_behind_failures(VertxTestContext testContext) {
+        String id = UUID.randomUUID().toString();
+        String rejected = UUID.randomUUID().toString();
+        // Delegado que falla cualquier savePages que lleve la pagina rejected
+        AtomicInteger rejectedWrites = new AtomicInteger();
+        WikiDbService failing = (WikiDbService) Proxy.newProxyInstance(WikiDbService.class.getClassLoader(),
+                new Class<?>[]{WikiDbService.class}, (proxy, method, args) -> {
+                    if(method.getName().equals("savePages") && ((List<JsonObject>) args[0]).stream()
+                            .anyMatch(page -> page.getString("id").equals(rejected))) {
+                        rejectedWrites.incrementAndGet();
+                        ((Handler<AsyncResult<List<Boolean>>>) args[1]).handle(Future.failedFuture("Rejected"));
+                        return proxy;
+                    }
+                    method.invoke(service, args);
+                    return proxy;
+                });
+        WikiDbServiceWriteBehind writeBehind = new WikiDbServiceWriteBehind(vertx, failing, new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, 10L));
+        double dropped = Metrics.registry().counter("wiki.writebehind.saves", "stage", "dropped").count();
+        service.createPage(id, "isolated", testContext.succeeding(v1 -> {
+            writeBehind.savePage("not-a-page-id", "Lost", testContext.failing(invalid -> {
+                writeBehind.savePage(id, "Kept", testContext.succeeding(v2 -> {
+                    writeBehind.savePage(rejected, "Dropped", testContext.succeeding(v3 -> {
+                        vertx.setPeriodic(20, timer -> {
+                            if(Metrics.registry().counter("wiki.writebehind.saves", "stage", "dropped").count()
+                                    == dropped) {
+                                return;
+                            }
+                            vertx.cancelTimer(timer);
+                            service.fetchPageById(id, testContext.succeeding(written -> testContext.verify(() -> {
+                                // Una escritura con las dos paginas y luego la rechazada sola en cada intento
+                                assertThat(rejectedWrites.get(), is(WriteBehindBuffer.MAX_ATTEMPTS + 1));
+                                assertThat(written.getString("content"), is("Kept"));
+                                testContext.completeNow();
+                            })));
+                        });
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    @DisplayName("🔌 Write-behind keeps saves while the database is down")
+    void write_behind_outage(VertxTestContext testContext) {
+        String first = UUID.randomUUID().toString();
+        String second = UUID.randomUUID().toString();
+        // Delegado con la DB caida mientras down es true: fallan las escrituras y las lecturas
+        AtomicBoolean down = new AtomicBoolean(true);
+        AtomicInteger failedWrites = new AtomicInteger();
+        WikiDbService failing = (WikiDbService) Proxy.newProxyInstance(WikiDbService.class.getClassLoader(),
+                new Class<?>[]{WikiDbService.class}, (proxy, method, args) -> {
+                    if(down.get() && method.getName().equals("savePages")) {
+                        failedWrites.incrementAndGet();
+                        ((Handler<AsyncResult<List<Boolean>>>) args[1]).handle(Future.failedFuture("Down"));
+                        return proxy;
+                    }
+                    if(down.get() && method.getName().equals("fetchPages")) {
+                        ((Handler<AsyncResult<JsonObject>>) args[2]).handle(Future.failedFuture("Down"));
+                        return proxy;
+                    }
+                    method.invoke(service, args);
+                    return proxy;
+                });
+        WikiDbServiceWriteBehind writeBehind = new WikiDbServiceWriteBehind(vertx, failing, new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, 10L));
+        double dropped = Metrics.registry().counter("wiki.writebehind.saves", "stage", "dropped").count();
+        service.createPage(first, "outage-first", testContext.succeeding(v1 -> {
+            service.createPage(second, "outage-second", testContext.succeeding(v2 -> {
+                writeBehind.savePage(first, "First kept", testContext.succeeding(v3 -> {
+                    writeBehind.savePage(second, "Second kept", testContext.succeeding(v4 -> {
+                        vertx.setPeriodic(10, timer -> {
+                            // Mas escrituras fallidas que ventanas tiene MAX_ATTEMPTS, una en bloque y dos sueltas
+                            // por ventana
+                            if(failedWrites.get() <= 3 * (WriteBehindBuffer.MAX_ATTEMPTS + 1)) {
+                                return;
+                            }
+                            vertx.cancelTimer(timer);
+                            writeBehind.savePage(first, "Refused", testContext.failing(refused -> {
+                                down.set(false);
+                                whenWritten(first, "First kept", () -> whenWritten(second, "Second kept", () ->
+                                        testContext.verify(() -> {
+                                            assertThat(Metrics.registry().counter("wiki.writebehind.saves",
+                                                    "stage", "dropped").count(), is(dropped));
+                                            testContext.completeNow();
+                                        })));
+                            }));
+                        });
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    // Espera a que la pagina tenga ese contenido en la DB
+    private void whenWritten(final String id, final String content, final Runnable next) {
+        service.fetchPageById(id, page -> {
+            if(page.succeeded() && content.equals(page.result().getString("content"))) {
+                next.run();
+            } else {
+                vertx.setTimer(10, timer -> whenWritten(id, content, next));
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("🪢 Identical concurrent reads share one query")
+    void coalesced_reads(VertxTestContext testContext) {
+        // Sesion falsa: cada sentencia se queda pendiente hasta que el test la termina
+        List<Promise<List<JsonArray>>> queries = new ArrayList<>();
+        List<Promise<Integer>> updates = new ArrayList<>();
+        SqlSession pending = new SqlSession() {
+            @Override
+            public Future<Void> execute(String sql) {
+                return Future.succeededFuture();
+            }
+
+            @Override
+            public Future<List<JsonArray>> query(String sql, JsonArray params) {
+                Promise<List<JsonArray>> query = Promise.promise();
+                queries.add(query);
+                return query.future();
+            }
+
+            @Override
+            public Future<Integer> update(String sql, JsonArray params) {
+                Promise<Integer> update = Promise.promise();
+                updates.add(update);
+                return update.future();
+            }
+
+            @Override
+            public Future<List<Integer>> batch(String sql, List<JsonArray> params) {
+                return Future.succeededFuture(new ArrayList<>());
+            }
+        };
+        Map<String, SqlQuery> queryNames = new HashMap<>();
+        queryNames.put("byId", SqlQuery.GET_PAGE_BY_ID);
+        queryNames.put("update", SqlQuery.UPDATE_PAGE);
+        SqlSession session = new CoalescingSqlSession(pending, queryNames, new CoalescingSqlSession.WriteEpoch(),
+                Metrics.registry());
+        double coalesced = Metrics.registry().counter("wiki.db.coalesced", "query", "get_page_by_id").count();
+        JsonArray page = new JsonArray().add("page");
+
+        Future<List<JsonArray>> first = session.query("byId", page);
+        Future<List<JsonArray>> second = session.query("byId", page.copy());
+        session.query("byId", new JsonArray().add("other"));
+        Future<Integer> write = session.update("update", page);
+        Future<List<JsonArray>> duringWrite = session.query("byId", page);
+        updates.get(0).complete(1);
+        Future<List<JsonArray>> afterWrite = session.query("byId", page);
+        List<JsonArray> rows = Collections.singletonList(new JsonArray().add("row"));
+        queries.get(0).complete(rows);
+        testContext.verify(() -> {
+            // La segunda lectura espera a la primera, la de otra pagina y las que cruzan la escritura van a la DB
+            assertThat(second, is(first));
+            assertThat(second.result(), is(rows));
+            assertThat(queries.size(), is(4));
+            assertThat(write.succeeded(), is(true));
+            assertThat(duringWrite, is(not(first)));
+            assertThat(afterWrite, is(not(duringWrite)));
+            assertThat(Metrics.registry().counter("wiki.db.coalesced", "query", "get_page_by_id").count(),
+                    is(coalesced + 1));
+            testContext.completeNow();
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package es.rodrimmb.wiki.http;
+
+import es.rodrimmb.wiki.MainVerticle;
+import es.rodrimmb.wiki.database.DatabaseConstants;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.codec.BodyCodec;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@ExtendWith(VertxExtension.class)
+class AdmissionControlTest {
+
+    // El limite de escrituras no se mueve de aqui, es tambien el minimo
+    private static final int WRITE_LIMIT = 4;
+
+    @Test
+    @DisplayName("🚧 Writes over the limit get a 503 and rerouted writes free their slot")
+    void write_admission(Vertx vertx, VertxTestContext testContext) {
+        JsonObject config = new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki-admission;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(DatabaseConstants.CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE,
+                        "src/test/resources/db-queries-test.properties")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(MainVerticle.CONFIG_HTTP_INSTANCES, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8084)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_WRITE_LIMIT, WRITE_LIMIT)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_WRITE_MAX_LIMIT, WRITE_LIMIT);
+        vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config),
+                testContext.succeeding(deployed -> {
+            WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                    .setDefaultHost("localhost")
+                    .setDefaultPort(8084));
+            ConcurrencyLimit writes = vertx.sharedData()
+                    .<String, ConcurrencyLimit>getLocalMap(AdmissionControl.HTTP_ADMISSION_LIMITS)
+                    .get(AdmissionControl.WRITES);
+            // POST /create termina en /wiki/:id con reroute, cada una tiene que dejar libre su sitio
+            Future<HttpResponse<Buffer>> created = Future.succeededFuture();
+            for(int i = 0; i <= WRITE_LIMIT; i++) {
+                String name = "admission " + i;
+                created = created.compose(previous -> {
+                    assertThat(previous == null || previous.statusCode() == 200, is(true));
+                    Promise<HttpResponse<Buffer>> promise = Promise.promise();
+                    webClient.post("/create").sendForm(MultiMap.caseInsensitiveMultiMap().add("name", name), promise);
+                    return promise.future();
+                });
+            }
+            created.compose(last -> {
+                assertThat(last.statusCode(), is(200));
+                return released(vertx, writes);
+            }).onComplete(testContext.succeeding(none -> {
+                // Con todos los sitios ocupados la siguiente escritura se rechaza al momento
+                for(int i = 0; i < WRITE_LIMIT; i++) {
+                    writes.tryAcquire();
+                }
+                JsonObject page = new JsonObject().put("id", UUID.randomUUID().toString()).put("name", "rejected");
+                webClient.post("/api/pages").as(BodyCodec.jsonObject()).sendJsonObject(page,
+                        testContext.succeeding(rejected -> {
+                    for(int i = 0; i < WRITE_LIMIT; i++) {
+                        writes.release(-1);
+                    }
+                    testContext.verify(() -> {
+                        assertThat(rejected.statusCode(), is(503));
+                        assertThat(rejected.getHeader("Retry-After"), is("1"));
+                        assertThat(rejected.body().getBoolean("success"), is(false));
+                        assertThat(rejected.body().getInteger("limit"), is(WRITE_LIMIT));
+                        testContext.completeNow();
+                    });
+                }));
+            }));
+        }));
+    }
+
+    // El sitio se libera al terminar de escribir la respuesta, que puede ser justo despues de que llegue al cliente
+    private static Future<Void> released(final Vertx vertx, final ConcurrencyLimit limit) {
+        Promise<Void> promise = Promise.promise();
+        long timeout = System.currentTimeMillis() + 1000;
+        vertx.setPeriodic(10, timer -> {
+            if(limit.inFlight() == 0) {
+                vertx.cancelTimer(timer);
+                promise.complete();
+            } else if(System.currentTimeMillis() > timeout) {
+                vertx.cancelTimer(timer);
+                promise.fail("Still " + limit.inFlight() + " writes in flight");
+            }
+        });
+        return promise.future();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package es.rodrimmb.wiki.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class ConcurrencyLimitTest {
+
+    private static final long TARGET_MILLIS = 100;
+    private static final long TARGET = TARGET_MILLIS * 1_000_000;
+
+    @Test
+    @DisplayName("🚫 Requests over the limit are rejected until one ends")
+    void rejects_over_limit() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(4, 4, 4, TARGET_MILLIS);
+        for(int i = 0; i < 4; i++) {
+            assertThat(limit.tryAcquire(), is(true));
+        }
+        assertThat(limit.tryAcquire(), is(false));
+        limit.release(-1);
+        assertThat(limit.inFlight(), is(3));
+        assertThat(limit.tryAcquire(), is(true));
+    }
+
+    @Test
+    @DisplayName("📉 A burst of slow requests lowers the limit once per window")
+    void one_decrease_per_window() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(100, 4, 200, TARGET_MILLIS);
+        long now = System.nanoTime();
+        for(int i = 0; i < 50; i++) {
+            limit.tryAcquire();
+        }
+        for(int i = 0; i < 50; i++) {
+            limit.release(2 * TARGET, now);
+        }
+        assertThat(limit.limit(), is(90));
+        // Pasada la ventana la siguiente lenta vuelve a bajarlo
+        limit.tryAcquire();
+        limit.release(2 * TARGET, now + TARGET);
+        assertThat(limit.limit(), is(81));
+    }
+
+    @Test
+    @DisplayName("📈 Fast requests raise the limit while it is in use")
+    void increase_when_used() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(4, 4, 6, TARGET_MILLIS);
+        long now = System.nanoTime();
+        // Con una sola peticion en curso no se usa la mitad del limite y no sube
+        limit.tryAcquire();
+        limit.release(TARGET / 2, now);
+        assertThat(limit.limit(), is(4));
+        for(int round = 0; round < 4; round++) {
+            for(int i = 0; i < limit.limit(); i++) {
+                limit.tryAcquire();
+            }
+            limit.release(TARGET / 2, now);
+            while(limit.inFlight() > 0) {
+                limit.release(-1);
+            }
+        }
+        // Nunca pasa del maximo
+        assertThat(limit.limit(), is(6));
+    }
+}
\ No newline at end of file
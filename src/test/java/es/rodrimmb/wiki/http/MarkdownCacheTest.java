@@ -0,0 +1,57 @@
+package es.rodrimmb.wiki.http;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class MarkdownCacheTest {
+
+    // Cada entrada de los tests ocupa 2 * (2 + 2 + 8) = 24 bytes
+    private static final long ENTRY_BYTES = 24;
+
+    @Test
+    @DisplayName("🎯 Same page version is served from the cache")
+    void hit_on_same_version() {
+        MarkdownCache cache = new MarkdownCache(10 * ENTRY_BYTES);
+        cache.put("p1", "v1", "<p>a</p>");
+        assertThat(cache.get("p1", "v1"), is("<p>a</p>"));
+        assertThat(cache.hits(), is(1L));
+        assertThat(cache.misses(), is(0L));
+    }
+
+    @Test
+    @DisplayName("✏️ A new page version misses the cache")
+    void miss_after_change() {
+        MarkdownCache cache = new MarkdownCache(10 * ENTRY_BYTES);
+        cache.put("p1", "v1", "<p>a</p>");
+        assertThat(cache.get("p1", "v2"), is(nullValue()));
+        assertThat(cache.misses(), is(1L));
+        // Al guardar la nueva version reemplaza a la anterior sin sumar su tamaño
+        cache.put("p1", "v2", "<p>b</p>");
+        assertThat(cache.get("p1", "v2"), is("<p>b</p>"));
+        assertThat(cache.get("p1", "v1"), is(nullValue()));
+        assertThat(cache.sizeInBytes(), is(ENTRY_BYTES));
+    }
+
+    @Test
+    @DisplayName("🧹 Least recently used pages are evicted at capacity")
+    void eviction_at_capacity() {
+        MarkdownCache cache = new MarkdownCache(2 * ENTRY_BYTES);
+        cache.put("p1", "v1", "<p>a</p>");
+        cache.put("p2", "v1", "<p>b</p>");
+        // p1 pasa a ser la mas reciente, al llenarse la cache sale p2
+        assertThat(cache.get("p1", "v1"), is("<p>a</p>"));
+        cache.put("p3", "v1", "<p>c</p>");
+        assertThat(cache.sizeInBytes(), is(2 * ENTRY_BYTES));
+        assertThat(cache.get("p2", "v1"), is(nullValue()));
+        assertThat(cache.get("p1", "v1"), is("<p>a</p>"));
+        assertThat(cache.get("p3", "v1"), is("<p>c</p>"));
+        // Una entrada mas grande que toda la cache no se guarda ni vacia lo que hay
+        cache.put("p4", "v1", "<p>" + "x".repeat(100) + "</p>");
+        assertThat(cache.get("p4", "v1"), is(nullValue()));
+        assertThat(cache.sizeInBytes(), is(2 * ENTRY_BYTES));
+    }
+}
\ No newline at end of file
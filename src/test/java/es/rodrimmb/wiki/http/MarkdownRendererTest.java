@@ -0,0 +1,148 @@
+package es.rodrimmb.wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import es.rodrimmb.wiki.MainVerticle;
+import es.rodrimmb.wiki.database.DatabaseConstants;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.ext.web.codec.BodyCodec;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+@ExtendWith(VertxExtension.class)
+class MarkdownRendererTest {
+
+    private static final String POOL = "markdown-render-test";
+    private static final String SMALL = "# Small";
+    private static final String LARGE = "# A page larger than the inline limit";
+
+    // Ocupa el unico worker del pool compartido hasta que se abre release
+    private static void holdWorker(final Vertx vertx, final String pool, final CountDownLatch release) {
+        WorkerExecutor busy = vertx.createSharedWorkerExecutor(pool, 1);
+        busy.executeBlocking(blocking -> {
+            try {
+                release.await();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blocking.complete();
+        }, false, done -> busy.close());
+    }
+
+    @Test
+    @DisplayName("⚡ Small pages are rendered inline")
+    void inline_render(Vertx vertx, VertxTestContext testContext) {
+        CountDownLatch release = new CountDownLatch(1);
+        holdWorker(vertx, POOL, release);
+        vertx.runOnContext(v -> {
+            MarkdownRenderer renderer = new MarkdownRenderer(vertx, POOL, 1, 1, SMALL.length());
+            Future<String> html = renderer.render(SMALL);
+            testContext.verify(() -> {
+                // Con el worker ocupado solo puede estar ya terminado si se ha renderizado en el event loop
+                assertThat(html.succeeded(), is(true));
+                assertThat(html.result(), is(Processor.process(SMALL)));
+            });
+            release.countDown();
+            renderer.close();
+            testContext.completeNow();
+        });
+    }
+
+    @Test
+    @DisplayName("🧵 Large pages wait for a worker and fail fast when the queue is full")
+    void worker_queue(Vertx vertx, VertxTestContext testContext) {
+        CountDownLatch release = new CountDownLatch(1);
+        holdWorker(vertx, POOL, release);
+        vertx.runOnContext(v -> {
+            MarkdownRenderer renderer = new MarkdownRenderer(vertx, POOL, 1, 1, SMALL.length());
+            Future<String> queued = renderer.render(LARGE);
+            Future<String> rejected = renderer.render(LARGE);
+            testContext.verify(() -> {
+                assertThat(queued.isComplete(), is(false));
+                assertThat(rejected.failed(), is(true));
+                assertThat(rejected.cause(), is(instanceOf(MarkdownRenderer.QueueFullException.class)));
+                // Las pequeñas no pasan por la cola
+                assertThat(renderer.render(SMALL).succeeded(), is(true));
+            });
+            release.countDown();
+            queued.onComplete(testContext.succeeding(html -> {
+                testContext.verify(() -> assertThat(html, is(Processor.process(LARGE))));
+                // Al terminar deja su sitio en la cola
+                renderer.render(LARGE).onComplete(testContext.succeeding(again -> {
+                    renderer.close();
+                    testContext.completeNow();
+                }));
+            }));
+        });
+    }
+
+    @Test
+    @DisplayName("🛑 A full render queue answers 503")
+    void queue_full_503(Vertx vertx, VertxTestContext testContext) {
+        // Ocupamos el pool de HttpServerVerticle antes de desplegar, el verticle usa el mismo por nombre
+        CountDownLatch release = new CountDownLatch(1);
+        holdWorker(vertx, "markdown-render", release);
+        JsonObject config = new JsonObject()
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:wiki-render;shutdown=true")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_DRIVER, "org.hsqldb.jdbcDriver")
+                .put(DatabaseConstants.CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE,
+                        "src/test/resources/db-queries-test.properties")
+                .put(DatabaseConstants.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(DatabaseConstants.CONFIG_WIKIDB_MARKDOWN_RENDER_ON_SAVE, false)
+                .put(MainVerticle.CONFIG_HTTP_INSTANCES, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8083)
+                .put(HttpServerVerticle.CONFIG_MARKDOWN_RENDER_POOL_SIZE, 1)
+                .put(HttpServerVerticle.CONFIG_MARKDOWN_RENDER_MAX_QUEUE, 1)
+                .put(HttpServerVerticle.CONFIG_MARKDOWN_RENDER_INLINE_MAX_CHARS, 0);
+        String id = UUID.randomUUID().toString();
+        vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config),
+                testContext.succeeding(deployed -> {
+            WebClient webClient = WebClient.create(vertx, new WebClientOptions()
+                    .setDefaultHost("localhost")
+                    .setDefaultPort(8083));
+            JsonObject page = new JsonObject().put("id", id).put("name", "render queue");
+            JsonObject content = new JsonObject().put("content", LARGE);
+            webClient.post("/api/pages").sendJsonObject(page, testContext.succeeding(create -> {
+                webClient.put("/api/pages/" + id).sendJsonObject(content, testContext.succeeding(save -> {
+                    // Una de las dos peticiones ocupa la cola y la otra se rechaza, da igual cual llegue antes
+                    int[] statuses = new int[2];
+                    for(int i = 0; i < 2; i++) {
+                        int request = i;
+                        webClient.get("/api/pages/" + id)
+                                .as(BodyCodec.jsonObject())
+                                .send(testContext.succeeding(response -> {
+                            statuses[request] = response.statusCode();
+                            if(response.statusCode() == 503) {
+                                testContext.verify(() -> assertThat(response.body().getBoolean("success"),
+                                        is(false)));
+                                release.countDown();
+                            } else {
+                                testContext.verify(() -> assertThat(response.body().getJsonObject("page")
+                                        .getString("html"), is(Processor.process(LARGE))));
+                            }
+                            if(statuses[0] != 0 && statuses[1] != 0) {
+                                testContext.verify(() -> assertThat(statuses[0] + statuses[1], is(200 + 503)));
+                                testContext.completeNow();
+                            }
+                        }));
+                    }
+                }));
+            }));
+        }));
+    }
+}
\ No newline at end of file
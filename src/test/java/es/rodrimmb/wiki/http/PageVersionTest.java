@@ -0,0 +1,37 @@
+package es.rodrimmb.wiki.http;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class PageVersionTest {
+
+    @Test
+    @DisplayName("🕰️ The latest date wins whatever its number of decimals")
+    void latest_date_as_instant() {
+        // El driver quita los ceros del final, Instant.toString() deja 3, 6 o 9 decimales
+        PageVersion created = PageVersion.of(new JsonObject()
+                .put("creation_date", "2020-05-10T10:20:40.5Z"));
+        PageVersion saved = PageVersion.of(new JsonObject()
+                .put("creation_date", "2020-05-10T10:20:40.5Z")
+                .put("update_date", "2020-05-10T10:20:40.512345Z"));
+        PageVersion expected = PageVersion.of(new JsonObject()
+                .put("creation_date", "2020-05-10T10:20:40.512345Z"));
+        assertThat(saved.etag().equals(created.etag()), is(false));
+        assertThat(saved.etag(), is(expected.etag()));
+    }
+
+    @Test
+    @DisplayName("🌍 Dates with an offset compare by instant")
+    void dates_with_offset() {
+        PageVersion version = PageVersion.of(new JsonObject()
+                .put("creation_date", "2020-05-10T12:20:40+02:00")
+                .put("update_date", "2020-05-10T10:20:41Z"));
+        PageVersion expected = PageVersion.of(new JsonObject()
+                .put("update_date", "2020-05-10T10:20:41Z"));
+        assertThat(version.etag(), is(expected.etag()));
+    }
+}
\ No newline at end of file